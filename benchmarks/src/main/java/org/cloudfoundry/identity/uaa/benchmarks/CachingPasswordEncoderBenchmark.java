@@ -0,0 +1,68 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.util.CachingPasswordEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeated password checks for the same user, with the in-memory cache enabled and disabled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CachingPasswordEncoderBenchmark {
+
+    private static final String PASSWORD = "koala-password";
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private CachingPasswordEncoder encoder;
+    private String encodedPassword;
+
+    @Setup
+    public void setup() throws Exception {
+        encoder = new CachingPasswordEncoder(new BCryptPasswordEncoder());
+        encoder.setEnabled(cacheEnabled);
+        encodedPassword = encoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return encoder.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public boolean mismatches() {
+        return encoder.matches("not-" + PASSWORD, encodedPassword);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.cypto.EncryptionService;
+import org.cloudfoundry.identity.uaa.cypto.EncryptionServiceException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encrypting and decrypting an MFA secret with a key derived on every call
+ * against the cached, per-process salt configuration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncryptionServiceBenchmark {
+
+    private static final String SECRET = "JBSWY3DPEHPK3PXPJBSWY3DPEHPK3PXP";
+
+    @Param({"uncached", "cached"})
+    public String mode;
+
+    private EncryptionService service;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setup() throws EncryptionServiceException {
+        service = "cached".equals(mode) ?
+            new EncryptionService("benchmark-passphrase", 1000, true) :
+            new EncryptionService("benchmark-passphrase");
+        ciphertext = service.encrypt(SECRET);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws EncryptionServiceException {
+        return service.encrypt(SECRET);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws EncryptionServiceException {
+        return service.decrypt(ciphertext);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.util.FakePasswordEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a typical SCIM user filter to SQL, and runs it against a seeded database
+ * (HSQLDB unless another profile is passed with -Dspring.profiles.active).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScimUserSearchBenchmark {
+
+    private static final String ZONE_ID = "jmh-benchmark-zone";
+    private static final int USERS = 1000;
+    private static final String FILTER = "(userName eq \"user-500@example.com\" or emails.value co \"user-50\") and origin eq \"uaa\" and active eq true";
+
+    private XmlWebApplicationContext context;
+    private SimpleSearchQueryConverter converter;
+    private JdbcScimUserProvisioning provisioning;
+
+    @Setup
+    public void setup() {
+        MockEnvironment environment = new MockEnvironment();
+        if (System.getProperty("spring.profiles.active") != null) {
+            environment.setActiveProfiles(StringUtils.commaDelimitedListToStringArray(System.getProperty("spring.profiles.active")));
+        }
+        context = new XmlWebApplicationContext();
+        context.setEnvironment(environment);
+        context.setConfigLocations("classpath:spring/env.xml", "classpath:spring/data-source.xml");
+        context.refresh();
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        LimitSqlAdapter limitSqlAdapter = context.getBean(LimitSqlAdapter.class);
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("emails\\.value", "email");
+        attributes.put("groups\\.display", "authorities");
+        attributes.put("phoneNumbers\\.value", "phoneNumber");
+        converter = new SimpleSearchQueryConverter();
+        converter.setAttributeNameMapper(new SimpleAttributeNameMapper(attributes));
+
+        provisioning = new JdbcScimUserProvisioning(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter), new FakePasswordEncoder());
+        provisioning.setQueryConverter(converter);
+
+        jdbcTemplate.update("delete from users where identity_zone_id = ?", ZONE_ID);
+        for (int i = 0; i < USERS; i++) {
+            ScimUser user = new ScimUser(null, "user-" + i + "@example.com", "Given" + i, "Family" + i);
+            user.addEmail("user-" + i + "@example.com");
+            user.setOrigin(OriginKeys.UAA);
+            provisioning.createUser(user, "password", ZONE_ID);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(JdbcTemplate.class).update("delete from users where identity_zone_id = ?", ZONE_ID);
+        context.close();
+    }
+
+    @Benchmark
+    public ProcessedFilter convert() {
+        return converter.convert(FILTER, "userName", true);
+    }
+
+    @Benchmark
+    public List<ScimUser> query() {
+        return provisioning.query(FILTER, "userName", true, ZONE_ID);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.KeyInfoService;
+import org.cloudfoundry.identity.uaa.oauth.TokenTestSupport;
+import org.cloudfoundry.identity.uaa.oauth.token.CompositeToken;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.DEFAULT_ISSUER;
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.OPENID;
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.READ;
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.WRITE;
+
+/**
+ * Issues and validates access tokens against the in-memory user, client and
+ * token stores used by the token services unit tests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenServicesBenchmark {
+
+    private final List<String> scopes = Arrays.asList(READ, WRITE, OPENID);
+
+    private TokenTestSupport support;
+    private KeyInfoService keyInfoService;
+    private String accessToken;
+
+    @Setup
+    public void setup() throws Exception {
+        support = new TokenTestSupport(null);
+        //the test publisher records every event, which would grow without bound here
+        support.getUaaTokenServices().setApplicationEventPublisher(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+            }
+        });
+        keyInfoService = new KeyInfoService(DEFAULT_ISSUER);
+        accessToken = support.getCompositeAccessToken(scopes).getValue();
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearRecordedState() {
+        support.clear();
+        Mockito.clearInvocations(support.timeService, support.getTokenProvisioning());
+    }
+
+    @Benchmark
+    public CompositeToken createAccessToken() {
+        return support.getCompositeAccessToken(scopes);
+    }
+
+    @Benchmark
+    public TokenValidation validateAccessToken() {
+        return TokenValidation.buildAccessTokenValidator(accessToken, keyInfoService)
+            .checkSignature()
+            .checkExpiry();
+    }
+}
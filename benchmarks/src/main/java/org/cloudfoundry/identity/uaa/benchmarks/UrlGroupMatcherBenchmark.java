@@ -0,0 +1,100 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+import org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter;
+import org.cloudfoundry.identity.uaa.metrics.UrlGroup;
+import org.cloudfoundry.identity.uaa.metrics.UrlGroupMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the metrics URL group for a mix of request paths, with the linear scan over all
+ * configured patterns that the metrics filter used to do, the prefix trie, and the trie
+ * with its per path memo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlGroupMatcherBenchmark {
+
+    private static final String[] PATHS = {
+        "/oauth/token",
+        "/check_token",
+        "/Users/9a3e4d7c-5b8f-4e2a-a1d6-3c2b1f0e9d8a",
+        "/userinfo",
+        "/login",
+        "/vendor/font-awesome/css/font-awesome.min.css",
+        "/oauth/authorize",
+        "/healthz",
+        "/some/unknown/path"
+    };
+
+    @Param({"linear", "trie", "memoized"})
+    public String mode;
+
+    private Map<AntPathRequestMatcher, UrlGroup> linear;
+    private UrlGroupMatcher matcher;
+    private MockHttpServletRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        List<UrlGroup> groups = new UaaMetricsFilter().getUrlGroups();
+        linear = new LinkedHashMap<>();
+        groups.forEach(group -> linear.put(new AntPathRequestMatcher(group.getPattern()), group));
+        matcher = new UrlGroupMatcher(groups, "memoized".equals(mode) ? UaaMetricsFilter.URL_GROUP_MEMO_SIZE : 0);
+        requests = new MockHttpServletRequest[PATHS.length];
+        for (int i = 0; i < PATHS.length; i++) {
+            requests[i] = new MockHttpServletRequest("GET", "/uaa" + PATHS[i]);
+            requests[i].setContextPath("/uaa");
+            requests[i].setPathInfo(PATHS[i]);
+        }
+    }
+
+    @Benchmark
+    public UrlGroup match() {
+        MockHttpServletRequest request = requests[next];
+        next = (next + 1) % requests.length;
+        if ("linear".equals(mode)) {
+            for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : linear.entrySet()) {
+                if (entry.getKey().matches(request)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+        return matcher.match(request);
+    }
+}
@@ -56,6 +56,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     public static final String LDAP_GROUP_FILE_GROUPS_MAP_TO_SCOPES = "ldap/ldap-groups-map-to-scopes.xml";
     public static final String LDAP_GROUP_FILE_GROUPS_NULL_XML = "ldap/ldap-groups-null.xml";
     public static final String LDAP_GROUPS_AUTO_ADD = LDAP_PREFIX + "groups.autoAdd";
+    public static final String LDAP_GROUPS_CACHE_EXPIRY_SECONDS = LDAP_PREFIX + "groups.cacheExpirySeconds";
     public static final String LDAP_GROUPS_FILE = LDAP_PREFIX + "groups.file";
     public static final String LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE = LDAP_PREFIX + "groups.groupRoleAttribute";
     public static final String LDAP_GROUPS_GROUP_SEARCH_FILTER = LDAP_PREFIX + "groups.groupSearchFilter";
@@ -63,6 +64,11 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     public static final String LDAP_GROUPS_MAX_SEARCH_DEPTH = LDAP_PREFIX + "groups.maxSearchDepth";
     public static final String LDAP_GROUPS_SEARCH_BASE = LDAP_PREFIX + "groups.searchBase";
     public static final String LDAP_GROUPS_SEARCH_SUBTREE = LDAP_PREFIX + "groups.searchSubtree";
+    public static final String LDAP_POOL_ENABLED = LDAP_PREFIX + "pool.enabled";
+    public static final String LDAP_POOL_IDLE_TIMEOUT = LDAP_PREFIX + "pool.idleTimeout";
+    public static final String LDAP_POOL_MAX_SIZE = LDAP_PREFIX + "pool.maxSize";
+    public static final String LDAP_POOL_MAX_WAIT = LDAP_PREFIX + "pool.maxWait";
+    public static final String LDAP_POOL_VALIDATION_FILTER = LDAP_PREFIX + "pool.validationFilter";
     public static final String LDAP_PROFILE_FILE = LDAP_PREFIX + "profile.file";
     public static final String LDAP_PROFILE_FILE_SEARCH_AND_BIND = "ldap/ldap-search-and-bind.xml";
     public static final String LDAP_PROFILE_FILE_SEARCH_AND_COMPARE = "ldap/ldap-search-and-compare.xml";
@@ -111,6 +117,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             LDAP_EMAIL_DOMAIN,
             LDAP_EXTERNAL_GROUPS_WHITELIST,
             LDAP_GROUPS_AUTO_ADD,
+            LDAP_GROUPS_CACHE_EXPIRY_SECONDS,
             LDAP_GROUPS_FILE,
             LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE,
             LDAP_GROUPS_GROUP_SEARCH_FILTER,
@@ -118,6 +125,11 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             LDAP_GROUPS_MAX_SEARCH_DEPTH,
             LDAP_GROUPS_SEARCH_BASE,
             LDAP_GROUPS_SEARCH_SUBTREE,
+            LDAP_POOL_ENABLED,
+            LDAP_POOL_IDLE_TIMEOUT,
+            LDAP_POOL_MAX_SIZE,
+            LDAP_POOL_MAX_WAIT,
+            LDAP_POOL_VALIDATION_FILTER,
             LDAP_PROFILE_FILE,
             LDAP_SSL_SKIPVERIFICATION,
             LDAP_SSL_TLS
@@ -145,6 +157,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         LDAP_PROPERTY_TYPES.put(LDAP_EMAIL_DOMAIN, List.class);
         LDAP_PROPERTY_TYPES.put(LDAP_EXTERNAL_GROUPS_WHITELIST, List.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_AUTO_ADD, Boolean.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_CACHE_EXPIRY_SECONDS, Integer.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_FILE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_GROUP_SEARCH_FILTER, String.class);
@@ -152,6 +165,11 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_MAX_SEARCH_DEPTH, Integer.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_SEARCH_BASE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_SEARCH_SUBTREE, Boolean.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_ENABLED, Boolean.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_IDLE_TIMEOUT, Long.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_MAX_SIZE, Integer.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_MAX_WAIT, Long.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_VALIDATION_FILTER, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_PROFILE_FILE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_SSL_SKIPVERIFICATION, Boolean.class);
         LDAP_PROPERTY_TYPES.put(LDAP_SSL_TLS, String.class);
@@ -185,9 +203,16 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     private Boolean groupSearchSubTree = true;
     private int maxGroupSearchDepth = 10;
     private String groupRoleAttribute;
+    private Integer groupCacheExpirySeconds = 0;
 
     private String tlsConfiguration = LDAP_TLS_NONE;
 
+    private Boolean connectionPoolEnabled = false;
+    private Integer connectionPoolMaxSize = 8;
+    private Long connectionPoolMaxWait = 5000L;
+    private Long connectionPoolIdleTimeout = 300000L;
+    private String connectionPoolValidationFilter = "objectclass=*";
+
     public static LdapIdentityProviderDefinition searchAndBindMapGroupToScopes(
         String baseUrl,
         String bindUserDn,
@@ -403,6 +428,17 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         this.groupRoleAttribute = groupRoleAttribute;
     }
 
+    /**
+     * @return the seconds resolved groups of a user, and the parent groups of a group, are reused; 0 disables caching
+     */
+    public Integer getGroupCacheExpirySeconds() {
+        return groupCacheExpirySeconds;
+    }
+
+    public void setGroupCacheExpirySeconds(Integer groupCacheExpirySeconds) {
+        this.groupCacheExpirySeconds = groupCacheExpirySeconds;
+    }
+
     @JsonIgnore
     public Boolean isConfigured() {
         return StringUtils.hasText(getBaseUrl());
@@ -452,6 +488,58 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
 
     }
 
+    /**
+     * @return true if searches with the bind user DN use pooled connections, binds as a user never do
+     */
+    public Boolean isConnectionPoolEnabled() {
+        return connectionPoolEnabled == null ? false : connectionPoolEnabled;
+    }
+
+    public void setConnectionPoolEnabled(Boolean connectionPoolEnabled) {
+        this.connectionPoolEnabled = connectionPoolEnabled;
+    }
+
+    public Integer getConnectionPoolMaxSize() {
+        return connectionPoolMaxSize;
+    }
+
+    public void setConnectionPoolMaxSize(Integer connectionPoolMaxSize) {
+        this.connectionPoolMaxSize = connectionPoolMaxSize;
+    }
+
+    /**
+     * @return the milliseconds to wait for a pooled connection when all are in use
+     */
+    public Long getConnectionPoolMaxWait() {
+        return connectionPoolMaxWait;
+    }
+
+    public void setConnectionPoolMaxWait(Long connectionPoolMaxWait) {
+        this.connectionPoolMaxWait = connectionPoolMaxWait;
+    }
+
+    /**
+     * @return the milliseconds after which idle pooled connections are closed
+     */
+    public Long getConnectionPoolIdleTimeout() {
+        return connectionPoolIdleTimeout;
+    }
+
+    public void setConnectionPoolIdleTimeout(Long connectionPoolIdleTimeout) {
+        this.connectionPoolIdleTimeout = connectionPoolIdleTimeout;
+    }
+
+    /**
+     * @return the filter of the base object search that validates a pooled connection before it is used
+     */
+    public String getConnectionPoolValidationFilter() {
+        return connectionPoolValidationFilter;
+    }
+
+    public void setConnectionPoolValidationFilter(String connectionPoolValidationFilter) {
+        this.connectionPoolValidationFilter = connectionPoolValidationFilter;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -499,6 +587,17 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             return false;
         if (groupSearchSubTree != null ? !groupSearchSubTree.equals(that.groupSearchSubTree) : that.groupSearchSubTree != null)
             return false;
+        if (groupCacheExpirySeconds != null ? !groupCacheExpirySeconds.equals(that.groupCacheExpirySeconds) : that.groupCacheExpirySeconds != null)
+            return false;
+        if (!isConnectionPoolEnabled().equals(that.isConnectionPoolEnabled())) return false;
+        if (connectionPoolMaxSize != null ? !connectionPoolMaxSize.equals(that.connectionPoolMaxSize) : that.connectionPoolMaxSize != null)
+            return false;
+        if (connectionPoolMaxWait != null ? !connectionPoolMaxWait.equals(that.connectionPoolMaxWait) : that.connectionPoolMaxWait != null)
+            return false;
+        if (connectionPoolIdleTimeout != null ? !connectionPoolIdleTimeout.equals(that.connectionPoolIdleTimeout) : that.connectionPoolIdleTimeout != null)
+            return false;
+        if (connectionPoolValidationFilter != null ? !connectionPoolValidationFilter.equals(that.connectionPoolValidationFilter) : that.connectionPoolValidationFilter != null)
+            return false;
         return !(groupRoleAttribute != null ? !groupRoleAttribute.equals(that.groupRoleAttribute) : that.groupRoleAttribute != null);
 
     }
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SCIM bulk request, see <a href="https://tools.ietf.org/html/rfc7644#section-3.7">RFC 7644, section 3.7</a>.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimBulkRequest {
+
+    public static final String SCHEMA = "urn:ietf:params:scim:api:messages:2.0:BulkRequest";
+
+    private String[] schemas = new String[] { SCHEMA };
+
+    private Integer failOnErrors;
+
+    @JsonProperty("Operations")
+    private List<Operation> operations = new ArrayList<>();
+
+    public String[] getSchemas() {
+        return schemas;
+    }
+
+    public void setSchemas(String[] schemas) {
+        this.schemas = schemas;
+    }
+
+    public Integer getFailOnErrors() {
+        return failOnErrors;
+    }
+
+    public void setFailOnErrors(Integer failOnErrors) {
+        this.failOnErrors = failOnErrors;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Operation {
+
+        private String method;
+
+        private String bulkId;
+
+        private String path;
+
+        private Map<String, Object> data;
+
+        public Operation() {
+        }
+
+        public Operation(String method, String bulkId, String path, Map<String, Object> data) {
+            this.method = method;
+            this.bulkId = bulkId;
+            this.path = path;
+            this.data = data;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        public String getBulkId() {
+            return bulkId;
+        }
+
+        public void setBulkId(String bulkId) {
+            this.bulkId = bulkId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public Map<String, Object> getData() {
+            return data;
+        }
+
+        public void setData(Map<String, Object> data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.scim;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The results of a {@link ScimBulkRequest}, one operation per processed request operation.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScimBulkResponse {
+
+    public static final String SCHEMA = "urn:ietf:params:scim:api:messages:2.0:BulkResponse";
+
+    private String[] schemas = new String[] { SCHEMA };
+
+    @JsonProperty("Operations")
+    private List<Operation> operations = new ArrayList<>();
+
+    public ScimBulkResponse() {
+    }
+
+    public ScimBulkResponse(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public String[] getSchemas() {
+        return schemas;
+    }
+
+    public void setSchemas(String[] schemas) {
+        this.schemas = schemas;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Operation {
+
+        private String method;
+
+        private String bulkId;
+
+        private String version;
+
+        private String location;
+
+        private String status;
+
+        private Object response;
+
+        public Operation() {
+        }
+
+        public Operation(String method, String bulkId, String status) {
+            this.method = method;
+            this.bulkId = bulkId;
+            this.status = status;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        public String getBulkId() {
+            return bulkId;
+        }
+
+        public void setBulkId(String bulkId) {
+            this.bulkId = bulkId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public void setLocation(String location) {
+            this.location = location;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public Object getResponse() {
+            return response;
+        }
+
+        public void setResponse(Object response) {
+            this.response = response;
+        }
+    }
+}
@@ -12,7 +12,10 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.approval;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface ApprovalStore {
 
@@ -30,5 +33,13 @@ public interface ApprovalStore {
 
     public List<Approval> getApprovalsForUser(String userId, final String zoneId);
 
+    public default Map<String, List<Approval>> getApprovalsForUsers(Collection<String> userIds, final String zoneId) {
+        Map<String, List<Approval>> result = new HashMap<>();
+        for (String userId : userIds) {
+            result.put(userId, getApprovalsForUser(userId, zoneId));
+        }
+        return result;
+    }
+
     public List<Approval> getApprovalsForClient(String clientId, final String zoneId);
 }
@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.approval;
 
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus;
@@ -27,6 +28,8 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.util.Assert;
@@ -35,8 +38,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.APPROVED;
 
@@ -44,6 +51,8 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
 
     private final JdbcTemplate jdbcTemplate;
 
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final RowMapper<Approval> rowMapper = new AuthorizationRowMapper();
@@ -75,6 +84,8 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
 
     public static final String DELETE_OF_USER_APPROVALS_BY_PROVIDER = "delete from authz_approvals where user_id in (select id from users where identity_zone_id = ? and origin = ?)";
 
+    private static final int USER_BATCH_SIZE = 500;
+
 
     private boolean handleRevocationsAsExpiry = false;
     private ApplicationEventPublisher applicationEventPublisher;
@@ -82,6 +93,7 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
     public JdbcApprovalStore(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
     }
 
     public void setHandleRevocationsAsExpiry(boolean handleRevocationsAsExpiry) {
@@ -229,6 +241,22 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         );
     }
 
+    @Override
+    public Map<String, List<Approval>> getApprovalsForUsers(Collection<String> userIds, final String zoneId) {
+        Map<String, List<Approval>> result = new HashMap<>();
+        userIds.forEach(userId -> result.put(userId, new ArrayList<>()));
+        String sql = GET_AUTHZ_SQL + " WHERE user_id in (:userIds) AND identity_zone_id = :zoneId";
+        for (List<String> batch : Lists.partition(new ArrayList<>(result.keySet()), USER_BATCH_SIZE)) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userIds", batch)
+                .addValue("zoneId", zoneId);
+            for (Approval approval : namedParameterJdbcTemplate.query(sql, params, rowMapper)) {
+                result.get(approval.getUserId()).add(approval);
+            }
+        }
+        return result;
+    }
+
     @Override
     public List<Approval> getApprovalsForClient(String clientId, final String zoneId) {
         String sql = GET_AUTHZ_SQL + " WHERE client_id = ? AND identity_zone_id = ?";
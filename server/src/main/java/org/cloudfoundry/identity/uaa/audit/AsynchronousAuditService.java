@@ -0,0 +1,375 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queues audit events in a bounded buffer and writes them to another {@link UaaAuditService}
+ * from a single background thread, in batches of up to {@code batchSize} events and at least
+ * every {@code flushIntervalMillis}.
+ * <p>
+ * Before events of a principal are queried, any of its events that are still queued are
+ * written, so that {@link #find(String, long, String)} returns the same results as the
+ * synchronous service. When the buffer is full, the {@link OverflowPolicy} decides whether
+ * the event is written by the caller, the caller waits for room, or the event is dropped.
+ * <p>
+ * Authentication failures are never queued: the lockout policies depend on them, so they are
+ * written by the caller, after the queued events of the same principal. The events that reset
+ * the failures of a principal are never dropped, they are written by the caller instead.
+ * Events of other principals are left to the writer thread.
+ */
+@ManagedResource
+(
+    objectName="cloudfoundry.identity:name=UaaAsynchronousAudit",
+    description = "UAA Asynchronous Audit Metrics"
+)
+public class AsynchronousAuditService implements UaaAuditService, DisposableBean {
+
+    public enum OverflowPolicy {
+        CALLER_RUNS, BLOCK, DROP
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AsynchronousAuditService.class);
+
+    private static final EnumSet<AuditEventType> SYNCHRONOUS_EVENT_TYPES = EnumSet.of(
+        AuditEventType.UserAuthenticationFailure,
+        AuditEventType.PrincipalAuthenticationFailure,
+        AuditEventType.ClientAuthenticationFailure,
+        AuditEventType.MfaAuthenticationFailure
+    );
+
+    private static final EnumSet<AuditEventType> RESET_EVENT_TYPES = EnumSet.of(
+        AuditEventType.UserAuthenticationSuccess,
+        AuditEventType.PasswordChangeSuccess,
+        AuditEventType.UserAccountUnlockedEvent,
+        AuditEventType.MfaAuthenticationSuccess
+    );
+
+    private final UaaAuditService delegate;
+    private final BlockingQueue<AuditEvent> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    //held exclusively while events are taken off the queue and written
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object signal = new Object();
+    private volatile Thread writer;
+    private volatile boolean running = true;
+    private boolean enabled = true;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.CALLER_RUNS;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public AsynchronousAuditService(UaaAuditService delegate, int capacity, int batchSize, long flushIntervalMillis) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    @Override
+    public List<AuditEvent> find(String principal, long after, String zoneId) {
+        lock.readLock().lock();
+        try {
+            if (!hasQueuedEvents(principal, zoneId)) {
+                return delegate.find(principal, after, zoneId);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        flush(principal, zoneId);
+        return delegate.find(principal, after, zoneId);
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent, String zoneId) {
+        if (!enabled || !running) {
+            delegate.log(auditEvent, zoneId);
+            return;
+        }
+        if (!Objects.equals(zoneId, auditEvent.getIdentityZoneId())) {
+            auditEvent = new AuditEvent(auditEvent.getType(), auditEvent.getPrincipalId(), auditEvent.getOrigin(), auditEvent.getData(),
+                auditEvent.getTime(), zoneId, auditEvent.getAuthenticationType(), auditEvent.getDescription());
+        }
+        if (SYNCHRONOUS_EVENT_TYPES.contains(auditEvent.getType())) {
+            writeNow(auditEvent);
+            return;
+        }
+        startWriter();
+        if (queue.offer(auditEvent)) {
+            queuedCount.incrementAndGet();
+            if (queue.size() >= batchSize) {
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP:
+                if (RESET_EVENT_TYPES.contains(auditEvent.getType())) {
+                    //the lockout policies would keep counting the failures before it
+                    callerRunsCount.incrementAndGet();
+                    writeNow(auditEvent);
+                } else {
+                    droppedCount.incrementAndGet();
+                    logger.debug("Audit queue is full, dropping event " + auditEvent.getType());
+                }
+                break;
+            case BLOCK:
+                try {
+                    queue.put(auditEvent);
+                    queuedCount.incrementAndGet();
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                //fall through and write the event ourselves
+            case CALLER_RUNS:
+            default:
+                callerRunsCount.incrementAndGet();
+                writeNow(auditEvent);
+                break;
+        }
+    }
+
+    private void writeNow(AuditEvent auditEvent) {
+        lock.writeLock().lock();
+        try {
+            //queued events of the principal come first
+            drain(auditEvent.getPrincipalId(), auditEvent.getIdentityZoneId());
+            write(auditEvent);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all queued events.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            drain();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void flush(String principal, String zoneId) {
+        lock.writeLock().lock();
+        try {
+            drain(principal, zoneId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        Thread writer;
+        synchronized (this) {
+            running = false;
+            writer = this.writer;
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        flush();
+    }
+
+    /**
+     * The writer thread is only started once an event is queued, so that it does not run
+     * when the service is disabled.
+     */
+    private void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writer == null && running) {
+                Thread thread = new Thread(this::run, "audit-writer");
+                thread.setDaemon(true);
+                thread.start();
+                writer = thread;
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                synchronized (signal) {
+                    if (running && queue.size() < batchSize) {
+                        signal.wait(flushIntervalMillis);
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error writing audit events", e);
+            }
+        }
+    }
+
+    private void drain() {
+        List<AuditEvent> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Takes only the events of the principal off the queue and writes them, in order.
+     */
+    private void drain(String principal, String zoneId) {
+        List<AuditEvent> batch = new ArrayList<>();
+        for (Iterator<AuditEvent> it = queue.iterator(); it.hasNext(); ) {
+            AuditEvent auditEvent = it.next();
+            if (isOf(auditEvent, principal, zoneId)) {
+                it.remove();
+                batch.add(auditEvent);
+                if (batch.size() == batchSize) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<AuditEvent> batch) {
+        try {
+            delegate.log(batch);
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(batch.size());
+            logger.error("Unable to write " + batch.size() + " audit events", e);
+        }
+    }
+
+    private void write(AuditEvent auditEvent) {
+        try {
+            delegate.log(auditEvent, auditEvent.getIdentityZoneId());
+            writtenCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean hasQueuedEvents(String principal, String zoneId) {
+        for (AuditEvent auditEvent : queue) {
+            if (isOf(auditEvent, principal, zoneId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOf(AuditEvent auditEvent, String principal, String zoneId) {
+        return Objects.equals(principal, auditEvent.getPrincipalId()) && Objects.equals(zoneId, auditEvent.getIdentityZoneId());
+    }
+
+    boolean isWriterStarted() {
+        return writer != null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queued Audit Events")
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Queued")
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Written")
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Event Batches Written")
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Dropped")
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Written By Caller")
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Audit Events Failed")
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -23,6 +23,8 @@ import java.util.List;
 
 public class JdbcAuditService implements UaaAuditService {
 
+    private static final String INSERT_SQL = "insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)";
+
     private final JdbcTemplate template;
 
     public JdbcAuditService(JdbcTemplate template) {
@@ -42,15 +44,28 @@ public class JdbcAuditService implements UaaAuditService {
 
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
-        String origin = auditEvent.getOrigin();
-        String data = auditEvent.getData();
-        origin = origin == null ? "" : origin;
-        origin = origin.length() > 255 ? origin.substring(0, 255) : origin;
-        data = data == null ? "" : data;
-        data = data.length() > 255 ? data.substring(0, 255) : data;
-        template.update("insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)",
-                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), origin,
-                        data, zoneId);
+        template.update(INSERT_SQL,
+                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), truncate(auditEvent.getOrigin()),
+                        truncate(auditEvent.getData()), zoneId);
+    }
+
+    @Override
+    public void log(List<AuditEvent> auditEvents) {
+        if (auditEvents.isEmpty()) {
+            return;
+        }
+        template.batchUpdate(INSERT_SQL, auditEvents, auditEvents.size(), (ps, auditEvent) -> {
+            ps.setString(1, auditEvent.getPrincipalId());
+            ps.setInt(2, auditEvent.getType().getCode());
+            ps.setString(3, truncate(auditEvent.getOrigin()));
+            ps.setString(4, truncate(auditEvent.getData()));
+            ps.setString(5, auditEvent.getIdentityZoneId());
+        });
+    }
+
+    private static String truncate(String value) {
+        value = value == null ? "" : value;
+        return value.length() > 255 ? value.substring(0, 255) : value;
     }
 
     private class AuditEventRowMapper implements RowMapper<AuditEvent> {
@@ -12,11 +12,14 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.audit;
 
+import org.cloudfoundry.identity.uaa.resources.jdbc.ExpiredRowDeleter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.Timestamp;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.cloudfoundry.identity.uaa.audit.AuditEventType.MfaAuthenticationFailure;
@@ -27,13 +30,15 @@ import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticat
  * to answer queries about consecutive
  * failed logins.
  */
-public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService {
+public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService implements ExpiredRowDeleter {
 
     private int saveDataPeriodMillis = 24 * 3600 * 1000; // 24hr
     private long timeBetweenDeleteMillis = 1000*30;
 
     private AtomicLong lastDelete = new AtomicLong(0);
     private TimeService timeService = new TimeServiceImpl();
+    private boolean deleteExpiredRowsInline = true;
+    private LimitSqlAdapter limitSqlAdapter;
 
     public JdbcUnsuccessfulLoginCountingAuditService(JdbcTemplate template) {
         super(template);
@@ -75,19 +80,53 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
         }
     }
 
+    /**
+     * Events are applied one at a time, in order. Failures are not batched, they are written
+     * synchronously by the {@link AsynchronousAuditService}.
+     */
+    @Override
+    public void log(List<AuditEvent> auditEvents) {
+        for (AuditEvent auditEvent : auditEvents) {
+            log(auditEvent, auditEvent.getIdentityZoneId());
+        }
+    }
+
     private void resetAuthenticationEvents(AuditEvent auditEvent, String zoneId, AuditEventType eventType) {
         getJdbcTemplate().update("delete from sec_audit where principal_id=? and identity_zone_id=? and event_type=?", auditEvent.getPrincipalId(), zoneId, eventType.getCode());
     }
 
 
     protected void periodicDelete() {
+        if (!deleteExpiredRowsInline) {
+            return;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastDelete.get();
         if (now - lastCheck > timeBetweenDeleteMillis && lastDelete.compareAndSet(lastCheck, now)) {
-            getJdbcTemplate().update("delete from sec_audit where created < ?",
-                                     new Timestamp(System.currentTimeMillis()
-                                                       - saveDataPeriodMillis));
+            getJdbcTemplate().update("delete from sec_audit where created < ?", new Timestamp(now - saveDataPeriodMillis));
         }
     }
 
+    @Override
+    public String getExpiredRowsTable() {
+        return "sec_audit";
+    }
+
+    @Override
+    public int deleteExpiredRows(int maxRows) {
+        String sql = limitSqlAdapter == null ?
+            "delete from sec_audit where created < ?" :
+            limitSqlAdapter.getDeleteExpiredQuery("sec_audit", "id", "created", maxRows);
+        return getJdbcTemplate().update(sql, new Timestamp(timeService.getCurrentTimeMillis() - saveDataPeriodMillis));
+    }
+
+    @Override
+    public void setDeleteExpiredRowsInline(boolean inline) {
+        this.deleteExpiredRowsInline = inline;
+    }
+
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
 }
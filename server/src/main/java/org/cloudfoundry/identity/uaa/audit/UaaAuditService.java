@@ -42,4 +42,16 @@ public interface UaaAuditService {
      */
     void log(AuditEvent auditEvent, String zoneId);
 
+    /**
+     * Log events in the order given, each in the zone of the event.
+     * Implementations may write the events in batches.
+     *
+     * @param auditEvents the audit events to log
+     */
+    default void log(List<AuditEvent> auditEvents) {
+        for (AuditEvent auditEvent : auditEvents) {
+            log(auditEvent, auditEvent.getIdentityZoneId());
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package org.cloudfoundry.identity.uaa.authentication;
 
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -15,6 +16,9 @@ public class UaaExceptionTranslator extends DefaultWebResponseExceptionTranslato
         if (e instanceof AccountNotVerifiedException) {
             return handleOAuth2Exception(new ForbiddenException(e.getMessage(), e));
         }
+        if (e instanceof PasswordHashingRejectedException) {
+            return handleOAuth2Exception(new TemporarilyUnavailableException(e.getMessage(), e));
+        }
 
         return super.translate(e);
     }
@@ -48,4 +52,20 @@ public class UaaExceptionTranslator extends DefaultWebResponseExceptionTranslato
         }
 
     }
+
+    private static class TemporarilyUnavailableException extends OAuth2Exception {
+
+        public TemporarilyUnavailableException(String msg, Throwable t) {
+            super(msg, t);
+        }
+
+        public String getOAuth2ErrorCode() {
+            return "temporarily_unavailable";
+        }
+
+        public int getHttpErrorCode() {
+            return 503;
+        }
+
+    }
 }
@@ -18,9 +18,15 @@ package org.cloudfoundry.identity.uaa.cache;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
@@ -34,15 +40,30 @@ public class ExpiringUrlCache implements UrlContentCache {
     private static final Logger logger = LoggerFactory.getLogger(ExpiringUrlCache.class);
 
     private final Duration cacheExpiration;
+    private final Duration maxStaleness;
+    private final Duration minRefreshInterval;
     private final TimeService timeService;
     private final Cache<String, CacheEntry> cache;
 
     public ExpiringUrlCache(Duration cacheExpiration, TimeService timeService, int maxEntries) {
+        this(cacheExpiration, timeService, maxEntries, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @param cacheExpiration the maximum time content is served before it is retrieved again
+     * @param timeService the clock
+     * @param maxEntries the maximum number of cached URIs
+     * @param maxStaleness how long expired content may still be served when it can not be refreshed
+     * @param minRefreshInterval the minimum time between two retrievals of the same URI
+     */
+    public ExpiringUrlCache(Duration cacheExpiration, TimeService timeService, int maxEntries, Duration maxStaleness, Duration minRefreshInterval) {
         this.cacheExpiration = cacheExpiration;
+        this.maxStaleness = maxStaleness;
+        this.minRefreshInterval = minRefreshInterval;
         this.timeService = timeService;
         cache = CacheBuilder
                 .newBuilder()
-                .expireAfterWrite(this.cacheExpiration.toMillis(), TimeUnit.MILLISECONDS)
+                .expireAfterWrite(this.cacheExpiration.plus(this.maxStaleness).toMillis(), TimeUnit.MILLISECONDS)
                 .maximumSize(maxEntries)
                 .ticker(Ticker.systemTicker())
                 .build();
@@ -58,7 +79,7 @@ public class ExpiringUrlCache implements UrlContentCache {
                 logger.debug("Fetching metadata for "+uri);
                 metadata = template.getForObject(netUri, byte[].class);
                 Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
-                cache.put(uri, new CacheEntry(now, metadata));
+                cache.put(uri, new CacheEntry(now, now.plus(cacheExpiration), metadata));
             }
             return metadata;
         } catch (RestClientException x) {
@@ -69,9 +90,117 @@ public class ExpiringUrlCache implements UrlContentCache {
         }
     }
 
+    @Override
+    public byte[] getUrlContent(String uri, RestTemplate template, HttpMethod method, HttpEntity<?> requestEntity) {
+        final URI netUri;
+        try {
+            netUri = new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        String key = getKey(uri, method, requestEntity);
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry != null && !isEntryExpired(entry)) {
+            return entry.data;
+        }
+        try {
+            logger.debug("Fetching content for "+uri);
+            ResponseEntity<byte[]> response = template.exchange(netUri, method, requestEntity, byte[].class);
+            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                throw new RestClientException("Unable to fetch content for "+uri+", status:"+response.getStatusCode());
+            }
+            Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
+            cache.put(key, new CacheEntry(now, now.plus(getExpiration(response.getHeaders())), response.getBody()));
+            return response.getBody();
+        } catch (RestClientException x) {
+            if (entry != null && isEntryUsableWhenStale(entry)) {
+                logger.warn("Unable to fetch content for "+uri+", serving content retrieved at "+entry.timeEntered, x);
+                return entry.data;
+            }
+            logger.warn("Unable to fetch content for "+uri, x);
+            throw x;
+        }
+    }
+
+    @Override
+    public boolean invalidate(String uri) {
+        String prefix = uri + "\n";
+        boolean invalidated = true;
+        for (String key : cache.asMap().keySet()) {
+            if (key.equals(uri) || key.startsWith(prefix)) {
+                invalidated &= invalidateKey(key);
+            }
+        }
+        return invalidated;
+    }
+
+    @Override
+    public boolean invalidate(String uri, HttpMethod method, HttpEntity<?> requestEntity) {
+        return invalidateKey(getKey(uri, method, requestEntity));
+    }
+
+    private boolean invalidateKey(String key) {
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry == null || entry.invalidated) {
+            return true;
+        }
+        Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
+        if (Duration.between(entry.timeEntered, now).compareTo(minRefreshInterval) < 0) {
+            logger.debug("Content for "+key.split("\n")[0]+" was fetched less than "+minRefreshInterval+" ago, not invalidating");
+            return false;
+        }
+        cache.asMap().replace(key, entry, new CacheEntry(entry.timeEntered, entry.expiresAt, entry.data, true));
+        return true;
+    }
+
+    /**
+     * Content retrieved with a request entity depends on its headers, for example the client
+     * credentials of an identity provider, so it is only shared by identical requests.
+     */
+    private static String getKey(String uri, HttpMethod method, HttpEntity<?> requestEntity) {
+        String request = requestEntity == null ? "" : requestEntity.getHeaders() + "\n" + requestEntity.getBody();
+        return uri + "\n" + method + "\n" + DigestUtils.sha256Hex(request);
+    }
+
+    /**
+     * Honours the max-age of the Cache-Control header, bounded by the minimum refresh
+     * interval and the cache expiration.
+     */
+    protected Duration getExpiration(HttpHeaders headers) {
+        Duration expiration = cacheExpiration;
+        String cacheControl = headers.getCacheControl();
+        if (StringUtils.hasText(cacheControl)) {
+            for (String directive : StringUtils.commaDelimitedListToStringArray(cacheControl.toLowerCase())) {
+                directive = directive.trim();
+                if ("no-cache".equals(directive) || "no-store".equals(directive)) {
+                    expiration = Duration.ZERO;
+                    break;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        expiration = Duration.ofSeconds(Long.parseLong(directive.substring("max-age=".length()).trim()));
+                    } catch (NumberFormatException x) {
+                        logger.debug("Ignoring invalid Cache-Control directive:"+directive);
+                    }
+                }
+            }
+        }
+        if (expiration.compareTo(cacheExpiration) > 0) {
+            expiration = cacheExpiration;
+        }
+        if (expiration.compareTo(minRefreshInterval) < 0) {
+            expiration = minRefreshInterval;
+        }
+        return expiration;
+    }
+
     private boolean isEntryExpired(CacheEntry entry) {
         Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
-        return Duration.between(entry.timeEntered, now).compareTo(cacheExpiration) > 0;
+        return entry.invalidated || now.isAfter(entry.expiresAt);
+    }
+
+    private boolean isEntryUsableWhenStale(CacheEntry entry) {
+        Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
+        return !now.isAfter(entry.expiresAt.plus(maxStaleness));
     }
 
     @Override
@@ -86,11 +215,19 @@ public class ExpiringUrlCache implements UrlContentCache {
 
     static class CacheEntry {
         final Instant timeEntered;
+        final Instant expiresAt;
         final byte[] data;
+        final boolean invalidated;
+
+        CacheEntry(Instant timeEntered, Instant expiresAt, byte[] data) {
+            this(timeEntered, expiresAt, data, false);
+        }
 
-        CacheEntry(Instant timeEntered, byte[] data) {
+        CacheEntry(Instant timeEntered, Instant expiresAt, byte[] data, boolean invalidated) {
             this.timeEntered = timeEntered;
+            this.expiresAt = expiresAt;
             this.data = data;
+            this.invalidated = invalidated;
         }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Caches values read from the database by zone and id.
+ * <p>
+ * Every invalidation increases a generation. A value is only cached if no invalidation happened
+ * since the {@link #getGeneration() generation} read before the value was loaded, so that a read
+ * racing with a write can not put the old value back into the cache.
+ * <p>
+ * Single values are invalidated by key, only invalidations of a zone or of values matching a
+ * predicate scan the cache.
+ */
+public class GenerationalCache<V> {
+
+    private final Cache<String, V> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    public GenerationalCache(Cache<String, V> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(String, String, Object, long)}, read before loading the value
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public V get(String zoneId, String id) {
+        return cache.getIfPresent(getKey(zoneId, id));
+    }
+
+    /**
+     * Caches the value unless the cache was invalidated after the given generation.
+     */
+    public void put(String zoneId, String id, V value, long valueGeneration) {
+        synchronized (generation) {
+            if (valueGeneration == generation.get()) {
+                cache.put(getKey(zoneId, id), value);
+            }
+        }
+    }
+
+    /**
+     * Removes the value if it is still cached, for example when it expired.
+     */
+    public void remove(String zoneId, String id, V value) {
+        cache.asMap().remove(getKey(zoneId, id), value);
+    }
+
+    public void invalidate(String zoneId, String id) {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            cache.invalidate(getKey(zoneId, id));
+        }
+    }
+
+    public void invalidateZone(String zoneId) {
+        String prefix = zoneId + ":";
+        synchronized (generation) {
+            generation.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    public void invalidateIf(Predicate<V> predicate) {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            cache.asMap().values().removeIf(predicate);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static String getKey(String zoneId, String id) {
+        return zoneId + ":" + id;
+    }
+}
@@ -13,6 +13,8 @@
 package org.cloudfoundry.identity.uaa.cache;
 
 
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
@@ -30,6 +32,42 @@ public interface UrlContentCache {
      */
     byte[] getUrlContent(String uri, RestTemplate template);
 
+    /**
+     * Retrieves and caches the content for a given URI by invoking
+     * {@link org.springframework.web.client.RestTemplate#exchange(URI, HttpMethod, HttpEntity, Class)}.
+     * The content is cached per method and request entity, so requests with different credentials do not share it.
+     * The max-age of the response Cache-Control header is honoured, up to the configured expiration.
+     * If the content can not be refreshed, previously retrieved content is returned while it is within
+     * the configured maximum staleness.
+     * @param uri - must be a valid URI
+     * @param template - RestTemplate used for content retrieval
+     * @param method - the HTTP method
+     * @param requestEntity - the request headers and body, may be null
+     * @return byte[] for the content
+     * @throws org.springframework.web.client.RestClientException if the content is not available and there is no usable cached content
+     * @throws IllegalArgumentException if uri is not valid {@link URI}
+     */
+    byte[] getUrlContent(String uri, RestTemplate template, HttpMethod method, HttpEntity<?> requestEntity);
+
+    /**
+     * Forces all content for a given URI to be retrieved again on next access, for example when
+     * it does not contain an expected key. Has no effect if the content was retrieved less than
+     * the minimum refresh interval ago.
+     * @param uri - the URI of the content
+     * @return true if the content will be retrieved again on next access
+     */
+    boolean invalidate(String uri);
+
+    /**
+     * Forces the content retrieved with the given method and request entity to be retrieved again
+     * on next access. Has no effect if the content was retrieved less than the minimum refresh interval ago.
+     * @param uri - the URI of the content
+     * @param method - the HTTP method
+     * @param requestEntity - the request headers and body, may be null
+     * @return true if the content will be retrieved again on next access
+     */
+    boolean invalidate(String uri, HttpMethod method, HttpEntity<?> requestEntity);
+
     /**
      * Clears the cache unconditionally
      */
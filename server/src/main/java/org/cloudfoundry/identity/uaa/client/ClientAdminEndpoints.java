@@ -28,6 +28,7 @@ import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
 import org.cloudfoundry.identity.uaa.security.DefaultSecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.util.UaaPagingUtils;
@@ -462,6 +463,15 @@ public class ClientAdminEndpoints implements InitializingBean, ApplicationEventP
     }
 
 
+    public SearchResults<?> listClientDetails(String attributesCommaSeparated,
+                                              String filter,
+                                              String sortBy,
+                                              String sortOrder,
+                                              int startIndex,
+                                              int count) throws Exception {
+        return listClientDetails(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, TotalResults.EXACT.name());
+    }
+
     @RequestMapping(value = "/oauth/clients", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> listClientDetails(
@@ -470,7 +480,15 @@ public class ClientAdminEndpoints implements InitializingBean, ApplicationEventP
                     @RequestParam(required = false, defaultValue = "client_id") String sortBy,
                     @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
                     @RequestParam(required = false, defaultValue = "1") int startIndex,
-                    @RequestParam(required = false, defaultValue = "100") int count) throws Exception {
+                    @RequestParam(required = false, defaultValue = "100") int count,
+                    @RequestParam(required = false, defaultValue = "exact") String totalResults) throws Exception {
+
+        TotalResults total;
+        try {
+            total = TotalResults.fromValue(totalResults);
+        } catch (IllegalArgumentException e) {
+            throw new UaaException(e.getMessage(), HttpStatus.BAD_REQUEST.value());
+        }
 
         if (count > clientMaxCount) {
             count = clientMaxCount;
@@ -479,7 +497,11 @@ public class ClientAdminEndpoints implements InitializingBean, ApplicationEventP
         List<ClientDetails> result = new ArrayList<ClientDetails>();
         List<ClientDetails> clients;
         try {
-            clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            if (total == TotalResults.EXACT) {
+                clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            } else {
+                clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId(), startIndex, count, total);
+            }
             if (count > clients.size()) {
                 count = clients.size();
             }
@@ -14,6 +14,8 @@ package org.cloudfoundry.identity.uaa.codestore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.ExpiredRowDeleter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -28,7 +30,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class JdbcExpiringCodeStore implements ExpiringCodeStore {
+public class JdbcExpiringCodeStore implements ExpiringCodeStore, ExpiredRowDeleter {
 
     public static final String tableName = "expiring_code_store";
     public static final String fields = "code, expiresat, data, intent, identity_zone_id";
@@ -52,6 +54,8 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
 
     private AtomicLong lastExpired = new AtomicLong();
     private long expirationInterval = 60 * 1000; // once a minute
+    private boolean deleteExpiredRowsInline = true;
+    private LimitSqlAdapter limitSqlAdapter;
 
     public long getExpirationInterval() {
         return expirationInterval;
@@ -147,6 +151,9 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
     }
 
     public int cleanExpiredEntries() {
+        if (!deleteExpiredRowsInline) {
+            return 0;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastExpired.get();
 
@@ -159,6 +166,26 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         return 0;
     }
 
+    @Override
+    public String getExpiredRowsTable() {
+        return tableName;
+    }
+
+    @Override
+    public int deleteExpiredRows(int maxRows) {
+        String sql = limitSqlAdapter == null ? deleteExpired : limitSqlAdapter.getDeleteExpiredQuery(tableName, "code", "expiresat", maxRows);
+        return jdbcTemplate.update(sql, timeService.getCurrentTimeMillis());
+    }
+
+    @Override
+    public void setDeleteExpiredRowsInline(boolean inline) {
+        this.deleteExpiredRowsInline = inline;
+    }
+
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
     protected static class JdbcExpiringCodeMapper implements RowMapper<ExpiringCode> {
 
         @Override
@@ -68,6 +68,20 @@ public class EncryptionKeyService {
             });
     }
 
+    /**
+     * @param keyCacheSize the maximum number of derived keys each encryption key keeps, 0 disables caching
+     */
+    public void setKeyCacheSize(int keyCacheSize) {
+        encryptionKeys.forEach(key -> key.keyCacheSize = keyCacheSize);
+    }
+
+    /**
+     * @param reuseSalt whether each encryption key derives a single key per process for encryption
+     */
+    public void setReuseSalt(boolean reuseSalt) {
+        encryptionKeys.forEach(key -> key.reuseSalt = reuseSalt);
+    }
+
     public EncryptionKey getActiveKey() {
         return this.activeKey;
     }
@@ -83,6 +97,8 @@ public class EncryptionKeyService {
 
     public static class EncryptionKey extends HashMap<String, String> {
         private EncryptionService encryptionService;
+        private int keyCacheSize = 0;
+        private boolean reuseSalt = false;
 
         public String getLabel() {
             return this.get("label");
@@ -93,17 +109,18 @@ public class EncryptionKeyService {
         }
 
         public byte[] encrypt(String plaintext) throws EncryptionServiceException {
-            if (encryptionService == null) {
-                encryptionService = new EncryptionService(getPassphrase());
-            }
-            return encryptionService.encrypt(plaintext);
+            return getEncryptionService().encrypt(plaintext);
         }
 
         public byte[] decrypt(byte[] encrypt) throws EncryptionServiceException {
+            return getEncryptionService().decrypt(encrypt);
+        }
+
+        private synchronized EncryptionService getEncryptionService() {
             if (encryptionService == null) {
-                encryptionService = new EncryptionService(getPassphrase());
+                encryptionService = new EncryptionService(getPassphrase(), keyCacheSize, reuseSalt);
             }
-            return encryptionService.decrypt(encrypt);
+            return encryptionService;
         }
     }
 }
@@ -1,5 +1,7 @@
 package org.cloudfoundry.identity.uaa.cypto;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -13,6 +15,7 @@ import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
@@ -29,16 +32,45 @@ public class EncryptionService {
     private final String CIPHERSCHEME = "AES/GCM/NoPadding";
     private SecureRandom random = new SecureRandom();
 
+    /**
+     * Keys derived from the passphrase, by salt. PBKDF2 is deliberately expensive, so deriving
+     * the key on every call dominates the cost of decrypting small values such as MFA secrets.
+     */
+    private final Cache<ByteBuffer, SecretKey> derivedKeys;
+    /**
+     * When set, {@link #encrypt(String)} uses a single salt (and therefore key) for the lifetime
+     * of this instance. Every ciphertext still gets its own random GCM nonce.
+     */
+    private final boolean reuseSalt;
+    private volatile SaltedKey processKey;
 
     public EncryptionService(String passphrase) {
+        this(passphrase, 0, false);
+    }
+
+    /**
+     * @param passphrase the passphrase keys are derived from
+     * @param keyCacheSize the maximum number of derived keys to keep, 0 disables the cache
+     * @param reuseSalt whether encryption reuses one salt per instance rather than a new salt per value
+     */
+    public EncryptionService(String passphrase, int keyCacheSize, boolean reuseSalt) {
         this.passphrase = passphrase;
+        this.derivedKeys = keyCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(keyCacheSize).build() : null;
+        this.reuseSalt = reuseSalt;
     }
 
     public byte[] encrypt(String plaintext) throws EncryptionServiceException {
         try {
-            byte[] newSalt = generateRandomArray(PBKDF2_SALT_SIZE_BYTES);
-
-            SecretKey key = new SecretKeySpec(generateKey(newSalt), CIPHER);
+            byte[] newSalt;
+            SecretKey key;
+            if (reuseSalt) {
+                SaltedKey saltedKey = getProcessKey();
+                newSalt = saltedKey.salt;
+                key = saltedKey.key;
+            } else {
+                newSalt = generateRandomArray(PBKDF2_SALT_SIZE_BYTES);
+                key = getKey(newSalt);
+            }
 
             Cipher myCipher = Cipher.getInstance(CIPHERSCHEME);
             byte[] newNonce = generateRandomArray(GCM_IV_NONCE_SIZE_BYTES);
@@ -64,7 +96,7 @@ public class EncryptionService {
             fileInputStream.read(myNonce);
             fileInputStream.read(mySalt);
 
-            SecretKey key = new SecretKeySpec(generateKey(mySalt), CIPHER);
+            SecretKey key = getKey(mySalt);
 
             Cipher myCipher = Cipher.getInstance(CIPHERSCHEME);
             GCMParameterSpec spec = new GCMParameterSpec(GCM_AUTHENTICATION_TAG_SIZE_BITS, myNonce);
@@ -77,6 +109,31 @@ public class EncryptionService {
         }
     }
 
+    private SaltedKey getProcessKey() throws Exception {
+        SaltedKey saltedKey = processKey;
+        if (saltedKey == null) {
+            synchronized (this) {
+                if (processKey == null) {
+                    byte[] salt = generateRandomArray(PBKDF2_SALT_SIZE_BYTES);
+                    processKey = new SaltedKey(salt, new SecretKeySpec(generateKey(salt), CIPHER));
+                }
+                saltedKey = processKey;
+            }
+        }
+        return saltedKey;
+    }
+
+    private SecretKey getKey(byte[] salt) throws Exception {
+        SaltedKey saltedKey = processKey;
+        if (saltedKey != null && Arrays.areEqual(saltedKey.salt, salt)) {
+            return saltedKey.key;
+        }
+        if (derivedKeys == null) {
+            return new SecretKeySpec(generateKey(salt), CIPHER);
+        }
+        return derivedKeys.get(ByteBuffer.wrap(salt.clone()), () -> new SecretKeySpec(generateKey(salt), CIPHER));
+    }
+
     private byte[] generateRandomArray(int sizeInBytes) throws NoSuchAlgorithmException {
         final byte[] randomArray = new byte[sizeInBytes];
         random.nextBytes(randomArray);
@@ -89,4 +146,14 @@ public class EncryptionService {
         gen.init(this.passphrase.getBytes("UTF-8"), salt, PBKDF2_ITERATIONS);
         return ((KeyParameter) gen.generateDerivedParameters(AES_KEY_LENGTH_BITS)).getKey();
     }
+
+    private static class SaltedKey {
+        private final byte[] salt;
+        private final SecretKey key;
+
+        private SaltedKey(byte[] salt, SecretKey key) {
+            this.salt = salt;
+            this.key = key;
+        }
+    }
 }
@@ -25,6 +25,7 @@ public class LdapGroupsConfig {
     nestedLdapAuthoritiesPopulator.setGroupSearchFilter(groupSearchFilter);
     nestedLdapAuthoritiesPopulator.setMaxSearchDepth(ofNullable(Integer.parseInt(environment.getProperty("ldap.groups.maxSearchDepth"))).orElse(10));
     nestedLdapAuthoritiesPopulator.setAttributeNames(new HashSet<>(Arrays.asList("cn")));
+    nestedLdapAuthoritiesPopulator.setCacheExpirySeconds(ofNullable(environment.getProperty("ldap.groups.cacheExpirySeconds")).map(Integer::parseInt).orElse(0));
     nestedLdapAuthoritiesPopulator.setIgnorePartialResultException(ofNullable(environment.getProperty("ldap.groups.ignorePartialResultException")).map(Boolean::parseBoolean).orElse(true));
     return nestedLdapAuthoritiesPopulator;
   }
@@ -1,11 +1,15 @@
 package org.cloudfoundry.identity.uaa.impl.config;
 
 import org.cloudfoundry.identity.uaa.provider.ldap.ExtendedLdapUserMapper;
+import org.cloudfoundry.identity.uaa.provider.ldap.PooledSearchContextSource;
 import org.cloudfoundry.identity.uaa.provider.ldap.ProcessLdapProperties;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.env.Environment;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.security.ldap.DefaultSpringSecurityContextSource;
 
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -34,6 +38,27 @@ public class LdapIntegrationConfig {
     return ldapPropertyProcessor(environment).process(initialLdapProperties);
   }
 
+  //searches with the bind user DN may reuse pooled connections, binds as a user always get a connection of their own
+  @Bean
+  @Primary
+  public PooledSearchContextSource pooledSearchContextSource(DefaultSpringSecurityContextSource defaultSpringSecurityContextSource, Environment environment) {
+    if (!parseBoolean(environment.getProperty("ldap.pool.enabled"))) {
+      return new PooledSearchContextSource(defaultSpringSecurityContextSource);
+    }
+    int maxSize = ofNullable(environment.getProperty("ldap.pool.maxSize")).map(Integer::parseInt).orElse(8);
+    long idleTimeout = ofNullable(environment.getProperty("ldap.pool.idleTimeout")).map(Long::parseLong).orElse(300000L);
+    PoolConfig poolConfig = new PoolConfig();
+    poolConfig.setMaxTotalPerKey(maxSize);
+    poolConfig.setMaxIdlePerKey(maxSize);
+    poolConfig.setMaxWaitMillis(ofNullable(environment.getProperty("ldap.pool.maxWait")).map(Long::parseLong).orElse(5000L));
+    poolConfig.setTestOnBorrow(true);
+    poolConfig.setTestWhileIdle(true);
+    poolConfig.setTimeBetweenEvictionRunsMillis(idleTimeout);
+    poolConfig.setMinEvictableIdleTimeMillis(idleTimeout);
+    String validationFilter = ofNullable(environment.getProperty("ldap.pool.validationFilter")).orElse("objectclass=*");
+    return new PooledSearchContextSource(defaultSpringSecurityContextSource, poolConfig, validationFilter);
+  }
+
   @Bean
   public ExtendedLdapUserMapper extendedLdapUserDetailsMapper(Environment environment) {
     String mailAttributeName = ofNullable(environment.getProperty("ldap.base.mailAttributeName")).orElse("mail");
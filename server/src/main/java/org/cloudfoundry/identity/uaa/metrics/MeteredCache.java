@@ -0,0 +1,30 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2018] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * A cache whose hit/miss statistics are reported through {@link UaaMetricsFilter}
+ */
+public interface MeteredCache {
+
+    String getCacheName();
+
+    CacheStats getCacheStats();
+
+    long getCacheSize();
+}
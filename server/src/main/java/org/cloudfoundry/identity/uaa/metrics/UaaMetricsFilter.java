@@ -15,6 +15,7 @@
 
 package org.cloudfoundry.identity.uaa.metrics;
 
+import com.google.common.cache.CacheStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
@@ -25,7 +26,6 @@ import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.export.notification.NotificationPublisher;
 import org.springframework.jmx.export.notification.NotificationPublisherAware;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.yaml.snakeyaml.Yaml;
 
@@ -35,7 +35,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -49,6 +49,7 @@ import java.util.stream.Collectors;
 )
 public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics, NotificationPublisherAware {
     public static final int MAX_TIME = 3000;
+    public static final int URL_GROUP_MEMO_SIZE = 10000;
     public static final UrlGroup FALLBACK = new UrlGroup()
         .setCategory("Unknown")
         .setGroup("/unknown")
@@ -60,19 +61,16 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     private TimeService timeService = new TimeServiceImpl();
     private IdleTimer inflight = new IdleTimer();
     private Map<String,MetricsQueue> perUriMetrics = new ConcurrentHashMap<>();
-    private LinkedHashMap<AntPathRequestMatcher, UrlGroup> urlGroups;
+    private UrlGroupMatcher urlGroups;
     private boolean enabled = true;
     private boolean perRequestMetrics = false;
+    private List<MeteredCache> meteredCaches = new ArrayList<>();
 
     private NotificationPublisher notificationPublisher;
 
     public UaaMetricsFilter() throws IOException {
         perUriMetrics.put(MetricsUtil.GLOBAL_GROUP, new MetricsQueue());
-        urlGroups = new LinkedHashMap<>();
-        List<UrlGroup> groups = getUrlGroups();
-        groups.stream().forEach(
-            group -> urlGroups.put(new AntPathRequestMatcher(group.getPattern()), group)
-        );
+        urlGroups = new UrlGroupMatcher(getUrlGroups(), URL_GROUP_MEMO_SIZE);
     }
 
 
@@ -92,10 +90,8 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
                 if (isPerRequestMetrics()) {
                     sendRequestTime(uriGroup.getGroup(), metric.getRequestCompleteTime() - metric.getRequestStartTime());
                 }
-                for (String group : Arrays.asList(uriGroup.getGroup(), MetricsUtil.GLOBAL_GROUP)) {
-                    MetricsQueue queue = getMetricsQueue(group);
-                    queue.offer(metric);
-                }
+                getMetricsQueue(uriGroup.getGroup()).offer(metric);
+                getMetricsQueue(MetricsUtil.GLOBAL_GROUP).offer(metric);
             }
         } else {
             filterChain.doFilter(request, response);
@@ -111,10 +107,11 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     }
 
     protected MetricsQueue getMetricsQueue(String uri) {
-        if (!perUriMetrics.containsKey(uri)) {
-            perUriMetrics.putIfAbsent(uri, new MetricsQueue());
+        MetricsQueue queue = perUriMetrics.get(uri);
+        if (queue == null) {
+            queue = perUriMetrics.computeIfAbsent(uri, k -> new MetricsQueue());
         }
-        return perUriMetrics.get(uri);
+        return queue;
     }
 
     /**
@@ -124,13 +121,12 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
      */
     protected UrlGroup getUriGroup(HttpServletRequest request) {
         if (urlGroups!=null) {
-            String uri = request.getRequestURI();
-            for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : urlGroups.entrySet()) {
-                if (entry.getKey().matches(request)) {
-                    UrlGroup group = entry.getValue();
-                    logger.debug(String.format("Successfully matched URI: %s to a group: %s", uri, group.getGroup()));
-                    return group;
+            UrlGroup group = urlGroups.match(request);
+            if (group != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("Successfully matched URI: %s to a group: %s", request.getRequestURI(), group.getGroup()));
                 }
+                return group;
             }
             return FALLBACK;
         } else {
@@ -170,6 +166,30 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         return JsonUtils.writeValueAsString(perUriMetrics.get(MetricsUtil.GLOBAL_GROUP));
     }
 
+    @ManagedMetric(category = "performance", displayName = "Cache statistics")
+    public Map<String, String> getCacheSummary() {
+        Map<String, String> data = new HashMap<>();
+        for (MeteredCache cache : meteredCaches) {
+            CacheStats stats = cache.getCacheStats();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("hits", stats.hitCount());
+            summary.put("misses", stats.missCount());
+            summary.put("hitRatio", stats.hitRate());
+            summary.put("evictions", stats.evictionCount());
+            summary.put("size", cache.getCacheSize());
+            data.put(cache.getCacheName(), JsonUtils.writeValueAsString(summary));
+        }
+        return data;
+    }
+
+    public List<MeteredCache> getMeteredCaches() {
+        return meteredCaches;
+    }
+
+    public void setMeteredCaches(List<MeteredCache> meteredCaches) {
+        this.meteredCaches = meteredCaches == null ? new ArrayList<>() : meteredCaches;
+    }
+
     public TimeService getTimeService() {
         return timeService;
     }
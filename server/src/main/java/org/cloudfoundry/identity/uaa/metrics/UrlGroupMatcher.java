@@ -0,0 +1,148 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Matches requests to the first {@link UrlGroup} whose pattern matches the request path,
+ * in the order the groups were configured.
+ * <p>
+ * Patterns are indexed in a trie by their leading literal path segments, so only the few
+ * patterns that share a prefix with the request path are evaluated, instead of every
+ * configured pattern. The result is remembered per request path in a bounded memo.
+ */
+public class UrlGroupMatcher {
+
+    private final Node root = new Node();
+    private final Cache<String, Optional<UrlGroup>> memo;
+
+    public UrlGroupMatcher(List<UrlGroup> groups, int memoSize) {
+        for (int i = 0; i < groups.size(); i++) {
+            UrlGroup group = groups.get(i);
+            Node node = root;
+            for (String segment : segments(group.getPattern())) {
+                if (isWildcard(segment)) {
+                    break;
+                }
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            node.candidates.add(new Candidate(i, new AntPathRequestMatcher(group.getPattern()), group));
+        }
+        memo = CacheBuilder.newBuilder().maximumSize(memoSize).build();
+    }
+
+    /**
+     * @param request the request to match
+     * @return the matching group or null if no pattern matches
+     */
+    public UrlGroup match(HttpServletRequest request) {
+        String path = getRequestPath(request);
+        Optional<UrlGroup> group = memo.getIfPresent(path);
+        if (group == null) {
+            group = Optional.ofNullable(find(path, request));
+            memo.put(path, group);
+        }
+        return group.orElse(null);
+    }
+
+    protected UrlGroup find(String path, HttpServletRequest request) {
+        Candidate best = best(null, root, request);
+        Node node = root;
+        int start = 0;
+        int length = path.length();
+        while (node != null && start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                best = best(best, node, request);
+            }
+            start = end + 1;
+        }
+        return best == null ? null : best.group;
+    }
+
+    private static Candidate best(Candidate best, Node node, HttpServletRequest request) {
+        if (node == null) {
+            return best;
+        }
+        for (Candidate candidate : node.candidates) {
+            if (best != null && best.order < candidate.order) {
+                //candidates are in configuration order
+                break;
+            }
+            if (candidate.matcher.matches(request)) {
+                return candidate;
+            }
+        }
+        return best;
+    }
+
+    public long getMemoSize() {
+        return memo.size();
+    }
+
+    private static String getRequestPath(HttpServletRequest request) {
+        String url = request.getServletPath();
+        if (request.getPathInfo() != null) {
+            url += request.getPathInfo();
+        }
+        return url;
+    }
+
+    private static List<String> segments(String pattern) {
+        List<String> result = new ArrayList<>();
+        for (String segment : pattern.split("/")) {
+            if (!segment.isEmpty()) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Candidate> candidates = new ArrayList<>();
+    }
+
+    private static class Candidate {
+        private final int order;
+        private final AntPathRequestMatcher matcher;
+        private final UrlGroup group;
+
+        Candidate(int order, AntPathRequestMatcher matcher, UrlGroup group) {
+            this.order = order;
+            this.matcher = matcher;
+            this.group = group;
+        }
+    }
+}
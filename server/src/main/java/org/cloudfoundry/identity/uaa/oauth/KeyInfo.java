@@ -139,6 +139,8 @@ class RsaKeyInfo extends KeyInfo {
     private Signer signer;
     private SignatureVerifier verifier;
     private String verifierKey;
+    private final String modulus;
+    private final String exponent;
 
     public RsaKeyInfo(String keyId, String signingKey, String keyUrl) {
         this.keyUrl = validateAndConstructTokenKeyUrl(keyUrl);
@@ -151,6 +153,10 @@ class RsaKeyInfo extends KeyInfo {
         this.verifier = new RsaVerifier(pemEncodePublicKey);
         this.keyId = keyId;
         this.verifierKey = pemEncodePublicKey;
+
+        java.util.Base64.Encoder encoder = java.util.Base64.getUrlEncoder().withoutPadding();
+        this.modulus = encoder.encodeToString(rsaPublicKey.getModulus().toByteArray());
+        this.exponent = encoder.encodeToString(rsaPublicKey.getPublicExponent().toByteArray());
     }
 
     private KeyPair parseKeyPair(String pemData) {
@@ -260,14 +266,8 @@ class RsaKeyInfo extends KeyInfo {
         result.put("kid", this.keyId);
         result.put("kty", RSA.name());
 
-        RSAPublicKey rsaKey = (RSAPublicKey) parseKeyPair(verifierKey).getPublic();
-        if (rsaKey != null) {
-            java.util.Base64.Encoder encoder = java.util.Base64.getUrlEncoder().withoutPadding();
-            String n = encoder.encodeToString(rsaKey.getModulus().toByteArray());
-            String e = encoder.encodeToString(rsaKey.getPublicExponent().toByteArray());
-            result.put("n", n);
-            result.put("e", e);
-        }
+        result.put("n", this.modulus);
+        result.put("e", this.exponent);
 
         return result;
     }
@@ -14,18 +14,34 @@
  */
 package org.cloudfoundry.identity.uaa.oauth;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.impl.config.LegacyTokenKey;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.util.StringUtils;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.cloudfoundry.identity.uaa.util.UaaUrlUtils.addSubdomainToUrl;
 
-public class KeyInfoService {
+/**
+ * Resolves the signing keys of the current identity zone.
+ * Parsed keys are kept in a per zone registry so that PEM parsing and signer/verifier
+ * construction happen once per key rather than once per token. A registry entry is
+ * reused only while the zone's token policy keys and key URL are unchanged, and is
+ * evicted when the zone is modified or deleted.
+ */
+public class KeyInfoService implements ApplicationListener<AbstractUaaEvent> {
     private String uaaBaseURL;
+    private final ConcurrentMap<String, ZoneKeys> registry = new ConcurrentHashMap<>();
 
     public KeyInfoService(String uaaBaseURL) {
         this.uaaBaseURL = uaaBaseURL;
@@ -36,28 +52,46 @@ public class KeyInfoService {
     }
 
     public Map<String, KeyInfo> getKeys() {
-        IdentityZoneConfiguration config = IdentityZoneHolder.get().getConfig();
+        IdentityZone zone = IdentityZoneHolder.get();
+        IdentityZoneConfiguration config = zone.getConfig();
         if (config == null || config.getTokenPolicy().getKeys() == null || config.getTokenPolicy().getKeys().isEmpty()) {
             config = IdentityZoneHolder.getUaaZone().getConfig();
         }
 
-        Map<String, KeyInfo> keys = new HashMap<>();
-        for (Map.Entry<String, String> entry : config.getTokenPolicy().getKeys().entrySet()) {
-            KeyInfo keyInfo = KeyInfoBuilder.build(entry.getKey(), entry.getValue(), addSubdomainToUrl(uaaBaseURL, IdentityZoneHolder.get().getSubdomain()));
-            keys.put(entry.getKey(), keyInfo);
+        Map<String, String> signingKeys = config.getTokenPolicy().getKeys();
+        if (signingKeys.isEmpty()) {
+            return Collections.singletonMap(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
         }
 
-        if (keys.isEmpty()) {
-            keys.put(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
+        String keyUrl = addSubdomainToUrl(uaaBaseURL, zone.getSubdomain());
+        if (zone.getId() == null) {
+            return new ZoneKeys(signingKeys, keyUrl).keys;
         }
-
-        return keys;
+        ZoneKeys zoneKeys = registry.get(zone.getId());
+        if (zoneKeys == null || !zoneKeys.matches(signingKeys, keyUrl)) {
+            zoneKeys = new ZoneKeys(signingKeys, keyUrl);
+            registry.put(zone.getId(), zoneKeys);
+        }
+        return zoneKeys.keys;
     }
 
     public KeyInfo getActiveKey() {
         return getKeys().get(getActiveKeyId());
     }
 
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            evict(((IdentityZone) event.getSource()).getId());
+        } else if (event instanceof EntityDeletedEvent && ((EntityDeletedEvent) event).getDeleted() instanceof IdentityZone) {
+            evict(((IdentityZone) ((EntityDeletedEvent) event).getDeleted()).getId());
+        }
+    }
+
+    public void evict(String zoneId) {
+        registry.remove(zoneId);
+    }
+
     private String getActiveKeyId() {
         IdentityZoneConfiguration config = IdentityZoneHolder.get().getConfig();
         if (config == null) return IdentityZoneHolder.getUaaZone().getConfig().getTokenPolicy().getActiveKeyId();
@@ -78,4 +112,24 @@ public class KeyInfoService {
 
         return activeKeyId;
     }
+
+    private static class ZoneKeys {
+        private final Map<String, String> signingKeys;
+        private final String keyUrl;
+        private final Map<String, KeyInfo> keys;
+
+        ZoneKeys(Map<String, String> signingKeys, String keyUrl) {
+            Map<String, KeyInfo> keys = new HashMap<>();
+            for (Map.Entry<String, String> entry : signingKeys.entrySet()) {
+                keys.put(entry.getKey(), KeyInfoBuilder.build(entry.getKey(), entry.getValue(), keyUrl));
+            }
+            this.signingKeys = signingKeys;
+            this.keyUrl = keyUrl;
+            this.keys = Collections.unmodifiableMap(keys);
+        }
+
+        boolean matches(Map<String, String> signingKeys, String keyUrl) {
+            return this.keyUrl.equals(keyUrl) && this.signingKeys.equals(signingKeys);
+        }
+    }
 }
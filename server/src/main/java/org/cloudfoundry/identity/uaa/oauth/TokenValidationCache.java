@@ -0,0 +1,234 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.client.event.AbstractClientAdminEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.oauth2.provider.ClientDetails;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.USER_ID;
+
+/**
+ * Remembers successful access token validations per zone, keyed by a hash of the token,
+ * so that repeated checks of the same token do not reload the client and the user.
+ * An entry is served until the token expires or the maximum age has passed, whichever
+ * comes first. Entries are dropped when tokens are revoked or when the client, the user
+ * or groups of the zone are modified on this node; the maximum age bounds how long
+ * changes made on other nodes go unnoticed.
+ */
+public class TokenValidationCache implements MeteredCache, ApplicationListener<AbstractUaaEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenValidationCache.class);
+
+    //rough per entry overhead of the key, the decoded claims and the cache itself
+    private static final int ENTRY_OVERHEAD_BYTES = 1024;
+
+    private final TimeService timeService;
+    private final Duration maxAge;
+    private final Cache<String, Entry> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+    private boolean enabled;
+
+    /**
+     * @param timeService the clock
+     * @param maxAge the maximum time a validation is reused
+     * @param maxMemoryBytes the approximate amount of memory the cached validations may use
+     */
+    public TokenValidationCache(TimeService timeService, Duration maxAge, long maxMemoryBytes) {
+        this.timeService = timeService;
+        this.maxAge = maxAge;
+        this.cache = CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(maxAge.toMillis(), TimeUnit.MILLISECONDS)
+            .maximumWeight(maxMemoryBytes)
+            .weigher((String key, Entry entry) -> entry.weight)
+            .recordStats()
+            .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * @return a marker to pass to {@link #put(String, String, TokenValidation, long)}, taken before a token is validated
+     */
+    public long getGeneration() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the validation of the token in the zone, or null if it is not cached or no longer usable
+     */
+    public TokenValidation get(String token, String zoneId) {
+        String key = getKey(token, zoneId);
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (timeService.getCurrentTimeMillis() >= entry.expiresAt) {
+            cache.asMap().remove(key, entry);
+            return null;
+        }
+        return entry.validation;
+    }
+
+    /**
+     * Caches the validation of a token, unless entries were invalidated since the generation was taken.
+     */
+    public void put(String token, String zoneId, TokenValidation validation, long generation) {
+        Map<String, Object> claims = validation.getClaims();
+        long now = timeService.getCurrentTimeMillis();
+        long expiresAt = now + maxAge.toMillis();
+        Object exp = claims.get(EXP);
+        if (exp != null) {
+            try {
+                expiresAt = Math.min(expiresAt, Long.parseLong(exp.toString()) * 1000L);
+            } catch (NumberFormatException e) {
+                return;
+            }
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        int weight = ENTRY_OVERHEAD_BYTES + 2 * (token.length() + validation.getJwt().getEncoded().length());
+        Entry entry = new Entry(validation, zoneId, (String) claims.get(USER_ID), (String) claims.get(CID), expiresAt, weight);
+        synchronized (invalidations) {
+            if (generation == invalidations.get()) {
+                cache.put(getKey(token, zoneId), entry);
+            }
+        }
+    }
+
+    public void clear() {
+        invalidate(entry -> true);
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        String zoneId = event.getIdentityZoneId();
+        if (event instanceof TokenRevocationEvent) {
+            TokenRevocationEvent revocation = (TokenRevocationEvent) event;
+            String userId = revocation.getUserId();
+            String clientId = revocation.getClientId();
+            invalidate(entry -> entry.zoneId.equals(revocation.getZoneId()) &&
+                (userId == null || userId.equals(entry.userId)) &&
+                (clientId == null || clientId.equals(entry.clientId))
+            );
+        } else if (event instanceof AbstractClientAdminEvent) {
+            ClientDetails client = ((AbstractClientAdminEvent) event).getClient();
+            if (client != null) {
+                invalidate(entry -> entry.zoneId.equals(zoneId) && client.getClientId().equals(entry.clientId));
+            }
+        } else if (event instanceof UserModifiedEvent) {
+            String userId = ((UserModifiedEvent) event).getUserId();
+            invalidate(entry -> entry.zoneId.equals(zoneId) && Objects.equals(userId, entry.userId));
+        } else if (event instanceof PasswordChangeEvent && ((PasswordChangeEvent) event).getUser() != null) {
+            String userId = ((PasswordChangeEvent) event).getUser().getId();
+            invalidate(entry -> entry.zoneId.equals(zoneId) && Objects.equals(userId, entry.userId));
+        } else if (event instanceof GroupModifiedEvent) {
+            //required user groups of clients are validated against the user's groups
+            invalidate(entry -> entry.zoneId.equals(zoneId));
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent) event).getDeleted();
+            if (deleted instanceof ScimUser) {
+                String userId = ((ScimUser) deleted).getId();
+                invalidate(entry -> entry.zoneId.equals(zoneId) && Objects.equals(userId, entry.userId));
+            } else if (deleted instanceof IdentityZone) {
+                String deletedZoneId = ((IdentityZone) deleted).getId();
+                invalidate(entry -> entry.zoneId.equals(deletedZoneId));
+            }
+        }
+    }
+
+    protected void invalidate(Predicate<Entry> predicate) {
+        synchronized (invalidations) {
+            invalidations.incrementAndGet();
+            cache.asMap().values().removeIf(predicate);
+        }
+        logger.debug("Invalidated cached token validations");
+    }
+
+    private static String getKey(String token, String zoneId) {
+        return zoneId + ":" + DigestUtils.sha256Hex(token);
+    }
+
+    @Override
+    public String getCacheName() {
+        return "tokenValidations";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    protected static class Entry {
+        private final TokenValidation validation;
+        private final String zoneId;
+        private final String userId;
+        private final String clientId;
+        private final long expiresAt;
+        private final int weight;
+
+        Entry(TokenValidation validation, String zoneId, String userId, String clientId, long expiresAt, int weight) {
+            this.validation = validation;
+            this.zoneId = zoneId;
+            this.userId = userId;
+            this.clientId = clientId;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+}
@@ -24,6 +24,7 @@ public class TokenValidationService {
     private UaaUserDatabase userDatabase;
     private MultitenantClientServices multitenantClientServices;
     private KeyInfoService keyInfoService;
+    private TokenValidationCache validationCache;
 
     public TokenValidationService(RevocableTokenProvisioning revocableTokenProvisioning,
                                   TokenEndpointBuilder tokenEndpointBuilder,
@@ -38,6 +39,21 @@ public class TokenValidationService {
     }
 
     public TokenValidation validateToken(String token, boolean isAccessToken) {
+        if (isAccessToken && validationCache != null && validationCache.isEnabled()) {
+            String zoneId = IdentityZoneHolder.get().getId();
+            TokenValidation cached = validationCache.get(token, zoneId);
+            if (cached != null) {
+                return cached;
+            }
+            long generation = validationCache.getGeneration();
+            TokenValidation tokenValidation = validate(token, true);
+            validationCache.put(token, zoneId, tokenValidation, generation);
+            return tokenValidation;
+        }
+        return validate(token, isAccessToken);
+    }
+
+    private TokenValidation validate(String token, boolean isAccessToken) {
         if (!UaaTokenUtils.isJwtToken(token)) {
             RevocableToken revocableToken;
             try {
@@ -79,4 +95,8 @@ public class TokenValidationService {
     public void setUserDatabase(UaaUserDatabase userDatabase) {
         this.userDatabase = userDatabase;
     }
+
+    public void setValidationCache(TokenValidationCache validationCache) {
+        this.validationCache = validationCache;
+    }
 }
@@ -21,6 +21,8 @@ import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.resources.jdbc.ExpiredRowDeleter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
@@ -40,11 +42,18 @@ import org.springframework.security.oauth2.provider.OAuth2Request;
 import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,7 +61,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class UaaTokenStore implements AuthorizationCodeServices {
+public class UaaTokenStore implements AuthorizationCodeServices, ExpiredRowDeleter {
     public static final long EXPIRATION_TIME = 5*60*1000;
     public static final long LEGACY_CODE_EXPIRATION_TIME = 3*24*60*60*1000;
     public static final String USER_AUTHENTICATION_UAA_AUTHENTICATION = "userAuthentication.uaaAuthentication";
@@ -67,35 +76,61 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     public static final String OAUTH2_REQUEST_REDIRECT_URI = "oauth2Request.redirectUri";
     public static final String OAUTH2_REQUEST_RESPONSE_TYPES = "oauth2Request.responseTypes";
 
+    //first byte of the binary encoding, JSON encoded authentications start with '{'
+    private static final byte BINARY_FORMAT_V1 = 1;
+    private static final byte NO_USER_AUTHENTICATION = 0;
+    private static final byte UAA_AUTHENTICATION = 1;
+    private static final byte UAA_PRINCIPAL = 2;
+
     protected static Logger logger = LoggerFactory.getLogger(UaaTokenStore.class);
 
     private static final String SQL_SELECT_STATEMENT = "select code, user_id, client_id, expiresat, created, authentication from oauth_code where code = ?";
     private static final String SQL_INSERT_STATEMENT = "insert into oauth_code (code, user_id, client_id, expiresat, authentication, identity_zone_id) values (?, ?, ?, ?, ?, ?)";
     private static final String SQL_DELETE_STATEMENT = "delete from oauth_code where code = ?";
+    private static final String SQL_DELETE_RETURNING_STATEMENT = "delete from oauth_code where code = ? returning code, user_id, client_id, expiresat, created, authentication";
     private static final String SQL_EXPIRE_STATEMENT = "delete from oauth_code where expiresat > 0 AND expiresat < ?";
     private static final String SQL_CLEAN_STATEMENT = "delete from oauth_code where created < ? and expiresat = 0";
 
-    private final DataSource dataSource;
+    private final JdbcTemplate template;
     private final long expirationTime;
     private final RandomValueStringGenerator generator = new RandomValueStringGenerator(10);
     private final RowMapper rowMapper = new TokenCodeRowMapper();
 
     private final AtomicLong lastClean = new AtomicLong(0);
+    private LimitSqlAdapter limitSqlAdapter;
+    private boolean deleteExpiredRowsInline = true;
+    private boolean writeBinaryFormat = false;
 
     public UaaTokenStore(DataSource dataSource) {
         this(dataSource, EXPIRATION_TIME);
     }
 
     public UaaTokenStore(DataSource dataSource, long expirationTime) {
-        this.dataSource = dataSource;
+        this.template = new JdbcTemplate(dataSource);
         this.expirationTime = expirationTime;
     }
 
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
+    /**
+     * Codes are always read in either format, but should only be written in the binary format
+     * once every server is able to read it.
+     */
+    public void setWriteBinaryFormat(boolean writeBinaryFormat) {
+        this.writeBinaryFormat = writeBinaryFormat;
+    }
+
+    @Override
+    public void setDeleteExpiredRowsInline(boolean inline) {
+        this.deleteExpiredRowsInline = inline;
+    }
+
     @Override
     public String createAuthorizationCode(OAuth2Authentication authentication) {
         final int max_tries = 3;
         performExpirationClean();
-        JdbcTemplate template = new JdbcTemplate(dataSource);
         int tries = 0;
         while ((tries++)<=max_tries) {
             try {
@@ -103,7 +138,7 @@ public class UaaTokenStore implements AuthorizationCodeServices {
                 long expiresAt = System.currentTimeMillis()+getExpirationTime();
                 String userId = authentication.getUserAuthentication()==null ? null : ((UaaPrincipal)authentication.getUserAuthentication().getPrincipal()).getId();
                 String clientId = authentication.getOAuth2Request().getClientId();
-                SqlLobValue data = new SqlLobValue(serializeOauth2Authentication(authentication));
+                SqlLobValue data = new SqlLobValue(writeBinaryFormat ? serializeOauth2AuthenticationBinary(authentication) : serializeOauth2Authentication(authentication));
                 int updated = template.update(
                     SQL_INSERT_STATEMENT,
                     new Object[] {code, userId, clientId, expiresAt, data, IdentityZoneHolder.get().getId()},
@@ -125,26 +160,36 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     @Override
     public OAuth2Authentication consumeAuthorizationCode(String code) throws InvalidGrantException {
         performExpirationClean();
-        JdbcTemplate template = new JdbcTemplate(dataSource);
+        TokenCode tokenCode = removeTokenCode(code);
+        if (tokenCode == null) {
+            throw new InvalidGrantException("Invalid authorization code: " + code);
+        }
+        if (tokenCode.isExpired()) {
+            logger.debug("[oauth_code] Found code, but it expired:"+tokenCode);
+            throw new InvalidGrantException("Authorization code expired: " + code);
+        } else if (tokenCode.getExpiresAt() == 0) {
+            return SerializationUtils.deserialize(tokenCode.getAuthentication());
+        } else {
+            return deserializeOauth2Authentication(tokenCode.getAuthentication());
+        }
+    }
+
+    /**
+     * Removes the code and returns it, or null if it doesn't exist or was removed by a concurrent request.
+     */
+    protected TokenCode removeTokenCode(String code) {
+        if (limitSqlAdapter != null && limitSqlAdapter.supportsDeleteReturning()) {
+            List<TokenCode> deleted = template.query(SQL_DELETE_RETURNING_STATEMENT, rowMapper, code);
+            return deleted.isEmpty() ? null : deleted.get(0);
+        }
+        TokenCode tokenCode;
         try {
-            TokenCode tokenCode = (TokenCode) template.queryForObject(SQL_SELECT_STATEMENT, rowMapper, code);
-            if (tokenCode != null) {
-                try {
-                    if (tokenCode.isExpired()) {
-                        logger.debug("[oauth_code] Found code, but it expired:"+tokenCode);
-                        throw new InvalidGrantException("Authorization code expired: " + code);
-                    } else if (tokenCode.getExpiresAt() == 0) {
-                        return SerializationUtils.deserialize(tokenCode.getAuthentication());
-                    } else {
-                        return deserializeOauth2Authentication(tokenCode.getAuthentication());
-                    }
-                } finally {
-                    template.update(SQL_DELETE_STATEMENT, code);
-                }
-            }
-        }catch (EmptyResultDataAccessException x) {
+            tokenCode = (TokenCode) template.queryForObject(SQL_SELECT_STATEMENT, rowMapper, code);
+        } catch (EmptyResultDataAccessException x) {
+            return null;
         }
-        throw new InvalidGrantException("Invalid authorization code: " + code);
+        //only the request that deletes the row may use the code
+        return template.update(SQL_DELETE_STATEMENT, code) == 1 ? tokenCode : null;
     }
 
     protected byte[] serializeOauth2Authentication(OAuth2Authentication auth2Authentication) {
@@ -175,7 +220,48 @@ public class UaaTokenStore implements AuthorizationCodeServices {
         return JsonUtils.writeValueAsBytes(data);
     }
 
+    protected byte[] serializeOauth2AuthenticationBinary(OAuth2Authentication auth2Authentication) {
+        Authentication userAuthentication = auth2Authentication.getUserAuthentication();
+        OAuth2Request request = auth2Authentication.getOAuth2Request();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(BINARY_FORMAT_V1);
+            if (userAuthentication == null) {
+                out.writeByte(NO_USER_AUTHENTICATION);
+            } else if (userAuthentication instanceof UaaAuthentication) {
+                out.writeByte(UAA_AUTHENTICATION);
+                writeString(out, JsonUtils.writeValueAsString(userAuthentication));
+            } else {
+                out.writeByte(UAA_PRINCIPAL);
+                writeString(out, JsonUtils.writeValueAsString(userAuthentication.getPrincipal()));
+                writeStrings(out, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
+            }
+            Map<String, String> parameters = request.getRequestParameters();
+            out.writeInt(parameters.size());
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                writeString(out, parameter.getKey());
+                writeString(out, parameter.getValue());
+            }
+            writeString(out, request.getClientId());
+            writeStrings(out, UaaStringUtils.getStringsFromAuthorities(request.getAuthorities()));
+            out.writeBoolean(request.isApproved());
+            writeStrings(out, request.getScope());
+            writeStrings(out, request.getResourceIds());
+            writeString(out, request.getRedirectUri());
+            writeStrings(out, request.getResponseTypes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize authentication", e);
+        }
+        if (request.getExtensions() != null && request.getExtensions().size()>0) {
+            logger.warn("[oauth_code] Unable to serialize extensions:"+request.getExtensions());
+        }
+        return bytes.toByteArray();
+    }
+
     protected OAuth2Authentication deserializeOauth2Authentication(byte[] data) {
+        if (data.length > 0 && data[0] == BINARY_FORMAT_V1) {
+            return deserializeOauth2AuthenticationBinary(data);
+        }
         Map<String,Object> map = JsonUtils.readValue(data, new TypeReference<Map<String,Object>>() {});
         Authentication userAuthentication = null;
         if (map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION) != null) {
@@ -211,25 +297,129 @@ public class UaaTokenStore implements AuthorizationCodeServices {
         return new OAuth2Authentication(request, userAuthentication);
     }
 
+    protected OAuth2Authentication deserializeOauth2AuthenticationBinary(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            in.readByte();
+            Authentication userAuthentication = null;
+            switch (in.readByte()) {
+                case UAA_AUTHENTICATION:
+                    userAuthentication = JsonUtils.readValue(readString(in), UaaAuthentication.class);
+                    break;
+                case UAA_PRINCIPAL:
+                    UaaPrincipal principal = JsonUtils.readValue(readString(in), UaaPrincipal.class);
+                    Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings(readStrings(in));
+                    userAuthentication = new UaaAuthentication(principal, (List<? extends GrantedAuthority>) authorities, UaaAuthenticationDetails.UNKNOWN);
+                    break;
+                default:
+                    break;
+            }
+            int parameterCount = in.readInt();
+            Map<String, String> requestParameters = new HashMap<>();
+            for (int i = 0; i < parameterCount; i++) {
+                requestParameters.put(readString(in), readString(in));
+            }
+            String clientId = readString(in);
+            Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings(readStrings(in));
+            boolean approved = in.readBoolean();
+            Collection<String> scope = readStrings(in);
+            Collection<String> resourceIds = readStrings(in);
+            String redirectUri = readString(in);
+            Collection<String> responseTypes = readStrings(in);
+
+            OAuth2Request request = new OAuth2Request(
+                requestParameters,
+                clientId,
+                authorities,
+                approved,
+                new HashSet<>(scope),
+                new HashSet<>(resourceIds),
+                redirectUri,
+                new HashSet<>(responseTypes),
+                new HashMap<String,Serializable>()
+            );
+            return new OAuth2Authentication(request, userAuthentication);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to deserialize authentication", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
     protected void performExpirationClean() {
+        if (!deleteExpiredRowsInline) {
+            return;
+        }
         long last = lastClean.get();
         //check if we should expire again
         if ((System.currentTimeMillis()-last) > getExpirationTime()) {
             //avoid concurrent deletes from the same UAA - performance improvement
             if (lastClean.compareAndSet(last, last+getExpirationTime())) {
-                try {
-                    JdbcTemplate template = new JdbcTemplate(dataSource);
-                    int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
-                    logger.debug("[oauth_code] Removed "+expired+" expired entries.");
-                    expired = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
-                    logger.debug("[oauth_code] Removed "+expired+" old entries.");
-                } catch (DeadlockLoserDataAccessException e) {
-                    logger.debug("[oauth code] Deadlock trying to expire entries, ignored.");
-                }
+                expireCodes();
             }
         }
+    }
 
+    protected void expireCodes() {
+        try {
+            deleteExpiredRows(Integer.MAX_VALUE);
+        } catch (DeadlockLoserDataAccessException e) {
+            logger.debug("[oauth code] Deadlock trying to expire entries, ignored.");
+        }
+    }
+
+    @Override
+    public String getExpiredRowsTable() {
+        return "oauth_code";
+    }
 
+    /**
+     * Codes expire within minutes, so the table stays small and is cleaned in one pass.
+     */
+    @Override
+    public int deleteExpiredRows(int maxRows) {
+        int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
+        logger.debug("[oauth_code] Removed "+expired+" expired entries.");
+        int old = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
+        logger.debug("[oauth_code] Removed "+old+" old entries.");
+        return expired + old;
     }
 
     public long getExpirationTime() {
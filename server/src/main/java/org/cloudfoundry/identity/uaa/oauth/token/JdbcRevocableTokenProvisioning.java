@@ -1,10 +1,17 @@
 package org.cloudfoundry.identity.uaa.oauth.token;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
+import org.cloudfoundry.identity.uaa.cache.GenerationalCache;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.resources.jdbc.ExpiredRowDeleter;
 import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -13,14 +20,30 @@ import org.springframework.util.StringUtils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static org.cloudfoundry.identity.uaa.oauth.token.RevocableToken.TokenType.ACCESS_TOKEN;
 import static org.cloudfoundry.identity.uaa.oauth.token.RevocableToken.TokenType.REFRESH_TOKEN;
 import static org.springframework.util.StringUtils.isEmpty;
 
-public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisioning, SystemDeletable {
+/**
+ * Stores revocable tokens in the {@code revocable_tokens} table.
+ * <p>
+ * Access tokens can optionally be cached for a short time, see {@link #setCacheExpiration(Duration)}.
+ * Cached tokens are dropped immediately when they are updated or deleted on this node. Other nodes
+ * learn about changes by polling at most once per {@link #setEpochCheckInterval(Duration) epoch check interval}:
+ * updates and deletes of single tokens are recorded in {@code revocable_tokens_invalidation}, so that
+ * only those tokens are dropped, while deletes by user, client or zone increase the epoch of the zone
+ * in {@code revocable_tokens_epoch}, which drops all cached tokens of the zone.
+ */
+public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisioning, SystemDeletable, MeteredCache, ExpiredRowDeleter {
 
     private final static String REFRESH_TOKEN_RESPONSE_TYPE = REFRESH_TOKEN.toString();
     private final static String FIELDS = "token_id,client_id,user_id,format,response_type,issued_at,expires_at,scope,data,identity_zone_id";
@@ -36,6 +59,17 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     private final static String DELETE_BY_CLIENT_QUERY = "DELETE FROM " + TABLE + " WHERE client_id = ? AND identity_zone_id=?";
     private final static String DELETE_BY_USER_QUERY = "DELETE FROM " + TABLE + " WHERE user_id = ? AND identity_zone_id=?";
     private final static String DELETE_BY_ZONE_QUERY = "DELETE FROM " + TABLE + " WHERE identity_zone_id=?";
+    private final static String EPOCH_TABLE = "revocable_tokens_epoch";
+    private final static String GET_EPOCHS_QUERY = "SELECT identity_zone_id, epoch FROM " + EPOCH_TABLE;
+    private final static String INCREMENT_EPOCH_QUERY = "UPDATE " + EPOCH_TABLE + " SET epoch=epoch+1 WHERE identity_zone_id=?";
+    private final static String INSERT_EPOCH_QUERY = "INSERT INTO " + EPOCH_TABLE + " (identity_zone_id, epoch) VALUES (?,1)";
+    private final static String INVALIDATION_TABLE = "revocable_tokens_invalidation";
+    private final static String GET_INVALIDATIONS_QUERY = "SELECT token_id, identity_zone_id, invalidated_at FROM " + INVALIDATION_TABLE + " WHERE invalidated_at>=?";
+    private final static String UPDATE_INVALIDATION_QUERY = "UPDATE " + INVALIDATION_TABLE + " SET invalidated_at=? WHERE token_id=? AND identity_zone_id=?";
+    private final static String INSERT_INVALIDATION_QUERY = "INSERT INTO " + INVALIDATION_TABLE + " (token_id, identity_zone_id, invalidated_at) VALUES (?,?,?)";
+    private final static String DELETE_INVALIDATIONS_QUERY = "DELETE FROM " + INVALIDATION_TABLE + " WHERE invalidated_at<?";
+    //how far the clocks of the nodes may be apart
+    private final static Duration INVALIDATION_CLOCK_SKEW = Duration.ofSeconds(5);
 
     private final static Logger logger = LoggerFactory.getLogger(JdbcRevocableTokenProvisioning.class);
     private final RowMapper<RevocableToken> rowMapper;
@@ -46,6 +80,16 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     private AtomicLong lastExpiredCheck = new AtomicLong(0);
     private Duration maxExpirationRuntime = Duration.ofMillis(2500L);
     private final static Duration EXPIRATION_CHECK_INTERVAL = Duration.ofSeconds(30);
+    private boolean deleteExpiredRowsInline = true;
+
+    private Duration cacheExpiration = Duration.ZERO;
+    private int cacheMaxEntries = 100000;
+    private Duration epochCheckInterval = Duration.ofSeconds(1);
+    private volatile GenerationalCache<CachedToken> cache = buildCache();
+    private final AtomicLong lastEpochCheck = new AtomicLong(0);
+    private final Map<String, Long> epochs = new ConcurrentHashMap<>();
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+    private final AtomicLong lastInvalidationCleanup = new AtomicLong(0);
 
     public JdbcRevocableTokenProvisioning(JdbcTemplate jdbcTemplate,
                                           LimitSqlAdapter limitSqlAdapter,
@@ -64,12 +108,20 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     public RevocableToken retrieve(String id, boolean checkExpired, String zoneId) {
         if (checkExpired) {
             checkExpired();
+            RevocableToken cached = getCached(id, zoneId);
+            if (cached != null) {
+                return cached;
+            }
         }
+        long currentGeneration = cache.getGeneration();
         RevocableToken result = template.queryForObject(GET_QUERY, rowMapper, id, zoneId);
         if (checkExpired && result.getExpiresAt() < timeService.getCurrentTimeMillis()) {
             delete(id, 0, zoneId);
             throw new EmptyResultDataAccessException("Token expired.", 1);
         }
+        if (checkExpired) {
+            putCached(result, zoneId, currentGeneration);
+        }
         return result;
     }
 
@@ -113,6 +165,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                 t.getValue(),
                 id,
                 zoneId);
+        invalidateToken(id, zoneId);
         return retrieve(id, false, zoneId);
     }
 
@@ -120,22 +173,38 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     public RevocableToken delete(String id, int version, String zoneId) {
         RevocableToken previous = retrieve(id, false, zoneId);
         template.update(DELETE_QUERY, id, zoneId);
+        //expired tokens are never served from the cache
+        if (previous.getResponseType() == ACCESS_TOKEN && previous.getExpiresAt() >= timeService.getCurrentTimeMillis()) {
+            invalidateToken(id, zoneId);
+        }
         return previous;
     }
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return template.update(DELETE_BY_ZONE_QUERY, zoneId);
+        int deleted = template.update(DELETE_BY_ZONE_QUERY, zoneId);
+        if (deleted > 0) {
+            invalidateZone(zoneId);
+        }
+        return deleted;
     }
 
     @Override
     public int deleteByClient(String clientId, String zoneId) {
-        return template.update(DELETE_BY_CLIENT_QUERY, clientId, zoneId);
+        int deleted = template.update(DELETE_BY_CLIENT_QUERY, clientId, zoneId);
+        if (deleted > 0) {
+            invalidateIf(cached -> cached.zoneId.equals(zoneId) && clientId.equals(cached.token.getClientId()), zoneId);
+        }
+        return deleted;
     }
 
     @Override
     public int deleteByUser(String userId, String zoneId) {
-        return template.update(DELETE_BY_USER_QUERY, userId, zoneId);
+        int deleted = template.update(DELETE_BY_USER_QUERY, userId, zoneId);
+        if (deleted > 0) {
+            invalidateIf(cached -> cached.zoneId.equals(zoneId) && userId.equals(cached.token.getUserId()), zoneId);
+        }
+        return deleted;
     }
 
     @Override
@@ -162,6 +231,9 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     }
 
     private void checkExpired() {
+        if (!deleteExpiredRowsInline) {
+            return;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastExpiredCheck.get();
         if ((now - lastCheck) > EXPIRATION_CHECK_INTERVAL.toMillis() && lastExpiredCheck.compareAndSet(lastCheck, now)) {
@@ -181,17 +253,185 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
      */
     private boolean runDeleteExpired(long now) {
         final int maxRows = 500;
-        String sql = limitSqlAdapter.getDeleteExpiredQuery(
-                TABLE, "token_id", "expires_at", maxRows
-        );
         int removed;
         do {
-            removed = template.update(sql, now);
+            removed = deleteExpiredRows(maxRows);
             logger.info("Removed " + removed + " expired revocable tokens.");
         } while (removed > 0 && (timeService.getCurrentTimeMillis() - now) < maxExpirationRuntime.toMillis());
         return removed >= maxRows;
     }
 
+    @Override
+    public String getExpiredRowsTable() {
+        return TABLE;
+    }
+
+    @Override
+    public int deleteExpiredRows(int maxRows) {
+        String sql = limitSqlAdapter.getDeleteExpiredQuery(
+                TABLE, "token_id", "expires_at", maxRows
+        );
+        return template.update(sql, timeService.getCurrentTimeMillis());
+    }
+
+    @Override
+    public void setDeleteExpiredRowsInline(boolean inline) {
+        this.deleteExpiredRowsInline = inline;
+    }
+
+    private RevocableToken getCached(String id, String zoneId) {
+        if (!isCacheEnabled()) {
+            return null;
+        }
+        checkInvalidations();
+        CachedToken cached = cache.get(zoneId, id);
+        if (cached == null) {
+            return null;
+        }
+        long now = timeService.getCurrentTimeMillis();
+        if (now - cached.cachedAt >= cacheExpiration.toMillis() || cached.token.getExpiresAt() < now) {
+            cache.remove(zoneId, id, cached);
+            return null;
+        }
+        return cached.token;
+    }
+
+    private void putCached(RevocableToken token, String zoneId, long tokenGeneration) {
+        //refresh tokens are looked up rarely, and deleting them is not published to other nodes
+        if (!isCacheEnabled() || token.getResponseType() != ACCESS_TOKEN) {
+            return;
+        }
+        cache.put(zoneId, token.getTokenId(), new CachedToken(token, zoneId, timeService.getCurrentTimeMillis()), tokenGeneration);
+    }
+
+    private void invalidateToken(String id, String zoneId) {
+        if (!isCacheEnabled()) {
+            return;
+        }
+        cache.invalidate(zoneId, id);
+        long now = timeService.getCurrentTimeMillis();
+        invalidations.put(zoneId + ":" + id, now);
+        try {
+            if (template.update(UPDATE_INVALIDATION_QUERY, now, id, zoneId) == 0) {
+                template.update(INSERT_INVALIDATION_QUERY, id, zoneId, now);
+            }
+        } catch (DuplicateKeyException e) {
+            //another node invalidated the token at the same time
+            template.update(UPDATE_INVALIDATION_QUERY, now, id, zoneId);
+        }
+    }
+
+    private void invalidateZone(String zoneId) {
+        if (!isCacheEnabled()) {
+            return;
+        }
+        cache.invalidateZone(zoneId);
+        incrementEpoch(zoneId);
+    }
+
+    private void invalidateIf(Predicate<CachedToken> predicate, String zoneId) {
+        if (!isCacheEnabled()) {
+            return;
+        }
+        cache.invalidateIf(predicate);
+        incrementEpoch(zoneId);
+    }
+
+    private void incrementEpoch(String zoneId) {
+        try {
+            if (template.update(INCREMENT_EPOCH_QUERY, zoneId) == 0) {
+                template.update(INSERT_EPOCH_QUERY, zoneId);
+            }
+        } catch (DuplicateKeyException e) {
+            //another node inserted the epoch first
+            template.update(INCREMENT_EPOCH_QUERY, zoneId);
+        }
+    }
+
+    /**
+     * Drops the cached tokens of zones whose epoch was changed by any node since the last check, and
+     * the tokens that were invalidated by any node since they could have been cached.
+     */
+    void checkInvalidations() {
+        long now = timeService.getCurrentTimeMillis();
+        long lastCheck = lastEpochCheck.get();
+        if ((now - lastCheck) < epochCheckInterval.toMillis() || !lastEpochCheck.compareAndSet(lastCheck, now)) {
+            return;
+        }
+        Map<String, Long> current = new HashMap<>();
+        template.query(GET_EPOCHS_QUERY, rs -> {
+            current.put(rs.getString(1), rs.getLong(2));
+        });
+        for (Map.Entry<String, Long> epoch : current.entrySet()) {
+            String zoneId = epoch.getKey();
+            if (!Objects.equals(epochs.put(zoneId, epoch.getValue()), epoch.getValue())) {
+                logger.debug("Revocable token epoch of zone " + zoneId + " changed, dropping cached tokens.");
+                cache.invalidateZone(zoneId);
+            }
+        }
+
+        //older invalidations happened before any of the cached tokens were loaded
+        long since = now - cacheExpiration.toMillis() - INVALIDATION_CLOCK_SKEW.toMillis();
+        template.query(GET_INVALIDATIONS_QUERY, rs -> {
+            String tokenId = rs.getString(1);
+            String zoneId = rs.getString(2);
+            Long invalidatedAt = rs.getLong(3);
+            if (!invalidatedAt.equals(invalidations.put(zoneId + ":" + tokenId, invalidatedAt))) {
+                cache.invalidate(zoneId, tokenId);
+            }
+        }, since);
+        invalidations.values().removeIf(invalidatedAt -> invalidatedAt < since);
+        long lastCleanup = lastInvalidationCleanup.get();
+        if ((now - lastCleanup) > EXPIRATION_CHECK_INTERVAL.toMillis() && lastInvalidationCleanup.compareAndSet(lastCleanup, now)) {
+            template.update(DELETE_INVALIDATIONS_QUERY, since);
+        }
+    }
+
+    private GenerationalCache<CachedToken> buildCache() {
+        Cache<String, CachedToken> tokens = CacheBuilder
+            .newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .recordStats()
+            .build();
+        return new GenerationalCache<>(tokens);
+    }
+
+    public boolean isCacheEnabled() {
+        return !cacheExpiration.isZero() && !cacheExpiration.isNegative();
+    }
+
+    /**
+     * @param cacheExpiration how long access tokens are served from memory, zero disables the cache
+     */
+    public void setCacheExpiration(Duration cacheExpiration) {
+        this.cacheExpiration = cacheExpiration;
+        this.cache = buildCache();
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.cache = buildCache();
+    }
+
+    public void setEpochCheckInterval(Duration epochCheckInterval) {
+        this.epochCheckInterval = epochCheckInterval;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "revocableTokens";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
     public void setMaxExpirationRuntime(long maxExpirationRuntime) {
         this.maxExpirationRuntime = Duration.ofMillis(maxExpirationRuntime);
     }
@@ -223,4 +463,16 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     public void setTimeService(TimeService timeService) {
         this.timeService = timeService;
     }
+
+    private static final class CachedToken {
+        private final RevocableToken token;
+        private final String zoneId;
+        private final long cachedAt;
+
+        CachedToken(RevocableToken token, String zoneId, long cachedAt) {
+            this.token = token;
+            this.zoneId = zoneId;
+            this.cachedAt = cachedAt;
+        }
+    }
 }
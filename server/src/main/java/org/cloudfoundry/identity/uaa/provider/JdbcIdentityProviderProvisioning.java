@@ -12,14 +12,19 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.provider;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.ObjectUtils;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
@@ -33,8 +38,9 @@ import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
-public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisioning, SystemDeletable {
+public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisioning, SystemDeletable, MeteredCache {
 
     private static Logger logger = LoggerFactory.getLogger(JdbcIdentityProviderProvisioning.class);
 
@@ -60,11 +66,31 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     public static final String IDENTITY_PROVIDER_BY_ORIGIN_QUERY_ACTIVE =  IDENTITY_PROVIDER_BY_ORIGIN_QUERY + " and active = ? ";
 
+    public static final String IDENTITY_PROVIDERS_STAMP_QUERY = "select count(*), max(lastmodified), sum(version), (select max(epoch) from identity_provider_epoch where identity_zone_id=?) from identity_provider where identity_zone_id=?";
+
+    public static final String INCREMENT_EPOCH_SQL = "update identity_provider_epoch set epoch=epoch+1 where identity_zone_id=?";
+
+    public static final String INSERT_EPOCH_SQL = "insert into identity_provider_epoch (identity_zone_id, epoch) values (?,1)";
+
+    public static final String DELETE_EPOCH_SQL = "delete from identity_provider_epoch where identity_zone_id=?";
+
+    public static final int DEFAULT_CACHE_MAX_ZONES = 1000;
+
     protected final JdbcTemplate jdbcTemplate;
 
 
     private final RowMapper<IdentityProvider> mapper = new IdentityProviderRowMapper();
 
+    private final Cache<String, ZoneProviders> activeProviders = CacheBuilder
+            .newBuilder()
+            .maximumSize(DEFAULT_CACHE_MAX_ZONES)
+            .recordStats()
+            .build();
+
+    private boolean cacheEnabled = false;
+
+    private long cacheCheckIntervalMillis = 0;
+
     public JdbcIdentityProviderProvisioning(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
@@ -78,13 +104,19 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public List<IdentityProvider> retrieveActive(String zoneId) {
-        return jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId, true);
+        if (!cacheEnabled) {
+            return jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId, true);
+        }
+        return getActiveProviders(zoneId).stream()
+            .map(JdbcIdentityProviderProvisioning::copy)
+            .collect(Collectors.toList());
     }
 
     @Override
     public List<IdentityProvider> retrieveAll(boolean activeOnly, String zoneId) {
+        //admin reads are not cached, callers redact and modify the returned providers
         if (activeOnly) {
-            return retrieveActive(zoneId);
+            return jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId, true);
         } else {
             return jdbcTemplate.query(IDENTITY_PROVIDERS_QUERY, mapper, zoneId);
         }
@@ -92,8 +124,15 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public IdentityProvider retrieveByOrigin(String origin, String zoneId) {
-        IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ORIGIN_QUERY_ACTIVE, mapper, origin, zoneId, true);
-        return identityProvider;
+        if (!cacheEnabled) {
+            IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ORIGIN_QUERY_ACTIVE, mapper, origin, zoneId, true);
+            return identityProvider;
+        }
+        return getActiveProviders(zoneId).stream()
+            .filter(provider -> provider.getOriginKey().equals(origin))
+            .findFirst()
+            .map(JdbcIdentityProviderProvisioning::copy)
+            .orElseThrow(() -> new EmptyResultDataAccessException("No active identity provider with origin " + origin, 1));
     }
 
     @Override
@@ -125,6 +164,8 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
             });
         } catch (DuplicateKeyException e) {
             throw new IdpAlreadyExistsException(e.getMostSpecificCause().getMessage());
+        } finally {
+            providersChanged(zoneId);
         }
         return retrieve(id, zoneId);
     }
@@ -146,6 +187,7 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
             ps.setString(pos++, zoneId);
             }
         });
+        providersChanged(zoneId);
         return retrieve(identityProvider.getId(), zoneId);
     }
 
@@ -167,12 +209,137 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        try {
+            return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        } finally {
+            //the row count of the zone drops to zero, other servers notice that without the epoch
+            activeProviders.invalidate(zoneId);
+            jdbcTemplate.update(DELETE_EPOCH_SQL, zoneId);
+        }
     }
 
     @Override
     public int deleteByOrigin(String origin, String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        try {
+            return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        } finally {
+            providersChanged(zoneId);
+        }
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * Keeps the parsed active providers of each zone in memory, for the provider lookups done on
+     * every login and login page. Providers changed through this instance are reloaded right away,
+     * changes made by other servers are noticed by comparing the epoch of the zone, which every
+     * server increases in {@code identity_provider_epoch} after a change, together with the row
+     * count, latest modification and version sum of the zone's providers.
+     */
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        clearCache();
+    }
+
+    public long getCacheCheckIntervalMillis() {
+        return cacheCheckIntervalMillis;
+    }
+
+    /**
+     * @param cacheCheckIntervalMillis how long cached providers are used without checking the database
+     *                                 for changes made by other servers, 0 to check on every read
+     */
+    public void setCacheCheckIntervalMillis(long cacheCheckIntervalMillis) {
+        this.cacheCheckIntervalMillis = cacheCheckIntervalMillis;
+    }
+
+    public void clearCache() {
+        activeProviders.invalidateAll();
+    }
+
+    @Override
+    public String getCacheName() {
+        return "identityProviders";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return activeProviders.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return activeProviders.size();
+    }
+
+    /**
+     * Called after every change. The epoch only ever increases, unlike the version of a provider,
+     * which is set by the caller, and it changes within a second, unlike the modification time,
+     * which MySQL stores in seconds.
+     */
+    private void providersChanged(String zoneId) {
+        activeProviders.invalidate(zoneId);
+        try {
+            if (jdbcTemplate.update(INCREMENT_EPOCH_SQL, zoneId) == 0) {
+                jdbcTemplate.update(INSERT_EPOCH_SQL, zoneId);
+            }
+        } catch (DuplicateKeyException e) {
+            //another server inserted the epoch first
+            jdbcTemplate.update(INCREMENT_EPOCH_SQL, zoneId);
+        }
+    }
+
+    private List<IdentityProvider> getActiveProviders(String zoneId) {
+        long now = System.currentTimeMillis();
+        ZoneProviders cached = activeProviders.getIfPresent(zoneId);
+        if (cached != null && now - cached.checked < cacheCheckIntervalMillis) {
+            return cached.providers;
+        }
+        //read the stamp first, a change made while loading is picked up by the next check
+        String stamp = jdbcTemplate.queryForObject(IDENTITY_PROVIDERS_STAMP_QUERY, (rs, rowNum) ->
+            rs.getLong(4) + ":" + rs.getLong(1) + ":" + rs.getTimestamp(2) + ":" + rs.getLong(3), zoneId, zoneId);
+        if (cached != null && cached.stamp.equals(stamp)) {
+            cached.checked = now;
+            return cached.providers;
+        }
+        logger.debug("Loading active identity providers for zone:" + zoneId);
+        List<IdentityProvider> providers = jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId, true);
+        activeProviders.put(zoneId, new ZoneProviders(stamp, providers, now));
+        return providers;
+    }
+
+    /**
+     * The cached providers are shared, callers get their own provider that they may modify.
+     * The parsed configuration is shared and must not be modified, callers that complete it,
+     * like the OIDC discovery in {@code XOAuthProviderConfigurator}, work on a clone.
+     */
+    private static IdentityProvider copy(IdentityProvider provider) {
+        IdentityProvider copy = new IdentityProvider();
+        copy.setId(provider.getId());
+        copy.setOriginKey(provider.getOriginKey());
+        copy.setIdentityZoneId(provider.getIdentityZoneId());
+        copy.setConfig(provider.getConfig());
+        copy.setType(provider.getType());
+        copy.setName(provider.getName());
+        copy.setVersion(provider.getVersion());
+        copy.setCreated(provider.getCreated());
+        copy.setLastModified(provider.getLastModified());
+        copy.setActive(provider.isActive());
+        return copy;
+    }
+
+    private static final class ZoneProviders {
+        private final String stamp;
+        private final List<IdentityProvider> providers;
+        private volatile long checked;
+
+        private ZoneProviders(String stamp, List<IdentityProvider> providers, long checked) {
+            this.stamp = stamp;
+            this.providers = providers;
+            this.checked = checked;
+        }
     }
 
     @Override
@@ -0,0 +1,113 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.provider.ldap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.support.BaseLdapPathContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
+
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapName;
+
+/**
+ * Hands out read only and read write contexts, used for user and group searches with the
+ * configured manager DN, from a pool of validated connections so that searches do not open a
+ * new connection, and TLS session, each time. Contexts for user credentials are always created
+ * by the underlying context source, binds as a user never share a connection.
+ * <p>
+ * Without a pool configuration all contexts are created by the underlying context source.
+ */
+public class PooledSearchContextSource implements BaseLdapPathContextSource, DisposableBean {
+
+    private final BaseLdapPathContextSource contextSource;
+    private final PooledContextSource pool;
+
+    public PooledSearchContextSource(BaseLdapPathContextSource contextSource) {
+        this(contextSource, null, null);
+    }
+
+    /**
+     * @param contextSource creates the connections, and the contexts for user binds
+     * @param poolConfig the size, eviction and wait settings of the pool
+     * @param validationFilter the filter of the base object search that checks a connection before it is reused
+     */
+    public PooledSearchContextSource(BaseLdapPathContextSource contextSource, PoolConfig poolConfig, String validationFilter) {
+        this.contextSource = contextSource;
+        if (poolConfig == null) {
+            this.pool = null;
+        } else {
+            DefaultDirContextValidator validator = new DefaultDirContextValidator();
+            if (validationFilter != null) {
+                validator.setFilter(validationFilter);
+            }
+            this.pool = new PooledContextSource(poolConfig);
+            this.pool.setContextSource(contextSource);
+            this.pool.setDirContextValidator(validator);
+        }
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    public int getNumActive() {
+        return pool == null ? 0 : pool.getNumActive();
+    }
+
+    public int getNumIdle() {
+        return pool == null ? 0 : pool.getNumIdle();
+    }
+
+    @Override
+    public DirContext getReadOnlyContext() throws NamingException {
+        return pool == null ? contextSource.getReadOnlyContext() : pool.getReadOnlyContext();
+    }
+
+    @Override
+    public DirContext getReadWriteContext() throws NamingException {
+        return pool == null ? contextSource.getReadWriteContext() : pool.getReadWriteContext();
+    }
+
+    @Override
+    public DirContext getContext(String principal, String credentials) throws NamingException {
+        return contextSource.getContext(principal, credentials);
+    }
+
+    @Override
+    public DistinguishedName getBaseLdapPath() {
+        return contextSource.getBaseLdapPath();
+    }
+
+    @Override
+    public LdapName getBaseLdapName() {
+        return contextSource.getBaseLdapName();
+    }
+
+    @Override
+    public String getBaseLdapPathAsString() {
+        return contextSource.getBaseLdapPathAsString();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (pool != null) {
+            pool.destroy();
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.cloudfoundry.identity.uaa.provider.ldap.extension;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ldap.core.ContextSource;
@@ -24,9 +26,11 @@ import org.springframework.util.StringUtils;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.EMPTY_LIST;
@@ -60,6 +64,9 @@ import static java.util.Collections.EMPTY_LIST;
  * </pre>
  * <p>
  * During an authentication
+ * <p>
+ * When a cache expiry is set, the resolved groups of a user are reused for that long, and so are the
+ * direct parent groups of each group, which are shared by all users that are members of the group.
  */
 
 public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopulator {
@@ -69,6 +76,12 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
     private Set<String> attributeNames;
 
     private int maxSearchDepth = 10;
+
+    private int cacheExpirySeconds = 0;
+    private int cacheMaxEntries = 10000;
+    private Cache<String, Set<GrantedAuthority>> userGroupCache;
+    private Cache<String, Set<Map<String,String[]>>> parentGroupCache;
+
     /**
      * Constructor for group search scenarios. <tt>userRoleAttributes</tt> may still be
      * set as a property.
@@ -100,10 +113,23 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
             return new HashSet<GrantedAuthority>();
         }
 
+        Cache<String, Set<GrantedAuthority>> userGroups = userGroupCache;
+        String cacheKey = userDn + "\n" + username;
+        if (userGroups != null) {
+            Set<GrantedAuthority> cached = userGroups.getIfPresent(cacheKey);
+            if (cached != null) {
+                logger.debug("Using cached roles for user '" + username + "', DN = '" + userDn + "'");
+                return new HashSet<>(cached);
+            }
+        }
+
         Set<GrantedAuthority> authorities = new HashSet<GrantedAuthority>();
 
         performNestedSearch(userDn, username, authorities, getMaxSearchDepth());
 
+        if (userGroups != null) {
+            userGroups.put(cacheKey, Collections.unmodifiableSet(new HashSet<>(authorities)));
+        }
         return authorities;
     }
 
@@ -125,11 +151,9 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
             getAttributeNames().add(getGroupRoleAttribute());
         }
 
-        Set<Map<String,String[]>> userRoles = getLdapTemplate().searchForMultipleAttributeValues(
-            getGroupSearchBase(),
-            getGroupSearchFilter(),
-            new String[]{userDn, username},
-            getAttributeNames().toArray(new String[getAttributeNames().size()]));
+        Set<Map<String,String[]>> userRoles = depth == getMaxSearchDepth() ?
+            searchForGroups(userDn, username) :
+            searchForParentGroups(userDn, username);
 
         if (logger.isDebugEnabled()) {
             logRoles(userRoles);
@@ -156,6 +180,28 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
         }
     }
 
+    protected Set<Map<String,String[]>> searchForGroups(String dn, String name) {
+        return getLdapTemplate().searchForMultipleAttributeValues(
+            getGroupSearchBase(),
+            getGroupSearchFilter(),
+            new String[]{dn, name},
+            getAttributeNames().toArray(new String[getAttributeNames().size()]));
+    }
+
+    protected Set<Map<String,String[]>> searchForParentGroups(String groupDn, String groupName) {
+        Cache<String, Set<Map<String,String[]>>> parentGroups = parentGroupCache;
+        if (parentGroups == null) {
+            return searchForGroups(groupDn, groupName);
+        }
+        String cacheKey = groupDn + "\n" + groupName;
+        Set<Map<String,String[]>> cached = parentGroups.getIfPresent(cacheKey);
+        if (cached == null) {
+            cached = Collections.unmodifiableSet(searchForGroups(groupDn, groupName));
+            parentGroups.put(cacheKey, cached);
+        }
+        return cached;
+    }
+
     protected void logRoles(Set<Map<String, String[]>> userRoles) {
         int counter = 0;
         StringBuffer logDebug = new StringBuffer();
@@ -196,6 +242,41 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
         this.maxSearchDepth = maxSearchDepth;
     }
 
+    public int getCacheExpirySeconds() {
+        return cacheExpirySeconds;
+    }
+
+    public void setCacheExpirySeconds(int cacheExpirySeconds) {
+        this.cacheExpirySeconds = cacheExpirySeconds;
+        buildCaches();
+    }
 
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
 
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        buildCaches();
+    }
+
+    public void clearCache() {
+        buildCaches();
+    }
+
+    private void buildCaches() {
+        if (cacheExpirySeconds <= 0) {
+            userGroupCache = null;
+            parentGroupCache = null;
+            return;
+        }
+        userGroupCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(cacheExpirySeconds, TimeUnit.SECONDS)
+            .maximumSize(cacheMaxEntries)
+            .build();
+        parentGroupCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(cacheExpirySeconds, TimeUnit.SECONDS)
+            .maximumSize(cacheMaxEntries)
+            .build();
+    }
 }
@@ -21,6 +21,7 @@ import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.manager.ExternalGroupAuthorizationEvent;
 import org.cloudfoundry.identity.uaa.authentication.manager.ExternalLoginAuthenticationManager;
 import org.cloudfoundry.identity.uaa.authentication.manager.InvitedUserAuthenticatedEvent;
+import org.cloudfoundry.identity.uaa.cache.UrlContentCache;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoService;
 import org.cloudfoundry.identity.uaa.oauth.TokenEndpointBuilder;
@@ -72,6 +73,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -113,6 +115,7 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
 
     private TokenEndpointBuilder tokenEndpointBuilder;
     private KeyInfoService keyInfoService;
+    private UrlContentCache contentCache;
 
     //origin is per thread during execution
     private final ThreadLocal<String> origin = ThreadLocal.withInitial(() -> "unknown");
@@ -525,7 +528,7 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
             List<SignatureVerifier> signatureVerifiers = getTokenKeyForUaaOrigin();
             validation = buildIdTokenValidator(idToken, new ChainedSignatureVerifier(signatureVerifiers), keyInfoService);
         } else {
-            JsonWebKeySet<JsonWebKey> tokenKeyFromOAuth = getTokenKeyFromOAuth(config);
+            JsonWebKeySet<JsonWebKey> tokenKeyFromOAuth = getTokenKeyFromOAuth(config, idToken);
             validation = buildIdTokenValidator(idToken, new ChainedSignatureVerifier(tokenKeyFromOAuth), keyInfoService)
                 .checkIssuer((isEmpty(config.getIssuer()) ? config.getTokenUrl().toString() : config.getIssuer()))
                 .checkAudience(config.getRelyingPartyId());
@@ -545,7 +548,7 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         return key.startsWith("-----BEGIN");
     }
 
-    private JsonWebKeySet<JsonWebKey> getTokenKeyFromOAuth(AbstractXOAuthIdentityProviderDefinition config) {
+    private JsonWebKeySet<JsonWebKey> getTokenKeyFromOAuth(AbstractXOAuthIdentityProviderDefinition config, String idToken) {
 
         String tokenKey = config.getTokenKey();
         if (StringUtils.hasText(tokenKey)) {
@@ -564,6 +567,9 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         headers.add("Authorization", getClientAuthHeader(config));
         headers.add("Accept", "application/json");
         HttpEntity tokenKeyRequest = new HttpEntity<>(null, headers);
+        if (contentCache != null) {
+            return getCachedTokenKeys(config, tokenKeyUrl.toString(), tokenKeyRequest, getKeyId(idToken));
+        }
         logger.debug("Fetching token keys from:"+tokenKeyUrl);
         ResponseEntity<String> responseEntity = getRestTemplate(config).exchange(tokenKeyUrl.toString(), HttpMethod.GET, tokenKeyRequest, String.class);
         logger.debug("Token key response:"+responseEntity.getStatusCode());
@@ -574,6 +580,29 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         }
     }
 
+    private JsonWebKeySet<JsonWebKey> getCachedTokenKeys(AbstractXOAuthIdentityProviderDefinition config, String tokenKeyUrl, HttpEntity tokenKeyRequest, String keyId) {
+        JsonWebKeySet<JsonWebKey> keys = JsonWebKeyHelper.deserialize(
+            new String(contentCache.getUrlContent(tokenKeyUrl, getRestTemplate(config), HttpMethod.GET, tokenKeyRequest), StandardCharsets.UTF_8)
+        );
+        //the provider may have rotated its keys, the cache limits how often they are fetched again
+        if (hasText(keyId) && keys.getKeys().stream().noneMatch(key -> keyId.equals(key.getKid())) && contentCache.invalidate(tokenKeyUrl, HttpMethod.GET, tokenKeyRequest)) {
+            logger.debug("Token key " + keyId + " not found, fetching token keys from:" + tokenKeyUrl);
+            keys = JsonWebKeyHelper.deserialize(
+                new String(contentCache.getUrlContent(tokenKeyUrl, getRestTemplate(config), HttpMethod.GET, tokenKeyRequest), StandardCharsets.UTF_8)
+            );
+        }
+        return keys;
+    }
+
+    private static String getKeyId(String idToken) {
+        try {
+            return JwtHelper.decode(idToken).getHeader().getKid();
+        } catch (RuntimeException e) {
+            //malformed tokens are rejected during validation
+            return null;
+        }
+    }
+
     private String getTokenFromCode(XOAuthCodeToken codeToken, AbstractXOAuthIdentityProviderDefinition config) {
         if (StringUtils.hasText(codeToken.getIdToken()) && "id_token".equals(getResponseType(config))) {
             logger.debug("XOauthCodeToken contains id_token, not exchanging code.");
@@ -643,6 +672,10 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         return keyInfoService;
     }
 
+    public void setContentCache(UrlContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
     protected static class AuthenticationData {
 
         private Map<String, Object> claims;
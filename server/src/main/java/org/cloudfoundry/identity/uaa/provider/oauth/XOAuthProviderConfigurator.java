@@ -49,11 +49,16 @@ public class XOAuthProviderConfigurator implements IdentityProviderProvisioning
         this.oidcMetadataFetcher = oidcMetadataFetcher;
     }
 
+    /**
+     * Completes a clone of the definition with the discovered endpoints, definitions of cached
+     * providers are shared and must not be modified.
+     */
     protected OIDCIdentityProviderDefinition overlay(OIDCIdentityProviderDefinition definition) {
         try {
-            oidcMetadataFetcher.fetchMetadataAndUpdateDefinition(definition);
-            return definition;
-        } catch (OidcMetadataFetchingException e) {
+            OIDCIdentityProviderDefinition overlaid = (OIDCIdentityProviderDefinition) definition.clone();
+            oidcMetadataFetcher.fetchMetadataAndUpdateDefinition(overlaid);
+            return overlaid;
+        } catch (OidcMetadataFetchingException | CloneNotSupportedException e) {
             throw new IllegalStateException(e);
         }
     }
@@ -15,9 +15,21 @@
 
 package org.cloudfoundry.identity.uaa.provider.saml;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.joda.time.DateTime;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.common.Extensions;
@@ -55,6 +67,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.key.KeyManager;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
@@ -76,10 +89,17 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
-public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean {
+public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean, ApplicationListener<AbstractUaaEvent> {
 
     // Class logger
     protected final Logger log = LoggerFactory.getLogger(NonSnarlMetadataManager.class);
@@ -92,16 +112,85 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     private final SamlIdentityProviderConfigurator configurator;
     private ZoneAwareMetadataGenerator generator;
 
+    // Initialized IDP metadata, per zone and definition. Parsing metadata and running the
+    // signature filters is expensive, so it is only redone when the definition changes or in
+    // the background once the refresh interval has passed, which picks up changes of the zone,
+    // like its SAML keys, made on other servers and new metadata of URL based providers.
+    private static final int PROVIDER_CACHE_MAX_ENTRIES = 10000;
+    private static final long PROVIDER_CACHE_EXPIRATION_SECONDS = 3600;
+    private final ExecutorService providerRefreshExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("saml-metadata-refresh-%d").setDaemon(true).build()
+    );
+    private volatile LoadingCache<ProviderKey, ExtendedMetadataDelegate> providerCache;
+    private long providerRefreshIntervalSeconds = 300;
+    // the latest version of each zone seen by a request, used by background refreshes
+    private final Map<String, IdentityZone> latestZones = new ConcurrentHashMap<>();
+
     public NonSnarlMetadataManager(SamlIdentityProviderConfigurator configurator) throws MetadataProviderException {
         super(Collections.EMPTY_LIST);
         this.configurator = configurator;
         this.defaultExtendedMetadata = new ExtendedMetadata();
         super.setRefreshCheckInterval(0);
+        buildProviderCache();
     }
 
     @Override
     public void destroy() {
+        providerRefreshExecutor.shutdownNow();
+    }
 
+    public long getProviderRefreshIntervalSeconds() {
+        return providerRefreshIntervalSeconds;
+    }
+
+    /**
+     * @param providerRefreshIntervalSeconds how long IDP metadata is served before it is refreshed in the background
+     */
+    public void setProviderRefreshIntervalSeconds(long providerRefreshIntervalSeconds) {
+        this.providerRefreshIntervalSeconds = providerRefreshIntervalSeconds;
+        buildProviderCache();
+    }
+
+    protected void buildProviderCache() {
+        providerCache = CacheBuilder.newBuilder()
+            .maximumSize(PROVIDER_CACHE_MAX_ENTRIES)
+            .expireAfterAccess(PROVIDER_CACHE_EXPIRATION_SECONDS, TimeUnit.SECONDS)
+            .refreshAfterWrite(Math.max(1, providerRefreshIntervalSeconds), TimeUnit.SECONDS)
+            .build(new CacheLoader<ProviderKey, ExtendedMetadataDelegate>() {
+                @Override
+                public ExtendedMetadataDelegate load(ProviderKey key) throws Exception {
+                    return initializeIdentityProvider(key);
+                }
+
+                @Override
+                public ListenableFuture<ExtendedMetadataDelegate> reload(ProviderKey key, ExtendedMetadataDelegate oldValue) {
+                    ListenableFutureTask<ExtendedMetadataDelegate> task = ListenableFutureTask.create(() -> initializeIdentityProvider(key));
+                    providerRefreshExecutor.execute(task);
+                    return task;
+                }
+            });
+    }
+
+    public void clearProviderCache() {
+        providerCache.invalidateAll();
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        IdentityZone zone = null;
+        if (event instanceof IdentityZoneModifiedEvent) {
+            zone = (IdentityZone) event.getSource();
+        } else if (event instanceof EntityDeletedEvent && ((EntityDeletedEvent) event).getDeleted() instanceof IdentityZone) {
+            zone = (IdentityZone) ((EntityDeletedEvent) event).getDeleted();
+        }
+        if (zone != null) {
+            //the signature trust engine depends on the zone's SAML keys
+            String zoneId = zone.getId();
+            providerCache.asMap().keySet().removeIf(key -> key.zoneId.equals(zoneId));
+            if (event instanceof EntityDeletedEvent) {
+                latestZones.remove(zoneId);
+            }
+        }
     }
 
     @Override
@@ -148,20 +237,46 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
             throw new IllegalStateException(e);
         }
         for (SamlIdentityProviderDefinition definition : configurator.getIdentityProviderDefinitions()) {
-            log.info("Adding SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]");
+            log.debug("Adding SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]");
             try {
-                ExtendedMetadataDelegate delegate = configurator.getExtendedMetadataDelegate(definition);
-                initializeProvider(delegate);
-                initializeProviderData(delegate);
-                initializeProviderFilters(delegate);
-                result.add(delegate);
-            } catch (RestClientException | MetadataProviderException e) {
-                log.error("Invalid SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]", e);
+                latestZones.put(zone.getId(), zone);
+                result.add(providerCache.get(new ProviderKey(zone, definition)));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RestClientException || cause instanceof MetadataProviderException) {
+                    log.error("Invalid SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]", cause);
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
             }
         }
         return result;
     }
 
+    protected ExtendedMetadataDelegate initializeIdentityProvider(ProviderKey key) throws MetadataProviderException {
+        IdentityZone current = IdentityZoneHolder.get();
+        IdentityZone zone = latestZones.getOrDefault(key.zoneId, key.zone);
+        boolean switchZone = zone != current;
+        if (switchZone) {
+            //background refreshes do not run on a request thread
+            IdentityZoneHolder.set(zone);
+        }
+        try {
+            log.info("Initializing SAML IDP zone[" + key.zoneId + "] alias[" + key.definition.getIdpEntityAlias() + "]");
+            ExtendedMetadataDelegate delegate = configurator.getExtendedMetadataDelegate(key.definition);
+            initializeProvider(delegate);
+            initializeProviderData(delegate);
+            initializeProviderFilters(delegate);
+            return delegate;
+        } finally {
+            if (switchZone) {
+                IdentityZoneHolder.set(current);
+            }
+        }
+    }
+
     @Override
     protected void initializeProvider(ExtendedMetadataDelegate provider) throws MetadataProviderException {
         // Initialize provider and perform signature verification
@@ -939,4 +1054,39 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
         }
 
     }
-}
\ No newline at end of file
+
+    protected static final class ProviderKey {
+        private final String zoneId;
+        private final String alias;
+        private final String fingerprint;
+        private final IdentityZone zone;
+        private final SamlIdentityProviderDefinition definition;
+
+        ProviderKey(IdentityZone zone, SamlIdentityProviderDefinition definition) {
+            this.zoneId = zone.getId();
+            this.alias = definition.getIdpEntityAlias();
+            this.fingerprint = DigestUtils.sha256Hex(JsonUtils.writeValueAsString(definition));
+            this.zone = zone;
+            this.definition = definition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ProviderKey that = (ProviderKey) o;
+            return zoneId.equals(that.zoneId) &&
+                Objects.equals(alias, that.alias) &&
+                fingerprint.equals(that.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, alias, fingerprint);
+        }
+    }
+}
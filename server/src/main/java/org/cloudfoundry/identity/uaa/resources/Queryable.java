@@ -20,4 +20,13 @@ public interface Queryable<T> {
 
     List<T> query(String filter, String sortBy, boolean ascending, String zoneId);
 
+    /**
+     * Same as {@link #query(String, String, boolean, String)} for a search that reads the page of
+     * {@code count} results from the 1 based {@code startIndex}. The returned list is indexed like the
+     * complete result, its size is determined as requested by {@code totalResults}.
+     */
+    default List<T> query(String filter, String sortBy, boolean ascending, String zoneId, int startIndex, int count, TotalResults totalResults) {
+        return query(filter, sortBy, ascending, zoneId);
+    }
+
 }
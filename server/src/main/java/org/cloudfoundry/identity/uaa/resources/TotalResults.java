@@ -0,0 +1,51 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.resources;
+
+/**
+ * How the total number of results of a search is determined.
+ */
+public enum TotalResults {
+
+    /**
+     * Every match is counted, with a {@code count(*)} query before the rows are read.
+     */
+    EXACT,
+
+    /**
+     * The requested page is read with one extra row. When there are more rows the total is the
+     * database's own estimate of the number of matches, and never less than the rows already seen.
+     * When the page is past the last row the total is the estimate, and never more than the start
+     * of the page.
+     */
+    ESTIMATED,
+
+    /**
+     * The requested page is read with one extra row. The total only tells whether there are more
+     * rows: it is one more than the last row of the page when there are. When the page is past the
+     * last row no rows were seen, and the total is 0.
+     */
+    NONE;
+
+    public static TotalResults fromValue(String value) {
+        for (TotalResults totalResults : values()) {
+            if (totalResults.name().equalsIgnoreCase(value)) {
+                return totalResults;
+            }
+        }
+        throw new IllegalArgumentException("Invalid totalResults value:" + value);
+    }
+}
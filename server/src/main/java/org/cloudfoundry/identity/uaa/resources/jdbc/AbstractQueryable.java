@@ -15,6 +15,7 @@ package org.cloudfoundry.identity.uaa.resources.jdbc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.resources.Queryable;
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -51,6 +52,18 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
         this.queryConverter = queryConverter;
     }
 
+    protected SearchQueryConverter getQueryConverter() {
+        return queryConverter;
+    }
+
+    protected NamedParameterJdbcTemplate getNamedParameterJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    protected JdbcPagingListFactory getPagingListFactory() {
+        return pagingListFactory;
+    }
+
     /**
      * The maximum number of items fetched from the database in one hit. If less
      * than or equal to zero, then there is no
@@ -73,6 +86,11 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
 
     @Override
     public List<T> query(String filter, String sortBy, boolean ascending, String zoneId) {
+        return query(filter, sortBy, ascending, zoneId, 1, pageSize, TotalResults.EXACT);
+    }
+
+    @Override
+    public List<T> query(String filter, String sortBy, boolean ascending, String zoneId, int startIndex, int count, TotalResults totalResults) {
         validateOrderBy(queryConverter.map(sortBy));
         if (StringUtils.hasText(filter)) {
             filter = "("+ filter+ ") and";
@@ -85,7 +103,10 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
         try {
             String completeSql = getQuerySQL(filter, where);
             logger.debug("complete sql: " + completeSql + ", params: " + where.getParams());
-            if (pageSize > 0 && pageSize < Integer.MAX_VALUE) {
+            if (pageSize > 0 && pageSize < Integer.MAX_VALUE && totalResults != TotalResults.EXACT) {
+                result = pagingListFactory.createJdbcPagingList(completeSql, where.getParams(), rowMapper, pageSize, startIndex - 1, count, totalResults);
+            }
+            else if (pageSize > 0 && pageSize < Integer.MAX_VALUE) {
                 result = pagingListFactory.createJdbcPagingList(completeSql, where.getParams(), rowMapper, pageSize);
             }
             else {
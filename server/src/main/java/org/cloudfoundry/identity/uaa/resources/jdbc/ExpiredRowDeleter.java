@@ -0,0 +1,38 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+/**
+ * A store whose table accumulates expired rows that are removed by an {@link ExpiredRowReaper}.
+ */
+public interface ExpiredRowDeleter {
+
+    /**
+     * @return the table expired rows are deleted from, used to report metrics
+     */
+    String getExpiredRowsTable();
+
+    /**
+     * Deletes at most about {@code maxRows} expired rows.
+     * @return the number of rows deleted, fewer than {@code maxRows} once no expired rows are left
+     */
+    int deleteExpiredRows(int maxRows);
+
+    /**
+     * @param inline false when expired rows are deleted by a reaper, rather than by the requests using the store
+     */
+    void setDeleteExpiredRowsInline(boolean inline);
+}
@@ -0,0 +1,219 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired rows of several stores from a single background thread, instead of
+ * letting the requests that use the stores run the deletes.
+ * <p>
+ * Rows are deleted in chunks of {@code maxRows}, and each table is given at most
+ * {@code maxTimePerTable} per run. A lease in {@code expired_row_reaper_lease} ensures that
+ * only one node of a cluster reaps per interval.
+ */
+@ManagedResource
+(
+    objectName="cloudfoundry.identity:name=ExpiredRowReaper",
+    description = "UAA Expired Row Reaper Metrics"
+)
+public class ExpiredRowReaper implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredRowReaper.class);
+
+    private static final String LEASE_NAME = "expired-rows";
+    private static final String RENEW_LEASE_QUERY = "UPDATE expired_row_reaper_lease SET lease_owner=?, expires_at=? WHERE lease_name=? AND (expires_at<? OR lease_owner=?)";
+    private static final String INSERT_LEASE_QUERY = "INSERT INTO expired_row_reaper_lease (lease_name, lease_owner, expires_at) VALUES (?,?,?)";
+
+    private final JdbcTemplate template;
+    private final TimeService timeService;
+    private final List<ExpiredRowDeleter> deleters;
+    private final String owner = UUID.randomUUID().toString();
+
+    private boolean enabled = true;
+    private Duration interval = Duration.ofSeconds(30);
+    private int maxRows = 500;
+    private Duration maxTimePerTable = Duration.ofMillis(2500);
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong rowsDeleted = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastRunMillis;
+    private final Map<String, AtomicLong> rowsDeletedByTable = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastRunMillisByTable = new ConcurrentHashMap<>();
+
+    public ExpiredRowReaper(JdbcTemplate template, TimeService timeService, List<ExpiredRowDeleter> deleters) {
+        this.template = template;
+        this.timeService = timeService;
+        this.deleters = deleters;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        for (ExpiredRowDeleter deleter : deleters) {
+            deleter.setDeleteExpiredRowsInline(false);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expired-row-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::run, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void run() {
+        try {
+            if (acquireLease()) {
+                reap();
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            logger.warn("Unable to delete expired rows.", e);
+        }
+    }
+
+    /**
+     * Deletes expired rows of all stores, regardless of the lease.
+     */
+    public void reap() {
+        long start = timeService.getCurrentTimeMillis();
+        for (ExpiredRowDeleter deleter : deleters) {
+            reap(deleter);
+        }
+        lastRunMillis = timeService.getCurrentTimeMillis() - start;
+        runs.incrementAndGet();
+    }
+
+    private void reap(ExpiredRowDeleter deleter) {
+        String table = deleter.getExpiredRowsTable();
+        long start = timeService.getCurrentTimeMillis();
+        long deleted = 0;
+        try {
+            int removed;
+            do {
+                removed = deleter.deleteExpiredRows(maxRows);
+                deleted += removed;
+            } while (removed >= maxRows && (timeService.getCurrentTimeMillis() - start) < maxTimePerTable.toMillis());
+        } catch (DataAccessException e) {
+            failures.incrementAndGet();
+            logger.warn("Unable to delete expired rows from " + table + ".", e);
+        }
+        long duration = timeService.getCurrentTimeMillis() - start;
+        rowsDeleted.addAndGet(deleted);
+        rowsDeletedByTable.computeIfAbsent(table, t -> new AtomicLong()).addAndGet(deleted);
+        lastRunMillisByTable.put(table, duration);
+        logger.debug("Removed " + deleted + " expired rows from " + table + " in " + duration + "ms.");
+    }
+
+    /**
+     * Takes or renews the lease if it is free, expired or already held by this node.
+     */
+    protected boolean acquireLease() {
+        long now = timeService.getCurrentTimeMillis();
+        long expiresAt = now + interval.toMillis();
+        if (template.update(RENEW_LEASE_QUERY, owner, expiresAt, LEASE_NAME, now, owner) == 1) {
+            return true;
+        }
+        try {
+            return template.update(INSERT_LEASE_QUERY, LEASE_NAME, owner, expiresAt) == 1;
+        } catch (DuplicateKeyException e) {
+            //another node holds the lease
+            return false;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public void setMaxTimePerTable(Duration maxTimePerTable) {
+        this.maxTimePerTable = maxTimePerTable;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Reaper Runs")
+    public long getRuns() {
+        return runs.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Rows Deleted")
+    public long getRowsDeleted() {
+        return rowsDeleted.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Reaper Failures")
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Last Run Duration")
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    @ManagedAttribute(description = "Expired rows deleted per table")
+    public Map<String, Long> getRowsDeletedByTable() {
+        Map<String, Long> result = new HashMap<>();
+        rowsDeletedByTable.forEach((table, count) -> result.put(table, count.get()));
+        return result;
+    }
+
+    @ManagedAttribute(description = "Duration of the last run per table in milliseconds")
+    public Map<String, Long> getLastRunMillisByTable() {
+        return new HashMap<>(lastRunMillisByTable);
+    }
+}
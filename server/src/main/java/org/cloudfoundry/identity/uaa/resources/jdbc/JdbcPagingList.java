@@ -20,6 +20,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -39,6 +42,8 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
  */
 public class JdbcPagingList<E> extends AbstractList<E> {
 
+    private static final Logger logger = LoggerFactory.getLogger(JdbcPagingList.class);
+
     private final int size;
 
     private int start = 0;
@@ -69,13 +74,44 @@ public class JdbcPagingList<E> extends AbstractList<E> {
 
     public JdbcPagingList(NamedParameterJdbcTemplate jdbcTemplate, LimitSqlAdapter limitSqlAdapter, String sql,
                     Map<String, ?> args, RowMapper<E> mapper, int pageSize) {
+        this(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize, 0, pageSize, TotalResults.EXACT);
+    }
+
+    /**
+     * A list that reads the {@code count} rows from {@code firstIndex} right away, unless the size is
+     * {@link TotalResults#EXACT exact}. These rows are read together with the row after them, which
+     * tells whether there are more rows without counting them.
+     *
+     * @param firstIndex the 0 based index of the first row that will be read
+     * @param count the number of rows that will be read from {@code firstIndex}
+     * @param totalResults how the size of the list is determined
+     */
+    public JdbcPagingList(NamedParameterJdbcTemplate jdbcTemplate, LimitSqlAdapter limitSqlAdapter, String sql,
+                    Map<String, ?> args, RowMapper<E> mapper, int pageSize, int firstIndex, int count,
+                    TotalResults totalResults) {
         this.parameterJdbcTemplate = jdbcTemplate;
         this.sql = sql;
         this.args = args;
         this.mapper = mapper;
-        this.size = parameterJdbcTemplate.queryForObject(getCountSql(sql), args, Integer.class);
         this.pageSize = pageSize;
         this.limitSqlAdapter = limitSqlAdapter;
+        if (totalResults == TotalResults.EXACT) {
+            this.size = parameterJdbcTemplate.queryForObject(getCountSql(sql), args, Integer.class);
+        } else {
+            start = Math.max(0, firstIndex);
+            int lookahead = (int) Math.min(Math.max(0, count) + 1L, Integer.MAX_VALUE);
+            current = parameterJdbcTemplate.query(limitSqlAdapter.getLimitSql(sql, start, lookahead), args, mapper);
+            int seen = start + current.size();
+            if (current.isEmpty()) {
+                //the page is past the last row, only an estimate no larger than the start can tell the size
+                long estimate = totalResults == TotalResults.ESTIMATED ? getEstimatedSize(sql) : -1;
+                this.size = (int) Math.max(0, Math.min(estimate, start));
+            } else if (current.size() < lookahead || totalResults == TotalResults.NONE) {
+                this.size = seen;
+            } else {
+                this.size = (int) Math.min(Math.max(seen, getEstimatedSize(sql)), Integer.MAX_VALUE);
+            }
+        }
     }
 
     @Override
@@ -83,7 +119,7 @@ public class JdbcPagingList<E> extends AbstractList<E> {
         if (index >= size) {
             throw new ArrayIndexOutOfBoundsException(index);
         }
-        if (current == null || index - start >= pageSize || index < start) {
+        if (current == null || index - start >= current.size() || index < start) {
             current = parameterJdbcTemplate.query(limitSqlAdapter.getLimitSql(sql, index, pageSize), args, mapper);
             start = index;
         }
@@ -113,6 +149,15 @@ public class JdbcPagingList<E> extends AbstractList<E> {
         return result;
     }
 
+    private long getEstimatedSize(String sql) {
+        try {
+            return limitSqlAdapter.getEstimatedRowCount(parameterJdbcTemplate, sql, args);
+        } catch (RuntimeException e) {
+            logger.debug("Unable to estimate the number of rows of: " + sql, e);
+            return -1;
+        }
+    }
+
     @Override
     public int size() {
         return this.size;
@@ -15,6 +15,7 @@ package org.cloudfoundry.identity.uaa.resources.jdbc;
 import java.util.List;
 import java.util.Map;
 
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -38,4 +39,12 @@ public class JdbcPagingListFactory {
     public <T> List<T> createJdbcPagingList(String sql, Map<String, ?> args, RowMapper<T> mapper, int pageSize) {
         return new JdbcPagingList<T>(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize);
     }
+
+    public <T> List<T> createJdbcPagingList(String sql, Map<String, ?> args, RowMapper<T> mapper, int pageSize, int firstIndex, int count, TotalResults totalResults) {
+        return new JdbcPagingList<T>(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize, firstIndex, count, totalResults);
+    }
+
+    public LimitSqlAdapter getLimitSqlAdapter() {
+        return limitSqlAdapter;
+    }
 }
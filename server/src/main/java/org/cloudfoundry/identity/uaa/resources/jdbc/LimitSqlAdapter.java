@@ -12,6 +12,10 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.Map;
+
 public interface LimitSqlAdapter {
 
     default String getLimitSql(String sql, int index, int size) {
@@ -19,4 +23,26 @@ public interface LimitSqlAdapter {
     }
 
     String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows);
+
+    /**
+     * @return true if the database can evaluate recursive common table expressions ({@code with recursive})
+     */
+    default boolean supportsRecursiveQueries() {
+        return false;
+    }
+
+    /**
+     * @return true if the database can return the deleted rows of a {@code delete} statement ({@code delete ... returning})
+     */
+    default boolean supportsDeleteReturning() {
+        return false;
+    }
+
+    /**
+     * @return the number of rows the database expects {@code sql} to return, from its query plan, or -1 if the
+     * database does not estimate rows
+     */
+    default long getEstimatedRowCount(NamedParameterJdbcTemplate jdbcTemplate, String sql, Map<String, ?> args) {
+        return -1;
+    }
 }
@@ -15,6 +15,10 @@
 
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.Map;
+
 public class MySqlLimitSqlAdapter implements LimitSqlAdapter {
     public String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows) {
         return "delete from " +
@@ -25,4 +29,18 @@ public class MySqlLimitSqlAdapter implements LimitSqlAdapter {
             expiresColumn +
             " limit " + maxRows;
     }
+
+    @Override
+    public boolean supportsRecursiveQueries() {
+        return true;
+    }
+
+    @Override
+    public long getEstimatedRowCount(NamedParameterJdbcTemplate jdbcTemplate, String sql, Map<String, ?> args) {
+        //the first table of the plan is the searched table, filtered is the percentage of its rows that match
+        Map<String, Object> plan = jdbcTemplate.queryForList("explain " + sql, args).get(0);
+        long rows = ((Number) plan.get("rows")).longValue();
+        Object filtered = plan.get("filtered");
+        return filtered instanceof Number ? (long) (rows * ((Number) filtered).doubleValue() / 100) : rows;
+    }
 }
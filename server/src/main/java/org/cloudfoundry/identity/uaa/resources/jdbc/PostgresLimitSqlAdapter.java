@@ -15,6 +15,13 @@
 
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
 public class PostgresLimitSqlAdapter implements LimitSqlAdapter {
     @Override
     public String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows) {
@@ -33,4 +40,21 @@ public class PostgresLimitSqlAdapter implements LimitSqlAdapter {
             expiresColumn +
             " LIMIT "+maxRows+"))";
     }
+
+    @Override
+    public boolean supportsRecursiveQueries() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDeleteReturning() {
+        return true;
+    }
+
+    @Override
+    public long getEstimatedRowCount(NamedParameterJdbcTemplate jdbcTemplate, String sql, Map<String, ?> args) {
+        String plan = jdbcTemplate.queryForObject("explain (format json) " + sql, args, String.class);
+        List<Map<String, Map<String, Object>>> plans = JsonUtils.readValue(plan, new TypeReference<List<Map<String, Map<String, Object>>>>() {});
+        return ((Number) plans.get(0).get("Plan").get("Plan Rows")).longValue();
+    }
 }
@@ -1,5 +1,7 @@
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.unboundid.scim.sdk.InvalidResourceException;
 import com.unboundid.scim.sdk.SCIMException;
 import com.unboundid.scim.sdk.SCIMFilter;
@@ -79,11 +81,27 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
             )
     );
 
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    private static final RandomValueStringGenerator PREFIX_GENERATOR = new RandomValueStringGenerator();
+
+    private static final ThreadLocal<DateFormat> TIMESTAMP_FORMAT =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"));
+
     private static Logger logger = LoggerFactory.getLogger(SimpleSearchQueryConverter.class);
     private AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.emptyMap());
 
     private boolean dbCaseInsensitive = false;
 
+    /**
+     * Converted filters keyed by the filter text without its quoted values, the sort attribute and
+     * the sort order. The same filter shape with other values is bound without parsing it again.
+     */
+    private final Cache<List<Object>, FilterTemplate> templates = CacheBuilder
+            .newBuilder()
+            .maximumSize(MAX_CACHED_FILTERS)
+            .build();
+
     public SimpleSearchQueryConverter() {
     }
 
@@ -93,10 +111,12 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
     public void setDbCaseInsensitive(boolean caseInsensitive) {
         this.dbCaseInsensitive = caseInsensitive;
+        templates.invalidateAll();
     }
 
     public void setAttributeNameMapper(AttributeNameMapper mapper) {
         this.mapper = mapper;
+        templates.invalidateAll();
     }
 
     @Override
@@ -106,9 +126,26 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
     @Override
     public ProcessedFilter convert(String filter, String sortBy, boolean ascending, AttributeNameMapper mapper) {
-        String paramPrefix = generateParameterPrefix(filter);
+        FilterShape shape = mapper == this.mapper && StringUtils.hasText(filter) ? FilterShape.of(filter) : null;
+        if (shape == null) {
+            return convert(filter, sortBy, ascending, mapper, generateParameterPrefix(filter), null);
+        }
+        List<Object> key = Arrays.asList(shape.text, sortBy, ascending);
+        FilterTemplate template = templates.getIfPresent(key);
+        if (template != null) {
+            return template.bind(shape.literals, StringUtils.hasText(sortBy));
+        }
+        template = new FilterTemplate(generateParameterPrefix(shape.text));
+        ProcessedFilter pf = convert(filter, sortBy, ascending, mapper, template.paramPrefix, template);
+        if (template.matches(pf, shape.literals)) {
+            templates.put(key, template);
+        }
+        return pf;
+    }
+
+    private ProcessedFilter convert(String filter, String sortBy, boolean ascending, AttributeNameMapper mapper, String paramPrefix, FilterTemplate template) {
         Map<String, Object> values = new HashMap<>();
-        String where = StringUtils.hasText(filter) ? getWhereClause(filter, sortBy, ascending, values, mapper, paramPrefix) : null;
+        String where = StringUtils.hasText(filter) ? getWhereClause(filter, sortBy, ascending, values, mapper, paramPrefix, template) : null;
         ProcessedFilter pf = new ProcessedFilter(where, values, StringUtils.hasText(sortBy));
         pf.setParamPrefix(paramPrefix);
         return pf;
@@ -116,18 +153,18 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
     private String generateParameterPrefix(String filter) {
         while (true) {
-            String s = new RandomValueStringGenerator().generate().toLowerCase();
+            String s = PREFIX_GENERATOR.generate().toLowerCase();
             if (!filter.contains(s)) {
                 return "__" + s + "_";
             }
         }
     }
 
-    private String getWhereClause(String filter, String sortBy, boolean ascending, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix) {
+    private String getWhereClause(String filter, String sortBy, boolean ascending, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix, FilterTemplate template) {
 
         try {
             SCIMFilter scimFilter = scimFilter(filter);
-            String whereClause = createFilter(scimFilter, values, mapper, paramPrefix);
+            String whereClause = createFilter(scimFilter, values, mapper, paramPrefix, template);
             if (sortBy != null) {
                 sortBy = mapper.mapToInternal(sortBy);
                 // Need to add "asc" or "desc" explicitly to ensure that the pattern
@@ -222,28 +259,28 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         }
     }
 
-    private String createFilter(SCIMFilter filter, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix) {
+    private String createFilter(SCIMFilter filter, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix, FilterTemplate template) {
         switch (filter.getFilterType()) {
             case AND:
-                return "(" + createFilter(filter.getFilterComponents().get(0), values, mapper, paramPrefix) + " AND " + createFilter(filter.getFilterComponents().get(1), values, mapper, paramPrefix) + ")";
+                return "(" + createFilter(filter.getFilterComponents().get(0), values, mapper, paramPrefix, template) + " AND " + createFilter(filter.getFilterComponents().get(1), values, mapper, paramPrefix, template) + ")";
             case OR:
-                return "(" + createFilter(filter.getFilterComponents().get(0), values, mapper, paramPrefix) + " OR " + createFilter(filter.getFilterComponents().get(1), values, mapper, paramPrefix) + ")";
+                return "(" + createFilter(filter.getFilterComponents().get(0), values, mapper, paramPrefix, template) + " OR " + createFilter(filter.getFilterComponents().get(1), values, mapper, paramPrefix, template) + ")";
             case EQUALITY:
-                return comparisonClause(filter, "=", values, "", "", paramPrefix);
+                return comparisonClause(filter, "=", values, "", "", paramPrefix, template);
             case CONTAINS:
-                return comparisonClause(filter, "LIKE", values, "%", "%", paramPrefix);
+                return comparisonClause(filter, "LIKE", values, "%", "%", paramPrefix, template);
             case STARTS_WITH:
-                return comparisonClause(filter, "LIKE", values, "", "%", paramPrefix);
+                return comparisonClause(filter, "LIKE", values, "", "%", paramPrefix, template);
             case PRESENCE:
                 return getAttributeName(filter, mapper) + " IS NOT NULL";
             case GREATER_THAN:
-                return comparisonClause(filter, ">", values, "", "", paramPrefix);
+                return comparisonClause(filter, ">", values, "", "", paramPrefix, template);
             case GREATER_OR_EQUAL:
-                return comparisonClause(filter, ">=", values, "", "", paramPrefix);
+                return comparisonClause(filter, ">=", values, "", "", paramPrefix, template);
             case LESS_THAN:
-                return comparisonClause(filter, "<", values, "", "", paramPrefix);
+                return comparisonClause(filter, "<", values, "", "", paramPrefix, template);
             case LESS_OR_EQUAL:
-                return comparisonClause(filter, "<=", values, "", "", paramPrefix);
+                return comparisonClause(filter, "<=", values, "", "", paramPrefix, template);
         }
         return null;
     }
@@ -253,13 +290,17 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
                                     Map<String, Object> values,
                                     String valuePrefix,
                                     String valueSuffix,
-                                    String paramPrefix) {
+                                    String paramPrefix,
+                                    FilterTemplate template) {
         String pName = getParamName(values, paramPrefix);
         String paramName = ":" + pName;
         if (filter.getFilterValue() == null) {
             return getAttributeName(filter, mapper) + " IS NULL";
         } else if (filter.isQuoteFilterValue()) {
             Object value = getStringOrDate(filter.getFilterValue());
+            if (template != null) {
+                template.literal(pName, value, valuePrefix, valueSuffix);
+            }
             if (value instanceof String) {
                 //lower is used to satisfy the requirement that all quoted values are compared case insensitive
                 switch (filter.getFilterAttribute().getAttributeName().toLowerCase()) {
@@ -267,6 +308,9 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
                     case "password":
                     case "salt":
                         value = "";
+                        if (template != null) {
+                            template.constant(pName, "");
+                        }
                     default:
                         break;
                 }
@@ -311,10 +355,9 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         return paramPrefix + values.size();
     }
 
-    private Object getStringOrDate(String s) {
+    private static Object getStringOrDate(String s) {
         try {
-            DateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            return TIMESTAMP_FORMAT.parse(s);
+            return TIMESTAMP_FORMAT.get().parse(s);
         } catch (ParseException x) {
             return s;
         }
@@ -324,4 +367,112 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
     public String map(String attribute) {
         return StringUtils.hasText(attribute) ? mapper.mapToInternal(attribute) : attribute;
     }
+
+    /**
+     * A filter split into its text with every double quoted value replaced by a marker, and the
+     * values themselves. Filters with escaped characters or single quotes are not split, they are
+     * always parsed.
+     */
+    private static final class FilterShape {
+        private final String text;
+        private final List<Object> literals;
+
+        private FilterShape(String text, List<Object> literals) {
+            this.text = text;
+            this.literals = literals;
+        }
+
+        static FilterShape of(String filter) {
+            if (filter.indexOf('\\') >= 0 || filter.indexOf('\'') >= 0) {
+                return null;
+            }
+            StringBuilder text = new StringBuilder(filter.length());
+            List<Object> literals = new ArrayList<>();
+            int start = 0;
+            int open;
+            while ((open = filter.indexOf('"', start)) >= 0) {
+                int close = filter.indexOf('"', open + 1);
+                if (close < 0) {
+                    return null;
+                }
+                Object literal = getStringOrDate(filter.substring(open + 1, close));
+                text.append(filter, start, open).append(literal instanceof Date ? "\"d\"" : "\"s\"");
+                literals.add(literal);
+                start = close + 1;
+            }
+            text.append(filter, start, filter.length());
+            return new FilterShape(text.toString(), literals);
+        }
+    }
+
+    /**
+     * The SQL of a converted filter, and where each of its parameters comes from: a quoted value of
+     * the filter, with the like wildcards around it, or a value that is part of the filter shape.
+     */
+    private static final class FilterTemplate {
+        private final String paramPrefix;
+        private final Map<String, Binding> bindings = new LinkedHashMap<>();
+        private String sql;
+        private int literals;
+
+        private FilterTemplate(String paramPrefix) {
+            this.paramPrefix = paramPrefix;
+        }
+
+        void literal(String paramName, Object value, String valuePrefix, String valueSuffix) {
+            bindings.put(paramName, new Binding(literals++, value, valuePrefix, valueSuffix));
+        }
+
+        void constant(String paramName, Object value) {
+            bindings.put(paramName, new Binding(-1, value, "", ""));
+        }
+
+        boolean matches(ProcessedFilter pf, List<Object> values) {
+            if (literals != values.size()) {
+                return false;
+            }
+            for (Map.Entry<String, Object> param : pf.getParams().entrySet()) {
+                Binding binding = bindings.get(param.getKey());
+                if (binding == null) {
+                    bindings.put(param.getKey(), new Binding(-1, param.getValue(), "", ""));
+                } else if (binding.literal >= 0 && !binding.value.equals(values.get(binding.literal))) {
+                    return false;
+                }
+            }
+            sql = pf.getSql();
+            return true;
+        }
+
+        ProcessedFilter bind(List<Object> values, boolean hasOrderBy) {
+            Map<String, Object> params = new HashMap<>();
+            for (Map.Entry<String, Binding> binding : bindings.entrySet()) {
+                params.put(binding.getKey(), binding.getValue().bind(values));
+            }
+            ProcessedFilter pf = new ProcessedFilter(sql, params, hasOrderBy);
+            pf.setParamPrefix(paramPrefix);
+            return pf;
+        }
+    }
+
+    private static final class Binding {
+        private final int literal;
+        private final Object value;
+        private final String valuePrefix;
+        private final String valueSuffix;
+
+        private Binding(int literal, Object value, String valuePrefix, String valueSuffix) {
+            this.literal = literal;
+            this.value = value;
+            this.valuePrefix = valuePrefix;
+            this.valueSuffix = valueSuffix;
+        }
+
+        Object bind(List<Object> values) {
+            if (literal < 0) {
+                return value;
+            }
+            Object literalValue = values.get(literal);
+            return literalValue instanceof String ? valuePrefix + literalValue + valueSuffix : literalValue;
+        }
+    }
 }
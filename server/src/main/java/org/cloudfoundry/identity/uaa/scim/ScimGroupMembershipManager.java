@@ -16,7 +16,10 @@ import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException
 import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface ScimGroupMembershipManager  {
@@ -58,6 +61,24 @@ public interface ScimGroupMembershipManager  {
      */
     Set<ScimGroup> getGroupsWithMember(String memberId, boolean transitive, String zoneId) throws ScimResourceNotFoundException;
 
+    /**
+     * Retrieve the groups of several members at once
+     *
+     * @param memberIds
+     * @param transitive true means indirect/transitive membership is also
+     *                   processed (nested groups)
+     * @param zoneId
+     * @return the groups of each member, keyed by member id
+     * @throws ScimResourceNotFoundException
+     */
+    default Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive, String zoneId) throws ScimResourceNotFoundException {
+        Map<String, Set<ScimGroup>> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            result.put(memberId, getGroupsWithMember(memberId, transitive, zoneId));
+        }
+        return result;
+    }
+
     /**
      * Retrieve a particular member's membership details
      *
@@ -18,11 +18,21 @@ import org.cloudfoundry.identity.uaa.scim.exception.InvalidPasswordException;
 import org.cloudfoundry.identity.uaa.scim.exception.InvalidScimResourceException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface ScimUserProvisioning extends ResourceManager<ScimUser>, Queryable<ScimUser> {
 
     ScimUser createUser(ScimUser user, String password, String zoneId) throws InvalidPasswordException, InvalidScimResourceException;
 
+    /**
+     * Creates users with batched inserts, together with their memberships in the groups listed by id
+     * in {@link ScimUser#getGroups()}. The passwords of the users must already be encoded.
+     *
+     * @return the created users in the given order, with null in place of users whose user name is already in use
+     */
+    List<ScimUser> createUsers(List<ScimUser> users, String zoneId);
+
     void changePassword(String id, String oldPassword, String newPassword, String zoneId) throws ScimResourceNotFoundException;
 
     void updatePasswordChangeRequired(String userId, boolean passwordChangeRequired, String zoneId) throws ScimResourceNotFoundException;
@@ -34,5 +44,14 @@ public interface ScimUserProvisioning extends ResourceManager<ScimUser>, Queryab
     boolean checkPasswordChangeIndividuallyRequired(String id, String zoneId) throws ScimResourceNotFoundException;
 
     void updateLastLogonTime(String id, String zoneId);
+
+    /**
+     * Passes all users of the zone that match the filter to the handler, in pages of at most
+     * {@code pageSize} users ordered by creation time and id.
+     *
+     * @throws IllegalArgumentException if the filter is invalid, this is detected before the first page is handled
+     * @throws org.springframework.dao.DataAccessException if reading a later page fails
+     */
+    void exportUsers(String filter, int pageSize, Consumer<List<ScimUser>> pageHandler, String zoneId) throws IllegalArgumentException;
 }
 
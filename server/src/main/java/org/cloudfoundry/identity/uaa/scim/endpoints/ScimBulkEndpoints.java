@@ -0,0 +1,433 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.scim.endpoints;
+
+import org.cloudfoundry.identity.uaa.approval.Approval;
+import org.cloudfoundry.identity.uaa.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.scim.ScimBulkRequest;
+import org.cloudfoundry.identity.uaa.scim.ScimBulkResponse;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimException;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceAlreadyExistsException;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.cloudfoundry.identity.uaa.security.ContextSensitiveOAuth2SecurityExpressionMethods;
+import org.cloudfoundry.identity.uaa.util.UaaUrlUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.View;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * SCIM bulk endpoint, see <a href="https://tools.ietf.org/html/rfc7644#section-3.7">RFC 7644, section 3.7</a>.
+ * <p>
+ * Only user creation ({@code POST /Users}) is supported. Users are validated like
+ * {@link ScimUserEndpoints#createUser} does, their passwords are encoded on a bounded pool of
+ * worker threads, and they are inserted together with their group memberships using batched
+ * statements. Unlike {@code POST /Users}, the groups listed in a user, by id or by name, become
+ * memberships of the new user. This requires the scopes needed to add members through
+ * {@code /Groups}, operations of callers that may only create users fail if they list groups.
+ * <p>
+ * {@code failOnErrors} is checked while operations are validated and after each chunk of users is
+ * inserted, so a few more operations than requested may be processed before the request stops.
+ */
+@Controller
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=ScimBulkEndpoint",
+    description = "SCIM Bulk Endpoint Metrics"
+)
+public class ScimBulkEndpoints implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScimBulkEndpoints.class);
+
+    private static final int GROUP_QUERY_SIZE = 50;
+
+    private ScimUserEndpoints scimUserEndpoints;
+
+    private ScimUserProvisioning scimUserProvisioning;
+
+    private ScimGroupProvisioning scimGroupProvisioning;
+
+    private ApprovalStore approvalStore;
+
+    private PasswordEncoder passwordEncoder;
+
+    private int maxOperations = 1000;
+
+    private int chunkSize = 100;
+
+    private int passwordEncoderThreads = Runtime.getRuntime().availableProcessors();
+
+    private ThreadPoolExecutor passwordEncoderExecutor;
+
+    private final AtomicLong usersCreated = new AtomicLong();
+
+    private final AtomicLong operationsFailed = new AtomicLong();
+
+    @RequestMapping(value = "/Bulk", method = RequestMethod.POST)
+    @ResponseBody
+    public ScimBulkResponse bulk(@RequestBody ScimBulkRequest bulkRequest, HttpServletRequest request) {
+        List<ScimBulkRequest.Operation> operations = bulkRequest.getOperations() == null ? new ArrayList<>() : bulkRequest.getOperations();
+        if (operations.size() > maxOperations) {
+            throw new ScimException("The number of operations exceeds the maximum of " + maxOperations, HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        int failOnErrors = bulkRequest.getFailOnErrors() == null || bulkRequest.getFailOnErrors() <= 0 ? Integer.MAX_VALUE : bulkRequest.getFailOnErrors();
+        String zoneId = IdentityZoneHolder.get().getId();
+        ScimBulkResponse.Operation[] results = new ScimBulkResponse.Operation[operations.size()];
+        AtomicInteger errors = new AtomicInteger();
+
+        List<Integer> indexes = new ArrayList<>();
+        List<ScimUser> users = new ArrayList<>();
+        for (int i = 0; i < operations.size() && errors.get() < failOnErrors; i++) {
+            ScimBulkRequest.Operation operation = operations.get(i);
+            try {
+                users.add(toNewUser(operation, request));
+                indexes.add(i);
+            } catch (Exception e) {
+                results[i] = failed(operation, e, errors);
+            }
+        }
+
+        if (errors.get() < failOnErrors) {
+            resolveGroups(users, indexes, operations, results, errors, zoneId);
+            encodePasswords(users, indexes, operations, results, errors);
+        }
+
+        for (int from = 0; from < users.size() && errors.get() < failOnErrors; from += chunkSize) {
+            int to = Math.min(users.size(), from + chunkSize);
+            List<Integer> chunkIndexes = new ArrayList<>();
+            List<ScimUser> chunk = new ArrayList<>();
+            for (int k = from; k < to; k++) {
+                if (results[indexes.get(k)] == null) {
+                    chunkIndexes.add(indexes.get(k));
+                    chunk.add(users.get(k));
+                }
+            }
+            if (chunk.isEmpty()) {
+                continue;
+            }
+            List<ScimUser> created;
+            try {
+                created = scimUserProvisioning.createUsers(chunk, zoneId);
+            } catch (Exception e) {
+                for (Integer index : chunkIndexes) {
+                    results[index] = failed(operations.get(index), e, errors);
+                }
+                continue;
+            }
+            for (int k = 0; k < chunk.size(); k++) {
+                int index = chunkIndexes.get(k);
+                ScimUser user = created.get(k);
+                if (user == null) {
+                    results[index] = failed(operations.get(index), new ScimResourceAlreadyExistsException("Username already in use: " + chunk.get(k).getUserName()), errors);
+                } else {
+                    addApprovals(user, zoneId);
+                    results[index] = created(operations.get(index), user);
+                }
+            }
+        }
+
+        List<ScimBulkResponse.Operation> response = new ArrayList<>();
+        for (ScimBulkResponse.Operation result : results) {
+            if (result != null) {
+                response.add(result);
+            }
+        }
+        return new ScimBulkResponse(response);
+    }
+
+    private ScimUser toNewUser(ScimBulkRequest.Operation operation, HttpServletRequest request) {
+        if (!"POST".equalsIgnoreCase(operation.getMethod()) || !"/Users".equals(operation.getPath())) {
+            throw new ScimException("Unsupported bulk operation: " + operation.getMethod() + " " + operation.getPath(), HttpStatus.BAD_REQUEST);
+        }
+        if (!hasText(operation.getBulkId())) {
+            throw new ScimException("bulkId is required for POST operations", HttpStatus.BAD_REQUEST);
+        }
+        if (operation.getData() == null) {
+            throw new ScimException("data is required for POST operations", HttpStatus.BAD_REQUEST);
+        }
+        ScimUser user = JsonUtils.convertValue(operation.getData(), ScimUser.class);
+        scimUserEndpoints.validateNewUser(user, request);
+        return user;
+    }
+
+    /**
+     * Replaces the groups of the users with the ids of the groups they name, dropping default
+     * groups of the zone. Users that name groups that do not exist, or that name groups when the
+     * caller may not add group members, fail.
+     */
+    private void resolveGroups(List<ScimUser> users, List<Integer> indexes, List<ScimBulkRequest.Operation> operations,
+                               ScimBulkResponse.Operation[] results, AtomicInteger errors, String zoneId) {
+        boolean canAddMembers = canAddMembers();
+        Set<String> references = new LinkedHashSet<>();
+        for (ScimUser user : users) {
+            if (canAddMembers && user.getGroups() != null) {
+                for (ScimUser.Group group : user.getGroups()) {
+                    references.add(hasText(group.getValue()) ? group.getValue() : group.getDisplay());
+                }
+            }
+        }
+        references.remove(null);
+        Map<String, ScimGroup> groups = findGroups(references, zoneId);
+        Collection<String> defaultGroups = IdentityZoneHolder.get().getConfig().getUserConfig().getDefaultGroups();
+
+        for (int k = 0; k < users.size(); k++) {
+            ScimUser user = users.get(k);
+            if (user.getGroups() == null || user.getGroups().isEmpty()) {
+                continue;
+            }
+            Map<String, ScimUser.Group> memberships = new LinkedHashMap<>();
+            try {
+                if (!canAddMembers) {
+                    throw new ScimException("Adding users to groups requires scim.write or groups.update", HttpStatus.FORBIDDEN);
+                }
+                for (ScimUser.Group reference : user.getGroups()) {
+                    String key = hasText(reference.getValue()) ? reference.getValue() : reference.getDisplay();
+                    ScimGroup group = key == null ? null : groups.get(key);
+                    if (group == null) {
+                        throw new ScimException("Group " + key + " does not exist", HttpStatus.BAD_REQUEST);
+                    }
+                    if (defaultGroups == null || !defaultGroups.contains(group.getDisplayName())) {
+                        memberships.put(group.getId(), new ScimUser.Group(group.getId(), group.getDisplayName()));
+                    }
+                }
+                user.setGroups(memberships.values());
+            } catch (ScimException e) {
+                int index = indexes.get(k);
+                results[index] = failed(operations.get(index), e, errors);
+            }
+        }
+    }
+
+    /**
+     * Same check as for adding members through {@code /Groups}, {@code scim.create} is not enough.
+     */
+    private static boolean canAddMembers() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            return false;
+        }
+        ContextSensitiveOAuth2SecurityExpressionMethods oauth2 = new ContextSensitiveOAuth2SecurityExpressionMethods(authentication, IdentityZone.getUaa());
+        return oauth2.hasAnyScope("scim.write", "groups.update") || oauth2.hasScopeInAuthZone("zones.{zone.id}.admin");
+    }
+
+    private Map<String, ScimGroup> findGroups(Set<String> references, String zoneId) {
+        Map<String, ScimGroup> groups = new HashMap<>();
+        List<String> pending = new ArrayList<>(references);
+        for (int from = 0; from < pending.size(); from += GROUP_QUERY_SIZE) {
+            String filter = pending.subList(from, Math.min(pending.size(), from + GROUP_QUERY_SIZE))
+                .stream()
+                .map(reference -> "\"" + reference.replace("\\", "\\\\").replace("\"", "\\\"") + "\"")
+                .map(value -> "id eq " + value + " or displayName eq " + value)
+                .collect(Collectors.joining(" or "));
+            for (ScimGroup group : scimGroupProvisioning.query(filter, zoneId)) {
+                groups.put(group.getId(), group);
+                groups.put(group.getDisplayName(), group);
+            }
+        }
+        return groups;
+    }
+
+    private void encodePasswords(List<ScimUser> users, List<Integer> indexes, List<ScimBulkRequest.Operation> operations,
+                                 ScimBulkResponse.Operation[] results, AtomicInteger errors) {
+        List<CompletableFuture<Void>> encodings = new ArrayList<>(users.size());
+        for (int k = 0; k < users.size(); k++) {
+            ScimUser user = users.get(k);
+            if (results[indexes.get(k)] != null) {
+                encodings.add(CompletableFuture.completedFuture(null));
+            } else {
+                encodings.add(CompletableFuture.runAsync(() -> user.setPassword(passwordEncoder.encode(user.getPassword())), passwordEncoderExecutor));
+            }
+        }
+        for (int k = 0; k < users.size(); k++) {
+            try {
+                encodings.get(k).join();
+            } catch (CompletionException e) {
+                int index = indexes.get(k);
+                results[index] = failed(operations.get(index), e.getCause() instanceof Exception ? (Exception) e.getCause() : e, errors);
+            }
+        }
+    }
+
+    private void addApprovals(ScimUser user, String zoneId) {
+        if (user.getApprovals() != null) {
+            for (Approval approval : user.getApprovals()) {
+                approval.setUserId(user.getId());
+                approvalStore.addApproval(approval, zoneId);
+            }
+        }
+    }
+
+    private ScimBulkResponse.Operation created(ScimBulkRequest.Operation operation, ScimUser user) {
+        usersCreated.incrementAndGet();
+        ScimBulkResponse.Operation result = new ScimBulkResponse.Operation(operation.getMethod(), operation.getBulkId(), String.valueOf(HttpStatus.CREATED.value()));
+        result.setLocation(UaaUrlUtils.getUaaUrl("/Users/" + user.getId(), IdentityZoneHolder.get()));
+        result.setVersion("\"" + user.getVersion() + "\"");
+        return result;
+    }
+
+    private ScimBulkResponse.Operation failed(ScimBulkRequest.Operation operation, Exception exception, AtomicInteger errors) {
+        errors.incrementAndGet();
+        operationsFailed.incrementAndGet();
+        ScimException e = scimUserEndpoints.toScimException(exception);
+        if (e.getStatus().is5xxServerError()) {
+            logger.error("Unable to process bulk operation " + operation.getBulkId(), exception);
+        }
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", UaaStringUtils.getErrorName(e));
+        error.put("message", e.getMessage());
+        error.put("error_description", e.getMessage());
+        if (e.getExtraInfo() != null) {
+            error.putAll(e.getExtraInfo());
+        }
+        ScimBulkResponse.Operation result = new ScimBulkResponse.Operation(operation.getMethod(), operation.getBulkId(), String.valueOf(e.getStatus().value()));
+        result.setResponse(error);
+        return result;
+    }
+
+    @ExceptionHandler
+    public View handleException(Exception t, HttpServletRequest request) throws ScimException {
+        return scimUserEndpoints.handleException(t, request);
+    }
+
+    @ExceptionHandler(UnsupportedOperationException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public void handleException() {
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Users Created In Bulk")
+    public long getUsersCreated() {
+        return usersCreated.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Bulk Operations Failed")
+    public long getOperationsFailed() {
+        return operationsFailed.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queued Password Encodings")
+    public int getPasswordEncoderQueueSize() {
+        return passwordEncoderExecutor == null ? 0 : passwordEncoderExecutor.getQueue().size();
+    }
+
+    public void setScimUserEndpoints(ScimUserEndpoints scimUserEndpoints) {
+        this.scimUserEndpoints = scimUserEndpoints;
+    }
+
+    public void setScimUserProvisioning(ScimUserProvisioning scimUserProvisioning) {
+        this.scimUserProvisioning = scimUserProvisioning;
+    }
+
+    public void setScimGroupProvisioning(ScimGroupProvisioning scimGroupProvisioning) {
+        this.scimGroupProvisioning = scimGroupProvisioning;
+    }
+
+    public void setApprovalStore(ApprovalStore approvalStore) {
+        this.approvalStore = approvalStore;
+    }
+
+    public void setPasswordEncoder(PasswordEncoder passwordEncoder) {
+        this.passwordEncoder = passwordEncoder;
+    }
+
+    public void setMaxOperations(int maxOperations) {
+        Assert.isTrue(maxOperations > 0, "Maximum operations must be positive");
+        this.maxOperations = maxOperations;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    public void setPasswordEncoderThreads(int passwordEncoderThreads) {
+        Assert.isTrue(passwordEncoderThreads > 0, "Password encoder threads must be positive");
+        this.passwordEncoderThreads = passwordEncoderThreads;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(scimUserEndpoints, "ScimUserEndpoints must be set");
+        Assert.notNull(scimUserProvisioning, "ScimUserProvisioning must be set");
+        Assert.notNull(scimGroupProvisioning, "ScimGroupProvisioning must be set");
+        Assert.notNull(approvalStore, "ApprovalStore must be set");
+        Assert.notNull(passwordEncoder, "PasswordEncoder must be set");
+        AtomicInteger threads = new AtomicInteger();
+        //when all workers are busy and the queue is full, the request thread encodes the password itself
+        passwordEncoderExecutor = new ThreadPoolExecutor(
+            passwordEncoderThreads,
+            passwordEncoderThreads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxOperations),
+            runnable -> {
+                Thread thread = new Thread(runnable, "scim-bulk-password-encoder-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        passwordEncoderExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() {
+        if (passwordEncoderExecutor != null) {
+            passwordEncoderExecutor.shutdownNow();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
 import org.cloudfoundry.identity.uaa.scim.ScimCore;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
@@ -150,6 +151,15 @@ public class ScimGroupEndpoints {
         return response;
     }
 
+    public SearchResults<?> listGroups(String attributesCommaSeparated,
+                                       String filter,
+                                       String sortBy,
+                                       String sortOrder,
+                                       int startIndex,
+                                       int count) {
+        return listGroups(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, TotalResults.EXACT.name());
+    }
+
     @RequestMapping(value = {"/Groups"}, method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> listGroups(
@@ -158,7 +168,15 @@ public class ScimGroupEndpoints {
         @RequestParam(required = false, defaultValue = "created") String sortBy,
         @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
         @RequestParam(required = false, defaultValue = "1") int startIndex,
-        @RequestParam(required = false, defaultValue = "100") int count) {
+        @RequestParam(required = false, defaultValue = "100") int count,
+        @RequestParam(required = false, defaultValue = "exact") String totalResults) {
+
+        TotalResults total;
+        try {
+            total = TotalResults.fromValue(totalResults);
+        } catch (IllegalArgumentException e) {
+            throw new ScimException(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
 
         if (count > groupMaxCount) {
             count = groupMaxCount;
@@ -166,7 +184,11 @@ public class ScimGroupEndpoints {
 
         List<ScimGroup> result;
         try {
-            result = dao.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            if (total == TotalResults.EXACT) {
+                result = dao.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            } else {
+                result = dao.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId(), startIndex, count, total);
+            }
         } catch (IllegalArgumentException e) {
             throw new ScimException("Invalid filter expression: [" + filter + "]", HttpStatus.BAD_REQUEST);
         }
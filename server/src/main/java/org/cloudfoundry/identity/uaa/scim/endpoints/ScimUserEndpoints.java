@@ -38,6 +38,7 @@ import org.cloudfoundry.identity.uaa.scim.validate.PasswordValidator;
 import org.cloudfoundry.identity.uaa.security.IsSelfCheck;
 import org.cloudfoundry.identity.uaa.security.ScimUserUpdateDiff;
 import org.cloudfoundry.identity.uaa.util.DomainFilter;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaPagingUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.web.ConvertingExceptionView;
@@ -67,6 +68,9 @@ import org.springframework.web.servlet.View;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -95,6 +99,8 @@ import static org.springframework.util.StringUtils.isEmpty;
 public class ScimUserEndpoints implements InitializingBean, ApplicationEventPublisherAware {
     private static final String USER_APPROVALS_FILTER_TEMPLATE = "user_id eq \"%s\"";
 
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
     private static Logger logger = LoggerFactory.getLogger(ScimUserEndpoints.class);
 
     public static final String E_TAG = "ETag";
@@ -166,6 +172,24 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
     public ScimUser createUser(@RequestBody ScimUser user, HttpServletRequest request, HttpServletResponse response) {
+        validateNewUser(user, request);
+
+        ScimUser scimUser = scimUserProvisioning.createUser(user, user.getPassword(), IdentityZoneHolder.get().getId());
+        if (user.getApprovals()!=null) {
+            for (Approval approval : user.getApprovals()) {
+                approval.setUserId(scimUser.getId());
+                approvalStore.addApproval(approval, IdentityZoneHolder.get().getId());
+            }
+        }
+        scimUser = syncApprovals(syncGroups(scimUser));
+        addETagHeader(response, scimUser);
+        return scimUser;
+    }
+
+    /**
+     * Checks that the user may be created, defaulting the origin and setting an empty password for non UAA users.
+     */
+    public void validateNewUser(ScimUser user, HttpServletRequest request) {
         //default to UAA origin
         if (isEmpty(user.getOrigin())) {
             user.setOrigin(OriginKeys.UAA);
@@ -186,17 +210,6 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
             }
             passwordValidator.validate(user.getPassword());
         }
-
-        ScimUser scimUser = scimUserProvisioning.createUser(user, user.getPassword(), IdentityZoneHolder.get().getId());
-        if (user.getApprovals()!=null) {
-            for (Approval approval : user.getApprovals()) {
-                approval.setUserId(scimUser.getId());
-                approvalStore.addApproval(approval, IdentityZoneHolder.get().getId());
-            }
-        }
-        scimUser = syncApprovals(syncGroups(scimUser));
-        addETagHeader(response, scimUser);
-        return scimUser;
     }
 
     public boolean isUaaUser(@RequestBody ScimUser user) {
@@ -342,6 +355,15 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         }
     }
 
+    public SearchResults<?> findUsers(String attributesCommaSeparated,
+                                      String filter,
+                                      String sortBy,
+                                      String sortOrder,
+                                      int startIndex,
+                                      int count) {
+        return findUsers(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, TotalResults.EXACT.name());
+    }
+
     @RequestMapping(value = "/Users", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> findUsers(
@@ -350,7 +372,15 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
                     @RequestParam(required = false, defaultValue = "created") String sortBy,
                     @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
                     @RequestParam(required = false, defaultValue = "1") int startIndex,
-                    @RequestParam(required = false, defaultValue = "100") int count) {
+                    @RequestParam(required = false, defaultValue = "100") int count,
+                    @RequestParam(required = false, defaultValue = "exact") String totalResults) {
+
+        TotalResults total;
+        try {
+            total = TotalResults.fromValue(totalResults);
+        } catch (IllegalArgumentException e) {
+            throw new ScimException(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
 
         if (startIndex < 1) {
             startIndex = 1;
@@ -364,15 +394,17 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         List<ScimUser> result;
         Set<String> attributes = StringUtils.commaDelimitedListToSet(attributesCommaSeparated);
         try {
-            result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId());
-            for (ScimUser user : UaaPagingUtils.subList(result, startIndex, count)) {
-                if(attributes.isEmpty() || attributes.stream().anyMatch(p -> "groups".equalsIgnoreCase(p))) {
-                    syncGroups(user);
-                }
-                if(attributes.isEmpty() || attributes.stream().anyMatch(p -> "approvals".equalsIgnoreCase(p))) {
-                    syncApprovals(user);
-                }
-                input.add(user);
+            if (total == TotalResults.EXACT) {
+                result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId());
+            } else {
+                result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId(), startIndex, count, total);
+            }
+            input.addAll(UaaPagingUtils.subList(result, startIndex, count));
+            if(attributes.isEmpty() || attributes.stream().anyMatch(p -> "groups".equalsIgnoreCase(p))) {
+                syncGroups(input);
+            }
+            if(attributes.isEmpty() || attributes.stream().anyMatch(p -> "approvals".equalsIgnoreCase(p))) {
+                syncApprovals(input);
             }
         } catch (IllegalArgumentException e) {
             String msg = "Invalid filter expression: [" + filter + "]";
@@ -387,19 +419,13 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
             return new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count, result.size());
         }
 
-        Map<String, String> attributeMap = new HashMap<>();
-        attributeMap.put("^emails\\.", "emails[*].");
-        attributeMap.put("familyName", "name.familyName");
-        attributeMap.put("givenName", "name.givenName");
-        AttributeNameMapper mapper = new SimpleAttributeNameMapper(attributeMap);
-
         try {
             return SearchResultsFactory.buildSearchResultFrom(input,
                                                               startIndex,
                                                               count,
                                                               result.size(),
                                                               attributes.toArray(new String[attributes.size()]),
-                                                              mapper,
+                                                              getAttributeNameMapper(),
                                                               Arrays.asList(ScimCore.SCHEMAS)
             );
         } catch (JsonPathException e) {
@@ -407,6 +433,70 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         }
     }
 
+    /**
+     * Writes all users of the zone that match the filter as newline delimited JSON, one user per line,
+     * ordered by creation time. Users are read and written {@code userMaxCount} at a time, so the
+     * number of users is not limited and is never held in memory at once.
+     */
+    @RequestMapping(value = "/Users/export", method = RequestMethod.GET)
+    public void exportUsers(
+                    @RequestParam(value = "attributes", required = false) String attributesCommaSeparated,
+                    @RequestParam(required = false, defaultValue = "id pr") String filter,
+                    HttpServletResponse response) throws IOException {
+
+        Set<String> attributes = StringUtils.commaDelimitedListToSet(attributesCommaSeparated);
+        boolean withGroups = attributes.isEmpty() || attributes.stream().anyMatch(p -> "groups".equalsIgnoreCase(p));
+        boolean withApprovals = attributes.isEmpty() || attributes.stream().anyMatch(p -> "approvals".equalsIgnoreCase(p));
+        AttributeNameMapper mapper = getAttributeNameMapper();
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        try {
+            scimUserProvisioning.exportUsers(filter, userMaxCount, users -> {
+                if (withGroups) {
+                    syncGroups(users);
+                }
+                if (withApprovals) {
+                    syncApprovals(users);
+                }
+                List<?> resources = users;
+                if (!attributes.isEmpty()) {
+                    resources = SearchResultsFactory.buildSearchResultFrom(users,
+                                                                           1,
+                                                                           users.size(),
+                                                                           users.size(),
+                                                                           attributes.toArray(new String[attributes.size()]),
+                                                                           mapper,
+                                                                           Arrays.asList(ScimCore.SCHEMAS)
+                    ).getResources();
+                }
+                try {
+                    OutputStream out = response.getOutputStream();
+                    for (Object resource : resources) {
+                        out.write(JsonUtils.writeValueAsBytes(resource));
+                        out.write('\n');
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, IdentityZoneHolder.get().getId());
+        } catch (IllegalArgumentException e) {
+            throw new ScimException("Invalid filter expression: [" + filter + "]", HttpStatus.BAD_REQUEST);
+        } catch (JsonPathException e) {
+            throw new ScimException("Invalid attributes: [" + attributesCommaSeparated + "]", HttpStatus.BAD_REQUEST);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static AttributeNameMapper getAttributeNameMapper() {
+        Map<String, String> attributeMap = new HashMap<>();
+        attributeMap.put("^emails\\.", "emails[*].");
+        attributeMap.put("familyName", "name.familyName");
+        attributeMap.put("givenName", "name.givenName");
+        return new SimpleAttributeNameMapper(attributeMap);
+    }
+
     @RequestMapping(value = "/Users/{userId}/status", method = RequestMethod.PATCH)
     public UserAccountStatus updateAccountStatus(@RequestBody UserAccountStatus status, @PathVariable String userId) {
         ScimUser user = scimUserProvisioning.retrieve(userId, IdentityZoneHolder.get().getId());
@@ -447,6 +537,27 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
 
         Set<ScimGroup> directGroups = membershipManager.getGroupsWithMember(user.getId(), false, IdentityZoneHolder.get().getId());
         Set<ScimGroup> indirectGroups = membershipManager.getGroupsWithMember(user.getId(), true, IdentityZoneHolder.get().getId());
+        return syncGroups(user, directGroups, indirectGroups);
+    }
+
+    /**
+     * Loads the groups of a whole page of users in a fixed number of queries
+     */
+    protected void syncGroups(List<ScimUser> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        Set<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toSet());
+        Map<String, Set<ScimGroup>> directGroups = membershipManager.getGroupsWithMembers(userIds, false, IdentityZoneHolder.get().getId());
+        Map<String, Set<ScimGroup>> indirectGroups = membershipManager.getGroupsWithMembers(userIds, true, IdentityZoneHolder.get().getId());
+        for (ScimUser user : users) {
+            syncGroups(user,
+                       directGroups.getOrDefault(user.getId(), Collections.emptySet()),
+                       new HashSet<>(indirectGroups.getOrDefault(user.getId(), Collections.emptySet())));
+        }
+    }
+
+    private ScimUser syncGroups(ScimUser user, Set<ScimGroup> directGroups, Set<ScimGroup> indirectGroups) {
         indirectGroups.removeAll(directGroups);
         Set<ScimUser.Group> groups = new HashSet<ScimUser.Group>();
         for (ScimGroup group : directGroups) {
@@ -464,7 +575,25 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         if (user == null || approvalStore == null) {
             return user;
         }
-        Set<Approval> approvals = new HashSet<Approval>(approvalStore.getApprovalsForUser(user.getId(), IdentityZoneHolder.get().getId()));
+        return syncApprovals(user, approvalStore.getApprovalsForUser(user.getId(), IdentityZoneHolder.get().getId()));
+    }
+
+    /**
+     * Loads the approvals of a whole page of users in a fixed number of queries
+     */
+    protected void syncApprovals(List<ScimUser> users) {
+        if (users.isEmpty() || approvalStore == null) {
+            return;
+        }
+        Set<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toSet());
+        Map<String, List<Approval>> approvals = approvalStore.getApprovalsForUsers(userIds, IdentityZoneHolder.get().getId());
+        for (ScimUser user : users) {
+            syncApprovals(user, approvals.getOrDefault(user.getId(), Collections.emptyList()));
+        }
+    }
+
+    private ScimUser syncApprovals(ScimUser user, List<Approval> userApprovals) {
+        Set<Approval> approvals = new HashSet<Approval>(userApprovals);
         Set<Approval> active = new HashSet<Approval>(approvals);
         for (Approval approval : approvals) {
             if (!approval.isActiveAsOf(new Date())) {
@@ -487,6 +616,18 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
     @ExceptionHandler
     public View handleException(Exception t, HttpServletRequest request) throws ScimException, InternalUserManagementDisabledException {
         logger.error("Unhandled exception in SCIM user endpoints.",t);
+        ScimException e = toScimException(t);
+        // User can supply trace=true or just trace (unspecified) to get stack
+        // traces
+        boolean trace = request.getParameter("trace") != null && !request.getParameter("trace").equals("false");
+        return new ConvertingExceptionView(new ResponseEntity<>(new ExceptionReport(e, trace, e.getExtraInfo()),
+            e.getStatus()), messageConverters);
+    }
+
+    /**
+     * Maps the exception to a {@link ScimException} with the configured status, and counts it.
+     */
+    public ScimException toScimException(Exception t) {
         ScimException e = new ScimException("Unexpected error", t, HttpStatus.INTERNAL_SERVER_ERROR);
         if (t instanceof ScimException) {
             e = (ScimException) t;
@@ -500,11 +641,7 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
             }
         }
         incrementErrorCounts(e);
-        // User can supply trace=true or just trace (unspecified) to get stack
-        // traces
-        boolean trace = request.getParameter("trace") != null && !request.getParameter("trace").equals("false");
-        return new ConvertingExceptionView(new ResponseEntity<>(new ExceptionReport(e, trace, e.getExtraInfo()),
-            e.getStatus()), messageConverters);
+        return e;
     }
 
     private void incrementErrorCounts(ScimException e) {
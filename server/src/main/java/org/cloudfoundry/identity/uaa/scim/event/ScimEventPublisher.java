@@ -9,6 +9,8 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 import static java.util.Optional.ofNullable;
 
@@ -31,6 +33,13 @@ public class ScimEventPublisher implements ApplicationEventPublisherAware {
         publish(UserModifiedEvent.userCreated(user, identityZoneManager.getCurrentIdentityZoneId()));
     }
 
+    public void usersCreated(final List<ScimUser> users) {
+        String zoneId = identityZoneManager.getCurrentIdentityZoneId();
+        users.stream()
+                .filter(Objects::nonNull)
+                .forEach(user -> publish(UserModifiedEvent.userCreated(user, zoneId)));
+    }
+
     public void userVerified(final ScimUser user) {
         publish(UserModifiedEvent.userVerified(user, identityZoneManager.getCurrentIdentityZoneId()));
     }
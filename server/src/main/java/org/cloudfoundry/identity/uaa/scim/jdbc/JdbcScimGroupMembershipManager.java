@@ -12,8 +12,10 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.scim.jdbc;
 
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMembershipManager;
@@ -35,10 +37,13 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.Assert;
 
 import java.sql.PreparedStatement;
@@ -47,10 +52,13 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Collections.emptySet;
@@ -95,6 +103,30 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
             " from %s m, %s g where m.group_id = g.id and g.identity_zone_id = ? and m.member_id = ? and m.origin = ?",
         MEMBERSHIP_TABLE, GROUP_TABLE);
 
+    public static final String GET_GROUPS_BY_MEMBERS_SQL = String.format("select distinct member_id, group_id from %s where member_id in (:memberIds) and identity_zone_id=:zoneId", MEMBERSHIP_TABLE);
+
+    public static final String GET_GROUPS_BY_IDS_SQL = String.format("select %s from %s where id in (:groupIds) and identity_zone_id=:zoneId", JdbcScimGroupProvisioning.GROUP_FIELDS, GROUP_TABLE);
+
+    public static final String GET_USER_IDS_SQL = "select id from users where id in (:userIds) and identity_zone_id=:zoneId";
+
+    public static final String GET_GROUPS_BY_MEMBERS_RECURSIVE_SQL = String.format(
+        "with recursive member_groups (member_id, group_id) as (" +
+            "select member_id, group_id from %1$s where member_id in (:memberIds) and identity_zone_id=:zoneId " +
+            "union " +
+            "select mg.member_id, m.group_id from member_groups mg, %1$s m where m.member_id=mg.group_id and m.identity_zone_id=:zoneId" +
+        ") " +
+        "select g.id, g.displayName, g.description, g.created, g.lastModified, g.version, g.identity_zone_id, mg.member_id " +
+        "from member_groups mg, %2$s g where g.id=mg.group_id and g.identity_zone_id=:zoneId",
+        MEMBERSHIP_TABLE,
+        GROUP_TABLE
+    );
+
+    private static final int MEMBER_BATCH_SIZE = 500;
+
+    private volatile boolean recursiveQueries = false;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
     private ScimUserProvisioning userProvisioning;
 
     private ScimGroupProvisioning groupProvisioning;
@@ -136,6 +168,14 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
     }
 
 
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.recursiveQueries = limitSqlAdapter.supportsRecursiveQueries();
+    }
+
+    public boolean isRecursiveQueries() {
+        return recursiveQueries;
+    }
+
     public void setZoneProvisioning(IdentityZoneProvisioning zoneProvisioning) {
         this.zoneProvisioning = zoneProvisioning;
     }
@@ -155,6 +195,7 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
     public JdbcScimGroupMembershipManager(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
         rowMapper = new ScimGroupMemberRowMapper();
     }
 
@@ -221,6 +262,9 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
     @Override
     public Set<ScimGroup> getGroupsWithMember(final String memberId, boolean transitive, String zoneId)
                     throws ScimResourceNotFoundException {
+        if (transitive) {
+            return getGroupsWithMembers(Collections.singleton(memberId), true, zoneId).get(memberId);
+        }
         List<ScimGroup> results = new ArrayList<>();
         getGroupsWithMember(results, memberId, transitive, zoneId);
         if (isUser(memberId)) {
@@ -265,6 +309,126 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 
     }
 
+    /**
+     * Resolves the groups of all given members. Nested memberships are resolved with a single
+     * recursive query when the database supports it, otherwise level by level, issuing one
+     * membership query per nesting level (rather than per member and group) plus one query
+     * for the group rows.
+     */
+    @Override
+    public Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive, String zoneId)
+                    throws ScimResourceNotFoundException {
+        Map<String, Set<ScimGroup>> result = null;
+        if (transitive && recursiveQueries) {
+            try {
+                result = getGroupsWithMembersRecursively(memberIds, zoneId);
+            } catch (BadSqlGrammarException x) {
+                logger.warn("Recursive group membership query is not supported by this database, resolving nested groups level by level.", x);
+                recursiveQueries = false;
+            }
+        }
+        if (result == null) {
+            result = getGroupsWithMembersByLevel(memberIds, transitive, zoneId);
+        }
+
+        Set<String> userIds = getUserIds(memberIds, zoneId);
+        if (!userIds.isEmpty()) {
+            Set<ScimGroup> defaultGroups = getDefaultUserGroups(zoneId);
+            for (String userId : userIds) {
+                result.get(userId).addAll(defaultGroups);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Set<ScimGroup>> getGroupsWithMembersRecursively(Collection<String> memberIds, String zoneId) {
+        Map<String, Set<ScimGroup>> result = new HashMap<>();
+        memberIds.forEach(memberId -> result.put(memberId, new HashSet<>()));
+        ScimGroupRowMapper groupRowMapper = new ScimGroupRowMapper();
+        for (List<String> batch : Lists.partition(new ArrayList<>(memberIds), MEMBER_BATCH_SIZE)) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("memberIds", batch)
+                .addValue("zoneId", zoneId);
+            namedParameterJdbcTemplate.query(GET_GROUPS_BY_MEMBERS_RECURSIVE_SQL, params, rs -> {
+                result.get(rs.getString(8)).add(groupRowMapper.mapRow(rs, 0));
+            });
+        }
+        return result;
+    }
+
+    private Map<String, Set<ScimGroup>> getGroupsWithMembersByLevel(Collection<String> memberIds, boolean transitive, String zoneId) {
+        Map<String, Set<String>> memberships = new HashMap<>();
+        Set<String> pending = new HashSet<>(memberIds);
+        while (!pending.isEmpty()) {
+            Map<String, Set<String>> level = getGroupIdsWithMembers(pending, zoneId);
+            pending.forEach(id -> memberships.put(id, level.getOrDefault(id, emptySet())));
+            if (!transitive) {
+                break;
+            }
+            pending = level.values().stream()
+                .flatMap(Set::stream)
+                .filter(groupId -> !memberships.containsKey(groupId))
+                .collect(toSet());
+        }
+
+        Set<String> groupIds = memberships.values().stream().flatMap(Set::stream).collect(toSet());
+        Map<String, ScimGroup> groups = getGroupsByIds(groupIds, zoneId);
+
+        Map<String, Set<ScimGroup>> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            Set<ScimGroup> memberGroups = new HashSet<>();
+            collectGroups(memberId, memberships, groups, transitive, memberGroups);
+            result.put(memberId, memberGroups);
+        }
+        return result;
+    }
+
+    private void collectGroups(String memberId, Map<String, Set<String>> memberships, Map<String, ScimGroup> groups, boolean transitive, Set<ScimGroup> results) {
+        for (String groupId : memberships.getOrDefault(memberId, emptySet())) {
+            ScimGroup group = groups.get(groupId);
+            if (group != null && results.add(group) && transitive) {
+                collectGroups(groupId, memberships, groups, transitive, results);
+            }
+        }
+    }
+
+    private Map<String, Set<String>> getGroupIdsWithMembers(Collection<String> memberIds, String zoneId) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (List<String> batch : Lists.partition(new ArrayList<>(memberIds), MEMBER_BATCH_SIZE)) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("memberIds", batch)
+                .addValue("zoneId", zoneId);
+            namedParameterJdbcTemplate.query(GET_GROUPS_BY_MEMBERS_SQL, params, rs -> {
+                result.computeIfAbsent(rs.getString(1), k -> new HashSet<>()).add(rs.getString(2));
+            });
+        }
+        return result;
+    }
+
+    private Map<String, ScimGroup> getGroupsByIds(Collection<String> groupIds, String zoneId) {
+        Map<String, ScimGroup> result = new HashMap<>();
+        for (List<String> batch : Lists.partition(new ArrayList<>(groupIds), MEMBER_BATCH_SIZE)) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("groupIds", batch)
+                .addValue("zoneId", zoneId);
+            for (ScimGroup group : namedParameterJdbcTemplate.query(GET_GROUPS_BY_IDS_SQL, params, new ScimGroupRowMapper())) {
+                result.put(group.getId(), group);
+            }
+        }
+        return result;
+    }
+
+    private Set<String> getUserIds(Collection<String> memberIds, String zoneId) {
+        Set<String> result = new HashSet<>();
+        for (List<String> batch : Lists.partition(new ArrayList<>(memberIds), MEMBER_BATCH_SIZE)) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userIds", batch)
+                .addValue("zoneId", zoneId);
+            result.addAll(namedParameterJdbcTemplate.queryForList(GET_USER_IDS_SQL, params, String.class));
+        }
+        return result;
+    }
+
     @Override
     public Set<ScimGroup> getGroupsWithExternalMember(final String memberId, final String origin) throws ScimResourceNotFoundException {
         List<ScimGroup> results;
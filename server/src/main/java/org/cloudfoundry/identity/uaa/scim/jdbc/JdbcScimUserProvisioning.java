@@ -19,7 +19,9 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.jdbc.AbstractQueryable;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.scim.ScimMeta;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
 import org.cloudfoundry.identity.uaa.scim.ScimUser.Name;
@@ -33,15 +35,20 @@ import org.cloudfoundry.identity.uaa.scim.util.ScimUtils;
 import org.cloudfoundry.identity.uaa.user.JdbcUaaUserDatabase;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
 import java.sql.PreparedStatement;
@@ -49,13 +56,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static java.sql.Types.VARCHAR;
@@ -98,6 +108,10 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String ALL_USERS = "select " + USER_FIELDS + " from users";
 
+    public static final String EXPORT_ORDER_BY = " order by created, id";
+
+    public static final String EXPORT_AFTER_KEY = "(created > :exportCreated or (created = :exportCreated and id > :exportId))";
+
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_ZONE = "delete from group_membership where identity_zone_id = ?";
 
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_PROVIDER = "delete from group_membership where identity_zone_id = ? and origin = ?";
@@ -118,6 +132,10 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     private TimeService timeService = new TimeServiceImpl();
 
+    private int batchSize = 100;
+
+    private TransactionTemplate transactionTemplate;
+
     public JdbcScimUserProvisioning(
             JdbcTemplate jdbcTemplate,
             JdbcPagingListFactory pagingListFactory,
@@ -133,6 +151,15 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         this.timeService = timeService;
     }
 
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
     @Override
     public ScimUser retrieve(String id, String zoneId) {
         try {
@@ -157,6 +184,60 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return query("id pr", "created", true, zoneId);
     }
 
+    /**
+     * Reads the users page by page, each page continuing after the (created, id) key of the last
+     * user of the previous page, so that deep pages cost the same as the first one and rows do not
+     * have to be counted or skipped.
+     */
+    @Override
+    public void exportUsers(String filter, int pageSize, Consumer<List<ScimUser>> pageHandler, String zoneId) throws IllegalArgumentException {
+        Assert.isTrue(pageSize > 0, "Page size must be positive");
+        String zoneFilter = (hasText(filter) ? "(" + filter + ") and" : "") + " identity_zone_id eq \"" + zoneId + "\"";
+        SearchQueryConverter.ProcessedFilter where = getQueryConverter().convert(zoneFilter, null, true);
+        String firstPageSql = ALL_USERS + " where (" + where.getSql() + ")" + EXPORT_ORDER_BY;
+        String nextPageSql = ALL_USERS + " where (" + where.getSql() + ") and " + EXPORT_AFTER_KEY + EXPORT_ORDER_BY;
+        Map<String, Object> params = new HashMap<>(where.getParams());
+        ExportPage page = new ExportPage(pageSize);
+        do {
+            String sql = getPagingListFactory().getLimitSqlAdapter().getLimitSql(page.lastId == null ? firstPageSql : nextPageSql, 0, pageSize);
+            if (page.lastId != null) {
+                params.put("exportCreated", page.lastCreated);
+                params.put("exportId", page.lastId);
+            }
+            page.users = new ArrayList<>(pageSize);
+            try {
+                getNamedParameterJdbcTemplate().query(sql, params, page);
+            } catch (DataAccessException e) {
+                //once a page was handed out the filter is known to be valid, and the response may be committed
+                if (page.lastId != null) {
+                    throw e;
+                }
+                logger.debug("Filter '" + filter + "' generated invalid SQL", e);
+                throw new IllegalArgumentException("Invalid filter: " + filter);
+            }
+            if (!page.users.isEmpty()) {
+                pageHandler.accept(page.users);
+            }
+        } while (page.users.size() == pageSize);
+    }
+
+    private static final class ExportPage implements RowCallbackHandler {
+        private List<ScimUser> users;
+        private Timestamp lastCreated;
+        private String lastId;
+
+        ExportPage(int pageSize) {
+            this.users = new ArrayList<>(pageSize);
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            users.add(mapper.mapRow(rs, users.size()));
+            lastCreated = rs.getTimestamp("created");
+            lastId = rs.getString("id");
+        }
+    }
+
     @Override
     public ScimUser create(final ScimUser user, String zoneId) {
         if (!hasText(user.getOrigin())) {
@@ -172,34 +253,7 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
             jdbcTemplate.update(CREATE_USER_SQL, new PreparedStatementSetter() {
                 @Override
                 public void setValues(PreparedStatement ps) throws SQLException {
-                    Timestamp t = new Timestamp(new Date().getTime());
-                    ps.setString(1, id);
-                    ps.setInt(2, user.getVersion());
-                    ps.setTimestamp(3, t);
-                    ps.setTimestamp(4, t);
-                    ps.setString(5, user.getUserName());
-                    ps.setString(6, user.getPrimaryEmail());
-                    if (user.getName() == null) {
-                        ps.setString(7, null);
-                        ps.setString(8, null);
-                    }
-                    else {
-                        ps.setString(7, user.getName().getGivenName());
-                        ps.setString(8, user.getName().getFamilyName());
-                    }
-                    ps.setBoolean(9, user.isActive());
-                    String phoneNumber = extractPhoneNumber(user);
-                    ps.setString(10, phoneNumber);
-                    ps.setBoolean(11, user.isVerified());
-                    ps.setString(12, origin);
-                    ps.setString(13, hasText(user.getExternalId())?user.getExternalId():null);
-                    ps.setString(14, identityZoneId);
-                    ps.setString(15, user.getSalt());
-
-                    ps.setTimestamp(16, getPasswordLastModifiedTimestamp(t));
-                    ps.setNull(17, Types.BIGINT);
-                    ps.setNull(18, Types.BIGINT);
-                    ps.setString(19, user.getPassword());
+                    setCreateUserValues(ps, id, user, origin, identityZoneId, new Timestamp(new Date().getTime()));
                 }
 
             });
@@ -214,6 +268,113 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return retrieve(id, zoneId);
     }
 
+    private void setCreateUserValues(PreparedStatement ps, String id, ScimUser user, String origin, String zoneId, Timestamp t) throws SQLException {
+        ps.setString(1, id);
+        ps.setInt(2, user.getVersion());
+        ps.setTimestamp(3, t);
+        ps.setTimestamp(4, t);
+        ps.setString(5, user.getUserName());
+        ps.setString(6, user.getPrimaryEmail());
+        if (user.getName() == null) {
+            ps.setString(7, null);
+            ps.setString(8, null);
+        }
+        else {
+            ps.setString(7, user.getName().getGivenName());
+            ps.setString(8, user.getName().getFamilyName());
+        }
+        ps.setBoolean(9, user.isActive());
+        String phoneNumber = extractPhoneNumber(user);
+        ps.setString(10, phoneNumber);
+        ps.setBoolean(11, user.isVerified());
+        ps.setString(12, origin);
+        ps.setString(13, hasText(user.getExternalId())?user.getExternalId():null);
+        ps.setString(14, zoneId);
+        ps.setString(15, user.getSalt());
+
+        ps.setTimestamp(16, getPasswordLastModifiedTimestamp(t));
+        ps.setNull(17, Types.BIGINT);
+        ps.setNull(18, Types.BIGINT);
+        ps.setString(19, user.getPassword());
+    }
+
+    /**
+     * Inserts the users and their group memberships in chunks of {@code batchSize} users, each chunk
+     * with one batched statement per table in its own transaction. When a chunk fails because a user
+     * name is already in use, its users are inserted one at a time so that only those users fail.
+     */
+    @Override
+    public List<ScimUser> createUsers(List<ScimUser> users, String zoneId) {
+        Assert.state(transactionTemplate != null, "A transaction manager is required to create users in batches");
+        List<ScimUser> created = new ArrayList<>(users.size());
+        for (int from = 0; from < users.size(); from += batchSize) {
+            List<ScimUser> chunk = users.subList(from, Math.min(users.size(), from + batchSize));
+            try {
+                transactionTemplate.execute(status -> insertUsers(chunk, zoneId));
+                created.addAll(chunk);
+            } catch (DuplicateKeyException e) {
+                logger.debug("User name already in use in batch of " + chunk.size() + " users, inserting them one by one");
+                for (ScimUser user : chunk) {
+                    try {
+                        transactionTemplate.execute(status -> insertUsers(Collections.singletonList(user), zoneId));
+                        created.add(user);
+                    } catch (DuplicateKeyException x) {
+                        created.add(null);
+                    }
+                }
+            }
+        }
+        return created;
+    }
+
+    private List<ScimUser> insertUsers(List<ScimUser> users, String zoneId) {
+        Timestamp t = new Timestamp(timeService.getCurrentTimeMillis());
+        List<String> ids = new ArrayList<>(users.size());
+        for (ScimUser user : users) {
+            ids.add(UUID.randomUUID().toString());
+            if (!hasText(user.getOrigin())) {
+                user.setOrigin(OriginKeys.UAA);
+            }
+        }
+        jdbcTemplate.batchUpdate(CREATE_USER_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ScimUser user = users.get(i);
+                setCreateUserValues(ps, ids.get(i), user, user.getOrigin(), zoneId, t);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return users.size();
+            }
+        });
+        List<Object[]> memberships = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            ScimUser user = users.get(i);
+            if (user.getGroups() == null) {
+                continue;
+            }
+            for (ScimUser.Group group : user.getGroups()) {
+                memberships.add(new Object[] {group.getValue(), ids.get(i), ScimGroupMember.Type.USER.toString(), null, t, user.getOrigin(), zoneId});
+            }
+        }
+        if (!memberships.isEmpty()) {
+            jdbcTemplate.batchUpdate(JdbcScimGroupMembershipManager.ADD_MEMBER_SQL, memberships,
+                new int[] {VARCHAR, VARCHAR, VARCHAR, VARCHAR, Types.TIMESTAMP, VARCHAR, VARCHAR});
+        }
+        //the users are only updated once all their rows are written, a failed chunk is retried with the same objects
+        for (int i = 0; i < users.size(); i++) {
+            ScimUser user = users.get(i);
+            user.setId(ids.get(i));
+            user.setZoneId(zoneId);
+            user.setPassword(null);
+            user.setPasswordLastModified(getPasswordLastModifiedTimestamp(t));
+            user.getMeta().setCreated(t);
+            user.getMeta().setLastModified(t);
+        }
+        return users;
+    }
+
     protected Timestamp getPasswordLastModifiedTimestamp(Timestamp t) {
         Calendar cal = new GregorianCalendar();
         cal.set(Calendar.MILLISECOND, 0);
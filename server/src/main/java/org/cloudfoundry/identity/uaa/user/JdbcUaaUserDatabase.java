@@ -12,14 +12,31 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.user;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.apache.commons.lang.ArrayUtils;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.cache.GenerationalCache;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.context.ApplicationListener;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.core.GrantedAuthority;
@@ -30,6 +47,7 @@ import org.springframework.util.StringUtils;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -37,15 +55,21 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.springframework.util.StringUtils.hasText;
 
 /**
+ * Users retrieved by id can optionally be cached per zone for a short time, see
+ * {@link #setCacheExpiration(Duration)}. Cached users are dropped when this node changes,
+ * deletes or records a logon of the user, or modifies groups or the zone; the expiration
+ * bounds how long changes made on other nodes go unnoticed.
+ *
  * @author Luke Taylor
  * @author Dave Syer
  * @author Vidya Valmikinathan
  */
-public class JdbcUaaUserDatabase implements UaaUserDatabase {
+public class JdbcUaaUserDatabase implements UaaUserDatabase, MeteredCache, ApplicationListener<AbstractUaaEvent> {
 
     private static Logger logger = LoggerFactory.getLogger(JdbcUaaUserDatabase.class);
 
@@ -61,6 +85,15 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     public static final String DEFAULT_UPDATE_USER_LAST_LOGON = "update users set previous_logon_success_time = last_logon_success_time, last_logon_success_time = ? where id = ? and identity_zone_id=?";
 
     public static final String DEFAULT_USER_BY_ID_QUERY = "select " + USER_FIELDS + "from users where id = ? and active=? and identity_zone_id=?";
+
+    public static final String DEFAULT_RECURSIVE_AUTHORITIES_QUERY =
+        "with recursive member_groups (group_id) as (" +
+            "select m.group_id from group_membership m, groups g where m.member_id = ? and g.id = m.group_id and g.identity_zone_id = ? " +
+            "union " +
+            "select m.group_id from group_membership m, groups g, member_groups mg where m.member_id = mg.group_id and g.id = m.group_id and g.identity_zone_id = ?" +
+        ") " +
+        "select distinct g.displayName from groups g, member_groups mg where g.id = mg.group_id and g.identity_zone_id = ?";
+
     private final TimeService timeService;
 
     private JdbcTemplate jdbcTemplate;
@@ -70,6 +103,12 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     private boolean caseInsensitive = false;
 
+    private volatile boolean recursiveQueries = false;
+
+    private Duration cacheExpiration = Duration.ZERO;
+    private int cacheMaxEntries = 10000;
+    private volatile GenerationalCache<UaaUser> cache;
+
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
@@ -82,6 +121,14 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         this.caseInsensitive = caseInsensitive;
     }
 
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.recursiveQueries = limitSqlAdapter.supportsRecursiveQueries();
+    }
+
+    public boolean isRecursiveQueries() {
+        return recursiveQueries;
+    }
+
     public RowMapper<UaaUser> getMapper() {
         return mapper;
     }
@@ -90,6 +137,7 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
         this.timeService = timeService;
+        this.cache = buildCache();
     }
 
     @Override
@@ -104,8 +152,24 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     @Override
     public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+        String zoneId = IdentityZoneHolder.get().getId();
+        if (!isCacheEnabled()) {
+            return loadUserById(id, zoneId);
+        }
+        UaaUser cached = cache.get(zoneId, id);
+        if (cached != null) {
+            //callers may change the verified and logon fields of the returned user
+            return new UaaUser(new UaaUserPrototype(cached));
+        }
+        long userGeneration = cache.getGeneration();
+        UaaUser user = loadUserById(id, zoneId);
+        cache.put(zoneId, id, user, userGeneration);
+        return new UaaUser(new UaaUserPrototype(user));
+    }
+
+    private UaaUser loadUserById(String id, String zoneId) throws UsernameNotFoundException {
         try {
-            return jdbcTemplate.queryForObject(DEFAULT_USER_BY_ID_QUERY, mapper, id, true, IdentityZoneHolder.get().getId());
+            return jdbcTemplate.queryForObject(DEFAULT_USER_BY_ID_QUERY, mapper, id, true, zoneId);
         } catch (EmptyResultDataAccessException e) {
             throw new UsernameNotFoundException(id);
         }
@@ -156,7 +220,97 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     @Override
     public void updateLastLogonTime(String userId) {
-        int update = jdbcTemplate.update(DEFAULT_UPDATE_USER_LAST_LOGON, timeService.getCurrentTimeMillis(), userId, IdentityZoneHolder.get().getId());
+        String zoneId = IdentityZoneHolder.get().getId();
+        int update = jdbcTemplate.update(DEFAULT_UPDATE_USER_LAST_LOGON, timeService.getCurrentTimeMillis(), userId, zoneId);
+        invalidateUser(userId, zoneId);
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (!isCacheEnabled()) {
+            return;
+        }
+        String zoneId = event.getIdentityZoneId();
+        if (event instanceof UserModifiedEvent) {
+            invalidateUser(((UserModifiedEvent) event).getUserId(), zoneId);
+        } else if (event instanceof PasswordChangeEvent && ((PasswordChangeEvent) event).getUser() != null) {
+            invalidateUser(((PasswordChangeEvent) event).getUser().getId(), zoneId);
+        } else if (event instanceof GroupModifiedEvent) {
+            //authorities include nested group memberships
+            invalidateZone(zoneId);
+        } else if (event instanceof IdentityZoneModifiedEvent) {
+            //authorities include the default groups of the zone
+            invalidateZone(((IdentityZone) event.getSource()).getId());
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent) event).getDeleted();
+            if (deleted instanceof ScimUser) {
+                invalidateUser(((ScimUser) deleted).getId(), zoneId);
+            } else if (deleted instanceof IdentityZone) {
+                invalidateZone(((IdentityZone) deleted).getId());
+            }
+        }
+    }
+
+    private void invalidateUser(String userId, String zoneId) {
+        if (!isCacheEnabled() || userId == null) {
+            return;
+        }
+        cache.invalidate(zoneId, userId);
+    }
+
+    private void invalidateZone(String zoneId) {
+        cache.invalidateZone(zoneId);
+        logger.debug("Invalidated cached users of zone " + zoneId);
+    }
+
+    private GenerationalCache<UaaUser> buildCache() {
+        CacheBuilder<Object, Object> builder = CacheBuilder
+            .newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .recordStats();
+        if (isCacheEnabled()) {
+            builder.expireAfterWrite(cacheExpiration.toMillis(), TimeUnit.MILLISECONDS)
+                .ticker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return TimeUnit.MILLISECONDS.toNanos(timeService.getCurrentTimeMillis());
+                    }
+                });
+        }
+        Cache<String, UaaUser> users = builder.build();
+        return new GenerationalCache<>(users);
+    }
+
+    public boolean isCacheEnabled() {
+        return !cacheExpiration.isZero() && !cacheExpiration.isNegative();
+    }
+
+    /**
+     * @param cacheExpiration how long users retrieved by id are served from memory, zero disables the cache
+     */
+    public void setCacheExpiration(Duration cacheExpiration) {
+        this.cacheExpiration = cacheExpiration;
+        this.cache = buildCache();
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.cache = buildCache();
+    }
+
+    @Override
+    public String getCacheName() {
+        return "usersById";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
     }
 
     private final class UserInfoRowMapper implements RowMapper<UserInfo> {
@@ -212,7 +366,18 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
         private String getAuthorities(final String userId) {
             Set<String> authorities = new HashSet<>();
-            getAuthorities(authorities, Arrays.asList(userId));
+            String zoneId = IdentityZoneHolder.get().getId();
+            if (recursiveQueries) {
+                try {
+                    authorities.addAll(jdbcTemplate.queryForList(DEFAULT_RECURSIVE_AUTHORITIES_QUERY, String.class, userId, zoneId, zoneId, zoneId));
+                } catch (BadSqlGrammarException x) {
+                    logger.warn("Recursive group membership query is not supported by this database, resolving nested groups level by level.", x);
+                    recursiveQueries = false;
+                }
+            }
+            if (!recursiveQueries) {
+                getAuthorities(authorities, Arrays.asList(userId));
+            }
             authorities.addAll(IdentityZoneHolder.get().getConfig().getUserConfig().getDefaultGroups());
             return StringUtils.collectionToCommaDelimitedString(new HashSet<>(authorities));
         }
@@ -16,6 +16,8 @@ package org.cloudfoundry.identity.uaa.util;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.AuthenticationException;
@@ -41,9 +43,19 @@ import static org.springframework.security.crypto.util.EncodingUtils.concatenate
  * Wrapper around a slow password encoder that does a fast translation in memory only
  * This uses a hash to as a key to store a list of
  */
-public class CachingPasswordEncoder implements PasswordEncoder {
+public class CachingPasswordEncoder implements PasswordEncoder, MeteredCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    //MessageDigest is not thread safe, one per thread avoids contending on a shared instance
+    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
-    private final MessageDigest messageDigest;
     private final byte[] secret;
     private final byte[] salt;
     private final int iterations;
@@ -67,7 +79,8 @@ public class CachingPasswordEncoder implements PasswordEncoder {
 
     public CachingPasswordEncoder(final PasswordEncoder passwordEncoder) throws NoSuchAlgorithmException {
         this.passwordEncoder = passwordEncoder;
-        messageDigest = MessageDigest.getInstance("SHA-256");
+        //fail at startup, not on the first password check, if the digest is not available
+        MessageDigest.getInstance(DIGEST_ALGORITHM);
         this.secret = Utf8.encode(new RandomValueStringGenerator().generate());
         this.salt = KeyGenerators.secureRandom().generateKey();
         iterations = 25;
@@ -91,14 +104,8 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     protected Set<String> getOrCreateHashList(String cacheKey) {
-        Set<String> result = cache.getIfPresent(cacheKey);
-        if (result==null) {
-            if (cache.size()>=getMaxKeys()) {
-                cache.invalidateAll();
-            }
-            cache.put(cacheKey, Collections.synchronizedSet(new LinkedHashSet<>()));
-        }
-        return cache.getIfPresent(cacheKey);
+        //the cache is size bounded, least recently used keys are evicted once maxKeys is reached
+        return cache.asMap().computeIfAbsent(cacheKey, k -> Collections.synchronizedSet(new LinkedHashSet<>()));
     }
 
     private boolean internalMatches(String cacheKey, CharSequence rawPassword, String encodedPassword) {
@@ -139,12 +146,11 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     private byte[] digest(byte[] value) {
-        synchronized (messageDigest) {
-            for (int i = 0; i < iterations; i++) {
-                value = messageDigest.digest(value);
-            }
-            return value;
+        MessageDigest messageDigest = MESSAGE_DIGEST.get();
+        for (int i = 0; i < iterations; i++) {
+            value = messageDigest.digest(value);
         }
+        return value;
     }
 
     private boolean hashesEquals(String a, String b) {
@@ -197,9 +203,26 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         buildCache();
     }
 
+    @Override
+    public String getCacheName() {
+        return "passwordEncoder";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
     protected void buildCache() {
         cache = CacheBuilder.newBuilder()
             .expireAfterWrite(expiryInSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxKeys)
+            .recordStats()
             .build();
     }
 }
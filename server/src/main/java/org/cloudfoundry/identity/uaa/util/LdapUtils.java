@@ -55,6 +55,7 @@ public final class LdapUtils {
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_EMAIL_DOMAIN, definition.getEmailDomain(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_EXTERNAL_GROUPS_WHITELIST, definition.getExternalGroupsWhitelist(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_AUTO_ADD, definition.isAutoAddGroups(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_CACHE_EXPIRY_SECONDS, definition.getGroupCacheExpirySeconds(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_FILE, definition.getLdapGroupFile(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE, definition.getGroupRoleAttribute(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_GROUP_SEARCH_FILTER, definition.getGroupSearchFilter(), properties);
@@ -62,6 +63,11 @@ public final class LdapUtils {
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_MAX_SEARCH_DEPTH, definition.getMaxGroupSearchDepth(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_SEARCH_BASE, definition.getGroupSearchBase(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_GROUPS_SEARCH_SUBTREE, definition.isGroupSearchSubTree(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_POOL_ENABLED, definition.isConnectionPoolEnabled(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_POOL_IDLE_TIMEOUT, definition.getConnectionPoolIdleTimeout(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_POOL_MAX_SIZE, definition.getConnectionPoolMaxSize(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_POOL_MAX_WAIT, definition.getConnectionPoolMaxWait(), properties);
+        setIfNotNull(LdapIdentityProviderDefinition.LDAP_POOL_VALIDATION_FILTER, definition.getConnectionPoolValidationFilter(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_PROFILE_FILE, definition.getLdapProfileFile(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_SSL_SKIPVERIFICATION, definition.isSkipSSLVerification(), properties);
         setIfNotNull(LdapIdentityProviderDefinition.LDAP_SSL_TLS, definition.getTlsConfiguration(), properties);
@@ -145,6 +151,19 @@ public final class LdapUtils {
         definition.setPasswordAttributeName((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_BASE_PASSWORD_ATTRIBUTE_NAME));
         definition.setPasswordEncoder((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_BASE_PASSWORD_ENCODER));
         definition.setLocalPasswordCompare((Boolean)ldapConfig.get(LdapIdentityProviderDefinition.LDAP_BASE_LOCAL_PASSWORD_COMPARE));
+        definition.setConnectionPoolEnabled((Boolean) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_ENABLED));
+        if (ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_IDLE_TIMEOUT) != null) {
+            definition.setConnectionPoolIdleTimeout(((Number) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_IDLE_TIMEOUT)).longValue());
+        }
+        if (ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_MAX_SIZE) != null) {
+            definition.setConnectionPoolMaxSize((Integer) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_MAX_SIZE));
+        }
+        if (ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_MAX_WAIT) != null) {
+            definition.setConnectionPoolMaxWait(((Number) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_MAX_WAIT)).longValue());
+        }
+        if (StringUtils.hasText((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_VALIDATION_FILTER))) {
+            definition.setConnectionPoolValidationFilter((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_POOL_VALIDATION_FILTER));
+        }
         if (StringUtils.hasText((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_FILE))) {
             definition.setLdapGroupFile((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_FILE));
         }
@@ -158,6 +177,9 @@ public final class LdapUtils {
             definition.setGroupSearchSubTree((Boolean) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_SEARCH_SUBTREE));
             definition.setAutoAddGroups((Boolean) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_AUTO_ADD));
             definition.setGroupRoleAttribute((String) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE));
+            if (ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_CACHE_EXPIRY_SECONDS) != null) {
+                definition.setGroupCacheExpirySeconds((Integer) ldapConfig.get(LdapIdentityProviderDefinition.LDAP_GROUPS_CACHE_EXPIRY_SECONDS));
+            }
         }
 
         //if flat attributes are set in the properties
@@ -0,0 +1,204 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks passwords with a slow password encoder on a fixed number of hashing threads,
+ * so that a burst of logins can not occupy every request thread with CPU bound hashing.
+ * <p>
+ * Callers wait up to {@code maxWaitMillis} for their check to complete. When all hashing threads
+ * are busy and {@code queueSize} checks are already waiting, the check is rejected right away with a
+ * {@link PasswordHashingRejectedException} instead of queueing without bound. The queue should stay
+ * small, a check that waits behind many others takes longer than clients are willing to wait.
+ * Encoding is done by the calling thread, new passwords are not set at login rates.
+ */
+@ManagedResource
+(
+    objectName="cloudfoundry.identity:name=PasswordHashing",
+    description = "UAA Password Hashing Metrics"
+)
+public class PooledPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledPasswordEncoder.class);
+
+    private final PasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private boolean enabled = true;
+    private long maxWaitMillis = 5000;
+
+    private final AtomicLong hashCount = new AtomicLong();
+    private final AtomicLong hashTimeNanos = new AtomicLong();
+    private final AtomicLong maxHashTimeNanos = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param delegate the encoder that hashes passwords
+     * @param threads the number of hashing threads, the number of processors if not positive
+     * @param queueSize the number of checks that may wait for a hashing thread, four per hashing thread if not positive
+     */
+    public PooledPasswordEncoder(PasswordEncoder delegate, int threads, int queueSize) {
+        this.delegate = delegate;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize > 0 ? queueSize : 4 * poolSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @param maxWaitMillis how long a caller waits for its check, including the time it is queued
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (!enabled) {
+            return delegate.matches(rawPassword, encodedPassword);
+        }
+        long submitted = System.nanoTime();
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> {
+                long started = System.nanoTime();
+                try {
+                    return delegate.matches(rawPassword, encodedPassword);
+                } finally {
+                    long elapsed = System.nanoTime() - started;
+                    hashCount.incrementAndGet();
+                    hashTimeNanos.addAndGet(elapsed);
+                    maxHashTimeNanos.accumulateAndGet(elapsed, Math::max);
+                    waitTimeNanos.addAndGet(started - submitted);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            logger.debug("Password hashing queue is full, rejecting password check");
+            throw new PasswordHashingRejectedException("Too many concurrent password checks. Retry later.", e);
+        }
+        try {
+            return result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            rejectedCount.incrementAndGet();
+            logger.debug("Password check did not complete within " + maxWaitMillis + "ms, rejecting it");
+            throw new PasswordHashingRejectedException("Password check timed out. Retry later.", e);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingRejectedException("Interrupted while waiting for password check.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queued Password Checks")
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Active Password Checks")
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Password Checks")
+    public long getHashCount() {
+        return hashCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Rejected Password Checks")
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Password Check Time (ms)")
+    public double getAverageHashTime() {
+        long count = hashCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(hashTimeNanos.get()) / 1000.0 / count;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max Password Check Time (ms)")
+    public long getMaxHashTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHashTimeNanos.get());
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Password Check Queue Time (ms)")
+    public double getAverageWaitTime() {
+        long count = hashCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitTimeNanos.get()) / 1000.0 / count;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2018] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.zone;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches active identity zones by id and by subdomain in front of another
+ * {@link IdentityZoneProvisioning}. Subdomains that do not resolve to a zone are
+ * cached as well, so that requests for unknown hosts do not reach the database.
+ * Entries expire after a fixed time to bound staleness across nodes, and are
+ * invalidated immediately when a zone is created, modified or deleted on this node.
+ * Callers get a copy of the cached zone, so that changes they make do not leak into
+ * other requests.
+ */
+public class CachingIdentityZoneProvisioning implements IdentityZoneProvisioning, MeteredCache, ApplicationListener<AbstractUaaEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingIdentityZoneProvisioning.class);
+
+    private final IdentityZoneProvisioning delegate;
+    private final Cache<String, IdentityZone> byId;
+    private final Cache<String, Optional<IdentityZone>> bySubdomain;
+
+    public CachingIdentityZoneProvisioning(IdentityZoneProvisioning delegate, Duration expiration, int maxEntries) {
+        this.delegate = delegate;
+        this.byId = CacheBuilder
+                .newBuilder()
+                .expireAfterWrite(expiration.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        this.bySubdomain = CacheBuilder
+                .newBuilder()
+                .expireAfterWrite(expiration.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public IdentityZone create(IdentityZone identityZone) {
+        try {
+            return delegate.create(identityZone);
+        } finally {
+            invalidate(identityZone);
+        }
+    }
+
+    @Override
+    public IdentityZone update(IdentityZone identityZone) {
+        try {
+            return delegate.update(identityZone);
+        } finally {
+            invalidate(identityZone);
+        }
+    }
+
+    @Override
+    public IdentityZone retrieve(String id) {
+        IdentityZone zone = byId.getIfPresent(id);
+        if (zone == null) {
+            zone = delegate.retrieve(id);
+            byId.put(id, zone);
+        }
+        return copy(zone);
+    }
+
+    @Override
+    public IdentityZone retrieveBySubdomain(String subdomain) {
+        if (subdomain == null) {
+            throw new EmptyResultDataAccessException("Subdomain cannot be null", 1);
+        }
+        String key = subdomain.toLowerCase();
+        Optional<IdentityZone> zone = bySubdomain.getIfPresent(key);
+        if (zone == null) {
+            try {
+                zone = Optional.of(delegate.retrieveBySubdomain(key));
+            } catch (EmptyResultDataAccessException x) {
+                zone = Optional.empty();
+            }
+            bySubdomain.put(key, zone);
+        }
+        return copy(zone.orElseThrow(() -> new EmptyResultDataAccessException("Zone not found for subdomain " + key, 1)));
+    }
+
+    @Override
+    public List<IdentityZone> retrieveAll() {
+        return delegate.retrieveAll();
+    }
+
+    @Override
+    public IdentityZone retrieveIgnoreActiveFlag(String id) {
+        return delegate.retrieveIgnoreActiveFlag(id);
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            invalidate((IdentityZone) event.getSource());
+        } else if (event instanceof EntityDeletedEvent && ((EntityDeletedEvent) event).getDeleted() instanceof IdentityZone) {
+            invalidate((IdentityZone) ((EntityDeletedEvent) event).getDeleted());
+        }
+    }
+
+    public void clear() {
+        byId.invalidateAll();
+        bySubdomain.invalidateAll();
+    }
+
+    protected void invalidate(IdentityZone zone) {
+        if (zone == null) {
+            return;
+        }
+        logger.debug("Invalidating cached identity zone id:" + zone.getId() + "; subdomain:" + zone.getSubdomain());
+        if (zone.getId() != null) {
+            byId.invalidate(zone.getId());
+            //the zone may have been cached under a subdomain it no longer owns
+            bySubdomain.asMap().entrySet().removeIf(
+                entry -> entry.getValue().isPresent() && zone.getId().equals(entry.getValue().get().getId())
+            );
+        }
+        if (zone.getSubdomain() != null) {
+            bySubdomain.invalidate(zone.getSubdomain().toLowerCase());
+        }
+    }
+
+    /**
+     * The configuration is copied the same way it is stored in the database.
+     */
+    private static IdentityZone copy(IdentityZone zone) {
+        IdentityZone copy = new IdentityZone();
+        copy.setId(zone.getId());
+        copy.setVersion(zone.getVersion());
+        copy.setCreated(zone.getCreated() == null ? null : new Date(zone.getCreated().getTime()));
+        copy.setLastModified(zone.getLastModified() == null ? null : new Date(zone.getLastModified().getTime()));
+        copy.setName(zone.getName());
+        copy.setSubdomain(zone.getSubdomain());
+        copy.setDescription(zone.getDescription());
+        if (zone.getConfig() != null) {
+            copy.setConfig(JsonUtils.readValue(JsonUtils.writeValueAsString(zone.getConfig()), IdentityZoneConfiguration.class));
+        } else {
+            copy.setConfig(null);
+        }
+        copy.setActive(zone.isActive());
+        return copy;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "identityZones";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return byId.stats().plus(bySubdomain.stats());
+    }
+
+    @Override
+    public long getCacheSize() {
+        return byId.size() + bySubdomain.size();
+    }
+}
@@ -12,6 +12,13 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.cache.GenerationalCache;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,12 +50,17 @@ import org.springframework.util.StringUtils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import static java.util.Collections.emptySet;
@@ -58,10 +70,16 @@ import static org.springframework.util.StringUtils.commaDelimitedListToSet;
 
 /**
  * A copy of JdbcClientDetailsService but with IdentityZone awareness
+ * <p>
+ * Clients can optionally be cached for a short time, see {@link #setCacheExpiration(Duration)}.
+ * Cached clients are dropped immediately when they are changed on this node. Changes made on other
+ * nodes update {@code lastmodified}, which is compared with the cached client once it is older than
+ * the {@link #setCacheRevalidationInterval(Duration) revalidation interval}.
  */
 public class MultitenantJdbcClientDetailsService extends MultitenantClientServices implements
     ResourceMonitor<ClientDetails>,
-    SystemDeletable {
+    SystemDeletable,
+    MeteredCache {
 
     protected static final Logger logger = LoggerFactory.getLogger(MultitenantJdbcClientDetailsService.class);
 
@@ -94,7 +112,10 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     private static final String DEFAULT_UPDATE_SECRET_STATEMENT =
         "update oauth_client_details "
-            + "set client_secret = ? where client_id = ? and identity_zone_id = ?";
+            + "set client_secret = ?, lastmodified = ? where client_id = ? and identity_zone_id = ?";
+
+    private static final String GET_LAST_MODIFIED_SQL =
+        "select lastmodified from oauth_client_details where client_id = ? and identity_zone_id = ?";
 
     static final String DEFAULT_DELETE_STATEMENT =
         "delete from oauth_client_details where client_id = ? and identity_zone_id = ?";
@@ -102,6 +123,8 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     private static final String DELETE_CLIENTS_BY_ZONE =
         "delete from oauth_client_details where identity_zone_id = ?";
 
+    private static final long LAST_MODIFIED_PRECISION_MILLIS = 1000;
+
     private RowMapper<ClientDetails> rowMapper = new ClientDetailsRowMapper();
 
     private String selectClientDetailsSql = DEFAULT_SELECT_STATEMENT;
@@ -112,6 +135,12 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     private JdbcListFactory listFactory;
 
+    private TimeService timeService = new TimeServiceImpl();
+    private Duration cacheExpiration = Duration.ZERO;
+    private Duration cacheRevalidationInterval = Duration.ofSeconds(1);
+    private int cacheMaxEntries = 10000;
+    private volatile GenerationalCache<CachedClient> cache = buildCache();
+
     public MultitenantJdbcClientDetailsService(
             final JdbcTemplate jdbcTemplate,
             final IdentityZoneManager identityZoneManager,
@@ -125,6 +154,20 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public ClientDetails loadClientByClientId(String clientId, String zoneId) throws InvalidClientException {
+        if (!isCacheEnabled()) {
+            return loadClient(clientId, zoneId);
+        }
+        ClientDetails cached = getCached(clientId, zoneId);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        long currentGeneration = cache.getGeneration();
+        ClientDetails details = loadClient(clientId, zoneId);
+        putCached(details, zoneId, currentGeneration);
+        return copyOf(details);
+    }
+
+    private ClientDetails loadClient(String clientId, String zoneId) throws InvalidClientException {
         ClientDetails details;
         try {
             details = jdbcTemplate.queryForObject(selectClientDetailsSql, new ClientDetailsRowMapper(), clientId, zoneId);
@@ -141,12 +184,15 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
             jdbcTemplate.update(DEFAULT_INSERT_STATEMENT, getInsertClientDetailsFields(clientDetails, zoneId));
         } catch (DuplicateKeyException e) {
             throw new ClientAlreadyExistsException("Client already exists: " + clientDetails.getClientId(), e);
+        } finally {
+            invalidateClient(clientDetails.getClientId(), zoneId);
         }
     }
 
     @Override
     public void updateClientDetails(ClientDetails clientDetails, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_STATEMENT, getFieldsForUpdate(clientDetails, zoneId));
+        invalidateClient(clientDetails.getClientId(), zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientDetails.getClientId() + " in identity zone id=" + zoneId);
         }
@@ -154,7 +200,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public void updateClientSecret(String clientId, String secret, String zoneId) throws NoSuchClientException {
-        int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, passwordEncoder.encode(secret), clientId, zoneId);
+        int count = updateSecret(clientId, passwordEncoder.encode(secret), zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -235,12 +281,17 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        int count = jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        if (isCacheEnabled()) {
+            cache.invalidateZone(zoneId);
+        }
+        return count;
     }
 
     @Override
     public int deleteByClient(String clientId, String zoneId) {
         int count = jdbcTemplate.update(DEFAULT_DELETE_STATEMENT, clientId, zoneId);
+        invalidateClient(clientId, zoneId);
         if (count == 0) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -254,12 +305,13 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public void addClientSecret(String clientId, String newSecret, String zoneId) throws NoSuchClientException {
-        ClientDetails clientDetails = loadClientByClientId(clientId, zoneId);
+        //the current secrets are read from the database, a cached client may lag behind other nodes
+        ClientDetails clientDetails = loadClient(clientId, zoneId);
         String encodedNewSecret = passwordEncoder.encode(newSecret);
         StringBuilder newSecretBuilder = new StringBuilder()
             .append(clientDetails.getClientSecret()==null ? "" : clientDetails.getClientSecret() +" ")
             .append(encodedNewSecret);
-        int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, newSecretBuilder.toString(), clientId, zoneId);
+        int count = updateSecret(clientId, newSecretBuilder.toString(), zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -267,14 +319,167 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public void deleteClientSecret(String clientId, String zoneId) throws NoSuchClientException {
-        ClientDetails clientDetails = loadClientByClientId(clientId, zoneId);
+        ClientDetails clientDetails = loadClient(clientId, zoneId);
         String clientSecret = clientDetails.getClientSecret().split(" ")[1];
-        int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, clientSecret, clientId, zoneId);
+        int count = updateSecret(clientId, clientSecret, zoneId);
         if (count != 1) {
             throw new NoSuchClientException("Unable to update client with " + clientId);
         }
     }
 
+    private int updateSecret(String clientId, String encodedSecret, String zoneId) {
+        int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, encodedSecret, new Timestamp(System.currentTimeMillis()), clientId, zoneId);
+        invalidateClient(clientId, zoneId);
+        return count;
+    }
+
+    private ClientDetails getCached(String clientId, String zoneId) {
+        CachedClient cached = cache.get(zoneId, clientId);
+        if (cached == null) {
+            return null;
+        }
+        long now = timeService.getCurrentTimeMillis();
+        if (now - cached.cachedAt >= cacheExpiration.toMillis()) {
+            cache.remove(zoneId, clientId, cached);
+            return null;
+        }
+        if (now - cached.verifiedAt >= cacheRevalidationInterval.toMillis()) {
+            //cheaper than loading the client, and catches changes made on other nodes
+            if (!cached.isRevalidatable()) {
+                cache.remove(zoneId, clientId, cached);
+                return null;
+            }
+            List<Timestamp> lastModified = jdbcTemplate.queryForList(GET_LAST_MODIFIED_SQL, Timestamp.class, clientId, zoneId);
+            if (lastModified.size() != 1 || !Objects.equals(lastModified.get(0), cached.lastModified)) {
+                cache.remove(zoneId, clientId, cached);
+                return null;
+            }
+            cached.verifiedAt = now;
+        }
+        return cached.details;
+    }
+
+    private void putCached(ClientDetails details, String zoneId, long clientGeneration) {
+        Object lastModified = details.getAdditionalInformation().get("lastModified");
+        long now = timeService.getCurrentTimeMillis();
+        CachedClient cached = new CachedClient(details, lastModified instanceof Timestamp ? (Timestamp) lastModified : null, now);
+        cache.put(zoneId, details.getClientId(), cached, clientGeneration);
+    }
+
+    private void invalidateClient(String clientId, String zoneId) {
+        if (isCacheEnabled()) {
+            cache.invalidate(zoneId, clientId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClientDetails copyOf(ClientDetails details) {
+        //callers modify loaded clients, for example before updating them
+        BaseClientDetails copy = new BaseClientDetails(details);
+        copy.setAdditionalInformation((Map<String, Object>) deepCopy(details.getAdditionalInformation()));
+        if (details instanceof BaseClientDetails && ((BaseClientDetails) details).getAutoApproveScopes() != null) {
+            copy.setAutoApproveScopes(new HashSet<>(((BaseClientDetails) details).getAutoApproveScopes()));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the maps and collections of the additional information, such as allowedproviders,
+     * and the lastModified timestamp. The remaining values are strings, numbers and booleans.
+     */
+    private static Object deepCopy(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> copy.put(k, deepCopy(v)));
+            return copy;
+        } else if (value instanceof Set) {
+            Set<Object> copy = new LinkedHashSet<>();
+            ((Set<?>) value).forEach(v -> copy.add(deepCopy(v)));
+            return copy;
+        } else if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            ((Collection<?>) value).forEach(v -> copy.add(deepCopy(v)));
+            return copy;
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).clone();
+        }
+        return value;
+    }
+
+    private GenerationalCache<CachedClient> buildCache() {
+        Cache<String, CachedClient> clients = CacheBuilder
+            .newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .recordStats()
+            .build();
+        return new GenerationalCache<>(clients);
+    }
+
+    public boolean isCacheEnabled() {
+        return !cacheExpiration.isZero() && !cacheExpiration.isNegative();
+    }
+
+    /**
+     * @param cacheExpiration how long clients are served from memory, zero disables the cache
+     */
+    public void setCacheExpiration(Duration cacheExpiration) {
+        this.cacheExpiration = cacheExpiration;
+        this.cache = buildCache();
+    }
+
+    /**
+     * @param cacheRevalidationInterval how long a cached client is served before its {@code lastmodified} is checked again
+     */
+    public void setCacheRevalidationInterval(Duration cacheRevalidationInterval) {
+        this.cacheRevalidationInterval = cacheRevalidationInterval;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.cache = buildCache();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "clientDetails";
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    private static final class CachedClient {
+        private final ClientDetails details;
+        private final Timestamp lastModified;
+        private final long cachedAt;
+        private volatile long verifiedAt;
+
+        CachedClient(ClientDetails details, Timestamp lastModified, long cachedAt) {
+            this.details = details;
+            this.lastModified = lastModified;
+            this.cachedAt = cachedAt;
+            this.verifiedAt = cachedAt;
+        }
+
+        /**
+         * lastmodified may only have a precision of seconds, so a change in the same second
+         * as the client was read would go unnoticed. Such clients are reloaded instead.
+         */
+        boolean isRevalidatable() {
+            return lastModified != null && cachedAt - lastModified.getTime() >= LAST_MODIFIED_PRECISION_MILLIS;
+        }
+    }
+
 
     /**
      * Row mapper for ClientDetails.
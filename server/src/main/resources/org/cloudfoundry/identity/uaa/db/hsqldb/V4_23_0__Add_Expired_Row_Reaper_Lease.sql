@@ -0,0 +1,5 @@
+CREATE TABLE expired_row_reaper_lease (
+  lease_name VARCHAR(64) NOT NULL PRIMARY KEY,
+  lease_owner VARCHAR(36) NOT NULL,
+  expires_at BIGINT NOT NULL
+);
@@ -0,0 +1,8 @@
+CREATE TABLE revocable_tokens_invalidation (
+  token_id VARCHAR(36) NOT NULL,
+  identity_zone_id VARCHAR(36) NOT NULL,
+  invalidated_at BIGINT NOT NULL,
+  PRIMARY KEY (token_id, identity_zone_id)
+);
+
+CREATE INDEX revocable_tokens_invalidated_at ON revocable_tokens_invalidation(invalidated_at);
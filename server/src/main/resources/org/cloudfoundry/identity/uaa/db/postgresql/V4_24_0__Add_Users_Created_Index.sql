@@ -0,0 +1 @@
+CREATE INDEX users_zone_created_id_idx ON users (identity_zone_id, created, id);
@@ -0,0 +1,4 @@
+CREATE TABLE identity_provider_epoch (
+  identity_zone_id VARCHAR(36) NOT NULL PRIMARY KEY,
+  epoch BIGINT NOT NULL
+);
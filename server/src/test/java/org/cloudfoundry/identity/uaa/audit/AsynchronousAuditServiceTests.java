@@ -0,0 +1,213 @@
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.MfaAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.MfaAuthenticationSuccess;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PasswordChangeSuccess;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.TokenIssuedEvent;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAccountUnlockedEvent;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationSuccess;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class AsynchronousAuditServiceTests {
+
+    private UaaAuditService delegate;
+    private AsynchronousAuditService auditService;
+
+    @BeforeEach
+    void setup() {
+        delegate = mock(UaaAuditService.class);
+        //the writer thread stays idle unless a test flushes
+        auditService = new AsynchronousAuditService(delegate, 2, 100, 60_000);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        auditService.destroy();
+    }
+
+    @Test
+    void events_are_written_in_batches() {
+        AuditEvent issued = event(TokenIssuedEvent, "user1", "zone1");
+        AuditEvent success = event(UserAuthenticationSuccess, "user1", "zone1");
+        auditService.log(issued, "zone1");
+        auditService.log(success, "zone1");
+        verify(delegate, never()).log(anyList());
+
+        auditService.flush();
+
+        verify(delegate).log(Arrays.asList(issued, success));
+        assertEquals(2, auditService.getWrittenCount());
+        assertEquals(1, auditService.getBatchCount());
+    }
+
+    @Test
+    void writer_flushes_after_interval() throws Exception {
+        auditService.destroy();
+        auditService = new AsynchronousAuditService(delegate, 2, 100, 10);
+        AuditEvent issued = event(TokenIssuedEvent, "user1", "zone1");
+        auditService.log(issued, "zone1");
+
+        verify(delegate, timeout(5000)).log(Collections.singletonList(issued));
+    }
+
+    @Test
+    void find_writes_queued_events_of_principal_first() {
+        AuditEvent issued = event(TokenIssuedEvent, "user1", "zone1");
+        auditService.log(issued, "zone1");
+
+        auditService.find("user1", 0, "zone1");
+
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).log(Collections.singletonList(issued));
+        order.verify(delegate).find("user1", 0, "zone1");
+    }
+
+    @Test
+    void find_does_not_write_events_of_other_principals() {
+        auditService.log(event(TokenIssuedEvent, "user2", "zone1"), "zone1");
+        auditService.log(event(TokenIssuedEvent, "user1", "zone2"), "zone2");
+
+        auditService.find("user1", 0, "zone1");
+
+        verify(delegate, never()).log(anyList());
+        verify(delegate).find("user1", 0, "zone1");
+    }
+
+    @Test
+    void event_is_logged_in_given_zone() {
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "other-zone");
+        auditService.find("user1", 0, "other-zone");
+        verify(delegate).log(anyList());
+    }
+
+    @Test
+    void caller_writes_when_queue_is_full() {
+        AuditEvent first = event(TokenIssuedEvent, "user1", "zone1");
+        AuditEvent second = event(TokenIssuedEvent, "user2", "zone1");
+        AuditEvent third = event(TokenIssuedEvent, "user3", "zone1");
+        auditService.log(first, "zone1");
+        auditService.log(second, "zone1");
+        auditService.log(third, "zone1");
+
+        verify(delegate).log(third, "zone1");
+        verify(delegate, never()).log(anyList());
+        assertEquals(1, auditService.getCallerRunsCount());
+        assertEquals(2, auditService.getQueueSize());
+    }
+
+    @Test
+    void events_are_dropped_when_queue_is_full() {
+        auditService.setOverflowPolicy(AsynchronousAuditService.OverflowPolicy.DROP);
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "zone1");
+        auditService.log(event(TokenIssuedEvent, "user2", "zone1"), "zone1");
+        auditService.log(event(TokenIssuedEvent, "user3", "zone1"), "zone1");
+
+        verify(delegate, never()).log(any(AuditEvent.class), eq("zone1"));
+        assertEquals(1, auditService.getDroppedCount());
+        assertEquals(2, auditService.getQueueSize());
+    }
+
+    @Test
+    void disabled_service_writes_synchronously() {
+        auditService.setEnabled(false);
+        AuditEvent issued = event(TokenIssuedEvent, "user1", "zone1");
+        auditService.log(issued, "zone1");
+        verify(delegate).log(issued, "zone1");
+    }
+
+    @Test
+    void destroy_writes_queued_events() throws Exception {
+        AuditEvent issued = event(TokenIssuedEvent, "user1", "zone1");
+        auditService.log(issued, "zone1");
+        auditService.destroy();
+        verify(delegate).log(Collections.singletonList(issued));
+    }
+
+    @Test
+    void authentication_failures_are_written_synchronously_after_queued_events_of_principal() {
+        AuditEvent success = event(UserAuthenticationSuccess, "user1", "zone1");
+        AuditEvent other = event(UserAuthenticationSuccess, "user2", "zone1");
+        AuditEvent failure = event(UserAuthenticationFailure, "user1", "zone1");
+        AuditEvent mfaFailure = event(MfaAuthenticationFailure, "user1", "zone1");
+        auditService.log(success, "zone1");
+        auditService.log(other, "zone1");
+        auditService.log(failure, "zone1");
+        auditService.log(mfaFailure, "zone1");
+
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).log(Collections.singletonList(success));
+        order.verify(delegate).log(failure, "zone1");
+        order.verify(delegate).log(mfaFailure, "zone1");
+        verify(delegate, never()).log(Collections.singletonList(other));
+        assertEquals(1, auditService.getQueueSize());
+    }
+
+    @Test
+    void authentication_failures_are_not_dropped_when_queue_is_full() {
+        auditService.setOverflowPolicy(AsynchronousAuditService.OverflowPolicy.DROP);
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "zone1");
+        auditService.log(event(TokenIssuedEvent, "user2", "zone1"), "zone1");
+        AuditEvent failure = event(UserAuthenticationFailure, "user3", "zone1");
+        auditService.log(failure, "zone1");
+
+        verify(delegate).log(failure, "zone1");
+        assertEquals(0, auditService.getDroppedCount());
+    }
+
+    @Test
+    void events_resetting_failures_are_not_dropped_when_queue_is_full() {
+        auditService.setOverflowPolicy(AsynchronousAuditService.OverflowPolicy.DROP);
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "zone1");
+        auditService.log(event(TokenIssuedEvent, "user2", "zone1"), "zone1");
+        AuditEvent success = event(UserAuthenticationSuccess, "user3", "zone1");
+        AuditEvent passwordChange = event(PasswordChangeSuccess, "user3", "zone1");
+        AuditEvent unlocked = event(UserAccountUnlockedEvent, "user3", "zone1");
+        AuditEvent mfaSuccess = event(MfaAuthenticationSuccess, "user3", "zone1");
+        auditService.log(success, "zone1");
+        auditService.log(passwordChange, "zone1");
+        auditService.log(unlocked, "zone1");
+        auditService.log(mfaSuccess, "zone1");
+
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).log(success, "zone1");
+        order.verify(delegate).log(passwordChange, "zone1");
+        order.verify(delegate).log(unlocked, "zone1");
+        order.verify(delegate).log(mfaSuccess, "zone1");
+        assertEquals(0, auditService.getDroppedCount());
+        assertEquals(4, auditService.getCallerRunsCount());
+    }
+
+    @Test
+    void writer_is_not_started_until_events_are_queued() {
+        auditService.setEnabled(false);
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "zone1");
+        assertFalse(auditService.isWriterStarted());
+
+        auditService.setEnabled(true);
+        auditService.log(event(TokenIssuedEvent, "user1", "zone1"), "zone1");
+        assertTrue(auditService.isWriterStarted());
+    }
+
+    private static AuditEvent event(AuditEventType type, String principal, String zoneId) {
+        return new AuditEvent(type, principal, "1.1.1.1", "joe", System.currentTimeMillis(), zoneId, null, null);
+    }
+}
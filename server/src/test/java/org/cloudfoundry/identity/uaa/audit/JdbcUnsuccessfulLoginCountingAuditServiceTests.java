@@ -23,6 +23,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -211,6 +212,53 @@ public class JdbcUnsuccessfulLoginCountingAuditServiceTests extends JdbcTestBase
         assertThat(auditService.find("1", 0, mfaFailureEvent.getIdentityZoneId()), is(empty()));
     }
 
+    @Test
+    public void batchedEventsAreAppliedInOrder() {
+        auditService.log(Arrays.asList(
+            getAuditEvent(UserAuthenticationFailure, "1", "joe"),
+            getAuditEvent(UserAuthenticationSuccess, "1", "joe"),
+            getAuditEvent(UserAuthenticationFailure, "1", "joe"),
+            getAuditEvent(UserAuthenticationFailure, "1", "joe")
+        ));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(2));
+    }
+
+    @Test
+    public void expiredFailuresAreLeftToReaper() {
+        jdbcTemplate.update("DELETE FROM sec_audit");
+        auditService.setDeleteExpiredRowsInline(false);
+        auditService.setLimitSqlAdapter(limitSqlAdapter);
+        long now = System.currentTimeMillis();
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        // Set the created column to 25 hours past
+        jdbcTemplate.update("update sec_audit set created=?", new Timestamp(now - 25 * 3600 * 1000));
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(3));
+
+        assertEquals(1, auditService.deleteExpiredRows(1));
+        assertEquals(1, auditService.deleteExpiredRows(10));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(1));
+    }
+
+    @Test
+    public void reaperUsesTimeService() {
+        jdbcTemplate.update("DELETE FROM sec_audit");
+        auditService.setDeleteExpiredRowsInline(false);
+        auditService.setLimitSqlAdapter(limitSqlAdapter);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        assertEquals(0, auditService.deleteExpiredRows(10));
+
+        auditService.setTimeService(new TimeService() {
+            @Override
+            public long getCurrentTimeMillis() {
+                return System.currentTimeMillis() + (25 * 3600 * 1000);
+            }
+        });
+        assertEquals(1, auditService.deleteExpiredRows(10));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
+    }
+
     private AuditEvent getAuditEvent(AuditEventType type, String principal, String data) {
         return new AuditEvent(type, principal, authDetails, data, System.currentTimeMillis(), IdentityZone.getUaaZoneId(), null, null);
     }
@@ -19,6 +19,11 @@ import org.cloudfoundry.identity.uaa.impl.config.RestTemplateConfig;
 import org.cloudfoundry.identity.uaa.provider.SlowHttpServer;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.junit.jupiter.api.*;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -28,6 +33,7 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -125,6 +131,115 @@ class ExpiringUrlCacheTests {
         assertEquals(2, cache.size());
     }
 
+    @Nested
+    @DisplayName("When content is fetched with a request entity")
+    class ExchangedContent {
+        private AtomicLong now;
+        private byte[] updated = new byte[16];
+
+        @BeforeEach
+        void setupExchange() {
+            now = new AtomicLong(Instant.now().toEpochMilli());
+            when(mockTimeService.getCurrentTimeMillis()).thenAnswer(e -> now.get());
+            cache = new ExpiringUrlCache(CACHE_EXPIRATION, mockTimeService, 2, Duration.ofHours(1), Duration.ofSeconds(30));
+            template = mock(RestTemplate.class);
+        }
+
+        private void respond(String cacheControl, byte[]... bodies) {
+            HttpHeaders headers = new HttpHeaders();
+            if (cacheControl != null) {
+                headers.setCacheControl(cacheControl);
+            }
+            ResponseEntity<byte[]> first = new ResponseEntity<>(bodies[0], headers, HttpStatus.OK);
+            ResponseEntity<byte[]>[] rest = Arrays.stream(bodies).skip(1).map(b -> new ResponseEntity<>(b, headers, HttpStatus.OK)).toArray(ResponseEntity[]::new);
+            when(template.exchange(any(URI.class), eq(HttpMethod.GET), any(), eq(byte[].class))).thenReturn(first, rest);
+        }
+
+        private void advance(Duration duration) {
+            now.addAndGet(duration.toMillis());
+        }
+
+        @Test
+        void max_age_is_honoured() {
+            respond("public, max-age=60", content, updated);
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+            advance(Duration.ofSeconds(59));
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+            advance(Duration.ofSeconds(2));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+            verify(template, times(2)).exchange(any(URI.class), eq(HttpMethod.GET), any(), eq(byte[].class));
+        }
+
+        @Test
+        void max_age_is_bounded_by_cache_expiration() {
+            respond("max-age=86400", content, updated);
+            cache.getUrlContent(uri, template, HttpMethod.GET, null);
+            advance(CACHE_EXPIRATION.plusSeconds(1));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+        }
+
+        @Test
+        void no_cache_is_bounded_by_min_refresh_interval() {
+            respond("no-cache", content, updated);
+            cache.getUrlContent(uri, template, HttpMethod.GET, null);
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+            advance(Duration.ofSeconds(31));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+        }
+
+        @Test
+        void stale_content_is_served_when_unavailable() {
+            respond(null, content);
+            cache.getUrlContent(uri, template, HttpMethod.GET, null);
+            when(template.exchange(any(URI.class), eq(HttpMethod.GET), any(), eq(byte[].class))).thenThrow(new ResourceAccessException("mock"));
+
+            advance(CACHE_EXPIRATION.plusSeconds(1));
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+
+            advance(Duration.ofHours(1));
+            assertThrows(ResourceAccessException.class, () -> cache.getUrlContent(uri, template, HttpMethod.GET, null));
+        }
+
+        @Test
+        void invalidate_is_rate_limited() {
+            respond(null, content, updated);
+            cache.getUrlContent(uri, template, HttpMethod.GET, null);
+            assertFalse(cache.invalidate(uri));
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+
+            advance(Duration.ofSeconds(31));
+            assertTrue(cache.invalidate(uri));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, null));
+        }
+
+        @Test
+        void content_is_not_shared_between_credentials() {
+            respond(null, content, updated);
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client1:secret1")));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client2:secret2")));
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client1:secret1")));
+            verify(template, times(2)).exchange(any(URI.class), eq(HttpMethod.GET), any(), eq(byte[].class));
+        }
+
+        @Test
+        void invalidate_request_only_affects_that_request() {
+            respond(null, content, content, updated);
+            cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client1:secret1"));
+            cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client2:secret2"));
+            advance(Duration.ofSeconds(31));
+
+            assertTrue(cache.invalidate(uri, HttpMethod.GET, authorized("client2:secret2")));
+            assertSame(content, cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client1:secret1")));
+            assertSame(updated, cache.getUrlContent(uri, template, HttpMethod.GET, authorized("client2:secret2")));
+        }
+
+        private HttpEntity<?> authorized(String credentials) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add("Authorization", "Basic " + credentials);
+            return new HttpEntity<>(null, headers);
+        }
+    }
+
     @Nested
     @DisplayName("When a http server never returns a http response")
     class DeadHttpServer {
@@ -0,0 +1,66 @@
+package org.cloudfoundry.identity.uaa.cache;
+
+import com.google.common.cache.CacheBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GenerationalCacheTests {
+
+    private GenerationalCache<String> cache;
+
+    @BeforeEach
+    void setup() {
+        cache = new GenerationalCache<>(CacheBuilder.newBuilder().<String, String>build());
+    }
+
+    @Test
+    void value_read_before_invalidation_is_not_cached() {
+        long generation = cache.getGeneration();
+        cache.invalidate("zone1", "id1");
+        cache.put("zone1", "id1", "stale", generation);
+        assertNull(cache.get("zone1", "id1"));
+
+        cache.put("zone1", "id1", "current", cache.getGeneration());
+        assertEquals("current", cache.get("zone1", "id1"));
+    }
+
+    @Test
+    void invalidate_removes_only_that_value() {
+        cache.put("zone1", "id1", "value1", cache.getGeneration());
+        cache.put("zone1", "id2", "value2", cache.getGeneration());
+        cache.invalidate("zone1", "id1");
+        assertNull(cache.get("zone1", "id1"));
+        assertEquals("value2", cache.get("zone1", "id2"));
+    }
+
+    @Test
+    void invalidate_zone_removes_values_of_zone() {
+        cache.put("zone1", "id1", "value1", cache.getGeneration());
+        cache.put("zone2", "id1", "value2", cache.getGeneration());
+        cache.invalidateZone("zone1");
+        assertNull(cache.get("zone1", "id1"));
+        assertEquals("value2", cache.get("zone2", "id1"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void invalidate_if_removes_matching_values() {
+        cache.put("zone1", "id1", "value1", cache.getGeneration());
+        cache.put("zone1", "id2", "value2", cache.getGeneration());
+        cache.invalidateIf("value2"::equals);
+        assertEquals("value1", cache.get("zone1", "id1"));
+        assertNull(cache.get("zone1", "id2"));
+    }
+
+    @Test
+    void remove_keeps_replaced_value() {
+        cache.put("zone1", "id1", "value1", cache.getGeneration());
+        cache.remove("zone1", "id1", "other");
+        assertEquals("value1", cache.get("zone1", "id1"));
+        cache.remove("zone1", "id1", "value1");
+        assertNull(cache.get("zone1", "id1"));
+    }
+}
@@ -248,4 +248,24 @@ public class ExpiringCodeStoreTests extends JdbcTestBase {
         }
 
     }
+
+    @Test
+    public void testExpiredCodesAreLeftToReaper() throws Exception {
+        long now = System.currentTimeMillis();
+        when(timeService.getCurrentTimeMillis()).thenReturn(now);
+        if (JdbcExpiringCodeStore.class == expiringCodeStoreClass) {
+            JdbcExpiringCodeStore store = (JdbcExpiringCodeStore) expiringCodeStore;
+            store.setDeleteExpiredRowsInline(false);
+            store.setLimitSqlAdapter(limitSqlAdapter);
+            jdbcTemplate.update(JdbcExpiringCodeStore.insert, "test1", now - 1000, "{}", null, IdentityZoneHolder.get().getId());
+            jdbcTemplate.update(JdbcExpiringCodeStore.insert, "test2", now - 1000, "{}", null, IdentityZoneHolder.get().getId());
+            jdbcTemplate.update(JdbcExpiringCodeStore.insert, "test3", now + 60000, "{}", null, IdentityZoneHolder.get().getId());
+            Assert.assertEquals(0, store.cleanExpiredEntries());
+            Assert.assertEquals(3, countCodes());
+
+            Assert.assertEquals(1, store.deleteExpiredRows(1));
+            Assert.assertEquals(1, store.deleteExpiredRows(10));
+            Assert.assertEquals(1, countCodes());
+        }
+    }
 }
@@ -5,6 +5,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.security.Security;
+import java.util.Arrays;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
@@ -44,4 +45,30 @@ public class EncryptionServiceTest {
         assertThat(ciphertext, is(notNullValue()));
         new EncryptionService("invalid-password").decrypt(ciphertext);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encrypt_withCachedKeysAndReusedSalt_shouldStillUseFreshNonces() throws EncryptionServiceException {
+        EncryptionService cached = new EncryptionService("some-password", 10, true);
+        byte[] ciphertext1 = cached.encrypt("bob");
+        byte[] ciphertext2 = cached.encrypt("bob");
+        assertThat(ciphertext1, not(ciphertext2));
+        assertThat(Arrays.copyOfRange(ciphertext1, 0, 12), not(Arrays.copyOfRange(ciphertext2, 0, 12)));
+        assertThat(Arrays.copyOfRange(ciphertext1, 12, 44), is(Arrays.copyOfRange(ciphertext2, 12, 44)));
+        assertThat(new String(cached.decrypt(ciphertext1)), is("bob"));
+        assertThat(new String(cached.decrypt(ciphertext2)), is("bob"));
+    }
+
+    @Test
+    public void decrypt_withCachedKeys_isCompatibleWithUncachedService() throws EncryptionServiceException {
+        EncryptionService cached = new EncryptionService("some-password", 10, true);
+        assertThat(new String(cached.decrypt(service.encrypt("bob"))), is("bob"));
+        assertThat(new String(cached.decrypt(service.encrypt("bob"))), is("bob"));
+        assertThat(new String(service.decrypt(cached.encrypt("bob"))), is("bob"));
+    }
+
+    @Test(expected = EncryptionServiceException.class)
+    public void decrypt_withCachedKeys_shouldNotDecryptWithInvalidPassphrase() throws EncryptionServiceException {
+        byte[] ciphertext = new EncryptionService("some-password", 10, true).encrypt("bob");
+        new EncryptionService("invalid-password", 10, true).decrypt(ciphertext);
+    }
+}
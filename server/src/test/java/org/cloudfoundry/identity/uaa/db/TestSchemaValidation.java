@@ -48,6 +48,13 @@ public class TestSchemaValidation extends JdbcTestBase {
     }
 
 
+    @Test
+    public void test_v4_24_0__That_Users_Created_Index_Exists() throws Exception {
+        String[] tableNames = {"users", "USERS"};
+        validate_index_existence(tableNames, "users_zone_created_id_idx");
+    }
+
+
     public void validate_index_existence(String[] tableNames, String lookupIndexName) throws Exception {
 
         Connection connection = dataSource.getConnection();
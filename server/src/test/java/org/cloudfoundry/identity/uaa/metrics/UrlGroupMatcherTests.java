@@ -0,0 +1,92 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class UrlGroupMatcherTests {
+
+    private List<UrlGroup> groups;
+    private UrlGroupMatcher matcher;
+
+    @BeforeEach
+    void setup() throws Exception {
+        groups = new UaaMetricsFilter().getUrlGroups();
+        matcher = new UrlGroupMatcher(groups, 100);
+    }
+
+    @Test
+    void matches_same_group_as_linear_scan() {
+        for (String path : Arrays.asList(
+            "/",
+            "",
+            "/authenticate",
+            "/oauth/token",
+            "/oauth/token/list/user/1",
+            "/oauth/token/revoke/abc",
+            "/oauth/token/.well-known/openid-configuration",
+            "/oauth/clients",
+            "/oauth/clients/tx/secret",
+            "/oauth/clients/tx/modify",
+            "/oauth/clients/some-client/secret",
+            "/oauth/clients/some-client/meta",
+            "/oauth/clients/restricted",
+            "/Groups",
+            "/Groups/",
+            "/Groups/abc/members/def",
+            "/Groups/External/list",
+            "/Groups/abc",
+            "/groups/abc",
+            "/Users/abc/password",
+            "/ids/Users",
+            "/error",
+            "/error404",
+            "/login",
+            "/login.do",
+            "/login/callback/oidc",
+            "/vendor/font-awesome/css",
+            "//Users",
+            "/some/unknown/path")) {
+            assertSame(linearScan(request(path)), matcher.match(request(path)), "Testing URL: " + path);
+        }
+    }
+
+    @Test
+    void no_match_returns_null() {
+        matcher = new UrlGroupMatcher(groups.subList(0, 3), 100);
+        assertNull(matcher.match(request("/Users")));
+    }
+
+    @Test
+    void results_are_memoized() {
+        matcher.match(request("/Users/abc"));
+        matcher.match(request("/Users/abc"));
+        matcher.match(request("/Users/def"));
+        assertEquals(2, matcher.getMemoSize());
+    }
+
+    private UrlGroup linearScan(MockHttpServletRequest request) {
+        for (UrlGroup group : groups) {
+            if (new AntPathRequestMatcher(group.getPattern()).matches(request)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/uaa");
+        request.setRequestURI("/uaa" + path);
+        request.setPathInfo(path);
+        return request;
+    }
+}
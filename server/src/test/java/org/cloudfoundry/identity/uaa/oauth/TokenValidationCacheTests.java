@@ -0,0 +1,112 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.client.event.SecretChangeEvent;
+import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.USER_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TokenValidationCacheTests {
+
+    private static final String TOKEN = "header.claims.signature";
+
+    private TokenValidationCache cache;
+    private TimeService timeService;
+    private long now;
+    private Map<String, Object> claims;
+    private TokenValidation validation;
+
+    @BeforeEach
+    void setup() {
+        now = 1_000_000_000L;
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenAnswer(invocation -> now);
+        cache = new TokenValidationCache(timeService, Duration.ofMinutes(1), 1024 * 1024);
+        cache.setEnabled(true);
+
+        claims = new HashMap<>();
+        claims.put(USER_ID, "user-id");
+        claims.put(CID, "client-id");
+        claims.put(EXP, (now / 1000) + 3600);
+        validation = mock(TokenValidation.class);
+        Jwt jwt = mock(Jwt.class);
+        when(jwt.getEncoded()).thenReturn(TOKEN);
+        when(validation.getJwt()).thenReturn(jwt);
+        when(validation.getClaims()).thenReturn(claims);
+    }
+
+    @Test
+    void validations_are_zone_scoped() {
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        assertSame(validation, cache.get(TOKEN, "zone1"));
+        assertNull(cache.get(TOKEN, "zone2"));
+        assertEquals(1, cache.getCacheStats().hitCount());
+    }
+
+    @Test
+    void validations_are_not_served_after_token_expiry() {
+        claims.put(EXP, (now / 1000) + 10);
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        now += 9_000;
+        assertSame(validation, cache.get(TOKEN, "zone1"));
+        now += 2_000;
+        assertNull(cache.get(TOKEN, "zone1"));
+    }
+
+    @Test
+    void expired_tokens_are_not_cached() {
+        claims.put(EXP, (now / 1000) - 1);
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        assertEquals(0, cache.getCacheSize());
+    }
+
+    @Test
+    void validations_are_not_served_after_max_age() {
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        now += Duration.ofMinutes(1).toMillis();
+        assertNull(cache.get(TOKEN, "zone1"));
+    }
+
+    @Test
+    void validation_started_before_invalidation_is_not_cached() {
+        long generation = cache.getGeneration();
+        cache.onApplicationEvent(GroupModifiedEvent.groupModified("group-id", "group", new String[0], "zone1"));
+        cache.put(TOKEN, "zone1", validation, generation);
+        assertNull(cache.get(TOKEN, "zone1"));
+    }
+
+    @Test
+    void secret_change_invalidates_validations_of_client() {
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        cache.put(TOKEN, "zone2", validation, cache.getGeneration());
+
+        cache.onApplicationEvent(new SecretChangeEvent(new BaseClientDetails("client-id", null, null, null, null), mock(Authentication.class), "zone1"));
+
+        assertNull(cache.get(TOKEN, "zone1"));
+        assertSame(validation, cache.get(TOKEN, "zone2"));
+    }
+
+    @Test
+    void disabling_clears_cache() {
+        cache.put(TOKEN, "zone1", validation, cache.getGeneration());
+        cache.setEnabled(false);
+        assertEquals(0, cache.getCacheSize());
+    }
+}
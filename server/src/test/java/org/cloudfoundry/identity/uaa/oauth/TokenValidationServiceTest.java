@@ -1,10 +1,13 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
 import com.google.common.collect.Lists;
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableTokenProvisioning;
 import org.cloudfoundry.identity.uaa.user.UaaAuthority;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
 import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
 import org.cloudfoundry.identity.uaa.zone.MultitenantClientServices;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
@@ -13,6 +16,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.jwt.crypto.sign.RsaSigner;
@@ -20,13 +24,18 @@ import org.springframework.security.oauth2.common.exceptions.InvalidTokenExcepti
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
 
+import java.time.Duration;
 import java.util.*;
 
 import static org.cloudfoundry.identity.uaa.config.IdentityZoneConfigurationBootstrapTests.PRIVATE_KEY;
 import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.*;
 import static org.cloudfoundry.identity.uaa.util.UaaMapUtils.entry;
 import static org.cloudfoundry.identity.uaa.util.UaaMapUtils.map;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TokenValidationServiceTest {
@@ -150,6 +159,34 @@ public class TokenValidationServiceTest {
         tokenValidationService.validateToken(refreshToken, false);
     }
 
+    @Test
+    public void validationCache_reusesAccessTokenValidation_untilRevoked() {
+        TokenValidationCache validationCache = new TokenValidationCache(new TimeServiceImpl(), Duration.ofMinutes(1), 1024 * 1024);
+        validationCache.setEnabled(true);
+        tokenValidationService.setValidationCache(validationCache);
+        String accessToken = UaaTokenUtils.constructToken(header, content, signer);
+
+        TokenValidation validation = tokenValidationService.validateToken(accessToken, true);
+        assertSame(validation, tokenValidationService.validateToken(accessToken, true));
+        verify(userDatabase, times(1)).retrieveUserById(userId);
+
+        validationCache.onApplicationEvent(new TokenRevocationEvent(userId, null, IdentityZoneHolder.get().getId(), mock(Authentication.class)));
+        assertNotSame(validation, tokenValidationService.validateToken(accessToken, true));
+        verify(userDatabase, times(2)).retrieveUserById(userId);
+    }
+
+    @Test
+    public void validationCache_isNotUsedForRefreshTokens() {
+        TokenValidationCache validationCache = new TokenValidationCache(new TimeServiceImpl(), Duration.ofMinutes(1), 1024 * 1024);
+        validationCache.setEnabled(true);
+        tokenValidationService.setValidationCache(validationCache);
+        String refreshToken = UaaTokenUtils.constructToken(header, content, signer);
+
+        tokenValidationService.validateToken(refreshToken, false);
+        tokenValidationService.validateToken(refreshToken, false);
+        verify(userDatabase, times(2)).retrieveUserById(userId);
+    }
+
     private ArrayList<GrantedAuthority> buildGrantedAuthorities(String authority) {
         ArrayList<GrantedAuthority> grantedAuthorities = new ArrayList<>();
         grantedAuthorities.add(UaaAuthority.authority(authority));
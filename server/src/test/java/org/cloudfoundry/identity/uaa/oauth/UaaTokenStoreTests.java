@@ -19,6 +19,7 @@ import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.oauth.UaaTokenStore;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
@@ -66,6 +67,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class UaaTokenStoreTests extends JdbcTestBase {
 
@@ -267,6 +271,90 @@ public class UaaTokenStoreTests extends JdbcTestBase {
         assertTrue(code.isExpired());
     }
 
+    @Test
+    public void code_can_only_be_consumed_once() {
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        assertNotNull(store.consumeAuthorizationCode(code));
+        try {
+            store.consumeAuthorizationCode(code);
+            fail();
+        } catch (InvalidGrantException e) {}
+    }
+
+    @Test
+    public void code_is_consumed_with_delete_returning() {
+        assumeTrue(Arrays.asList(environment.getActiveProfiles()).contains("postgresql"));
+        LimitSqlAdapter adapter = mock(LimitSqlAdapter.class);
+        when(adapter.supportsDeleteReturning()).thenReturn(true);
+        store.setLimitSqlAdapter(adapter);
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        assertEquals(principal, store.consumeAuthorizationCode(code).getUserAuthentication().getPrincipal());
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code WHERE code = ?", new Object[] {code}, Integer.class), is(0));
+    }
+
+    @Test
+    public void authentication_is_stored_in_json_format_by_default() {
+        String code = store.createAuthorizationCode(usernamePasswordAuthentication);
+        byte[] data = jdbcTemplate.queryForObject("SELECT authentication FROM oauth_code WHERE code = ?", new Object[] {code}, byte[].class);
+        assertEquals('{', data[0]);
+    }
+
+    @Test
+    public void authentication_is_stored_in_binary_format() {
+        store.setWriteBinaryFormat(true);
+        String code = store.createAuthorizationCode(usernamePasswordAuthentication);
+        byte[] data = jdbcTemplate.queryForObject("SELECT authentication FROM oauth_code WHERE code = ?", new Object[] {code}, byte[].class);
+        assertEquals(1, data[0]);
+        assertTrue(data.length < store.serializeOauth2Authentication(usernamePasswordAuthentication).length);
+
+        OAuth2Authentication authentication = store.deserializeOauth2Authentication(data);
+        assertEquals(principal, authentication.getUserAuthentication().getPrincipal());
+        assertEquals(usernamePasswordAuthentication.getOAuth2Request().getRequestParameters(), authentication.getOAuth2Request().getRequestParameters());
+        assertEquals(usernamePasswordAuthentication.getOAuth2Request().getScope(), authentication.getOAuth2Request().getScope());
+        assertEquals(usernamePasswordAuthentication.getOAuth2Request().getAuthorities(), authentication.getOAuth2Request().getAuthorities());
+        assertEquals("clientid", authentication.getOAuth2Request().getClientId());
+        assertTrue(authentication.getOAuth2Request().isApproved());
+    }
+
+    @Test
+    public void json_format_can_still_be_consumed() {
+        OAuth2Authentication authentication = store.deserializeOauth2Authentication(store.serializeOauth2Authentication(uaaAuthentication));
+        assertEquals(principal, authentication.getUserAuthentication().getPrincipal());
+        assertEquals(uaaAuthentication.getOAuth2Request().getScope(), authentication.getOAuth2Request().getScope());
+    }
+
+    @Test
+    public void binary_codes_are_consumed_by_json_writing_store() {
+        store.setWriteBinaryFormat(true);
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        UaaTokenStore jsonStore = new UaaTokenStore(dataSource);
+        assertEquals(principal, jsonStore.consumeAuthorizationCode(code).getUserAuthentication().getPrincipal());
+    }
+
+    @Test
+    public void json_codes_are_consumed_by_binary_writing_store() {
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        UaaTokenStore binaryStore = new UaaTokenStore(dataSource);
+        binaryStore.setWriteBinaryFormat(true);
+        assertEquals(principal, binaryStore.consumeAuthorizationCode(code).getUserAuthentication().getPrincipal());
+    }
+
+    @Test
+    public void expired_codes_are_left_to_reaper() {
+        store.setDeleteExpiredRowsInline(false);
+        String code = store.createAuthorizationCode(clientAuthentication);
+        store.createAuthorizationCode(clientAuthentication);
+        jdbcTemplate.update("UPDATE oauth_code SET expiresat = ?", System.currentTimeMillis() - 60000);
+        try {
+            store.consumeAuthorizationCode(code);
+            fail();
+        } catch (InvalidGrantException e) {}
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(1));
+
+        assertEquals(1, store.deleteExpiredRows(500));
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
+    }
+
     @Test
     public void testCleanUpUnusedOldTokens_MySQL_In_Another_Timezone() throws Exception {
         //only run tests for MySQL for now.
@@ -35,6 +35,7 @@ import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.APPROVED;
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.DENIED;
@@ -230,6 +231,16 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
         assertEquals(1, dao.getApprovals("u1", "c1", IdentityZoneHolder.get().getId()).size());
     }
 
+    @Test
+    public void canGetApprovalsForSeveralUsers() {
+        Map<String, List<Approval>> approvals = dao.getApprovalsForUsers(Arrays.asList("u1", "u2", "u3"), IdentityZoneHolder.get().getId());
+        assertEquals(3, approvals.size());
+        assertEquals(2, approvals.get("u1").size());
+        assertEquals(1, approvals.get("u2").size());
+        assertEquals(0, approvals.get("u3").size());
+        assertEquals(0, dao.getApprovalsForUsers(Arrays.asList("u1", "u2"), otherZone.getId()).get("u1").size());
+    }
+
     @Test
     public void canAddApproval() {
         assertTrue(dao.addApproval(new Approval()
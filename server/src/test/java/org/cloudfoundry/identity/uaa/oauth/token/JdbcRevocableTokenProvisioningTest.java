@@ -26,6 +26,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -71,6 +72,8 @@ class JdbcRevocableTokenProvisioningTest {
     void tearDown() {
         IdentityZoneHolder.clear();
         jdbcTemplate.update("DELETE FROM revocable_tokens");
+        jdbcTemplate.update("DELETE FROM revocable_tokens_epoch");
+        jdbcTemplate.update("DELETE FROM revocable_tokens_invalidation");
     }
 
     static class IdentityZoneArgumentsProvider implements ArgumentsProvider {
@@ -283,6 +286,23 @@ class JdbcRevocableTokenProvisioningTest {
         assertEquals(0, getCountOfTokens(jdbcTemplate));
     }
 
+    @Test
+    void expiredTokensAreLeftToReaper() {
+        jdbcRevocableTokenProvisioning.setDeleteExpiredRowsInline(false);
+        jdbcRevocableTokenProvisioning.create(revocableToken, IdentityZoneHolder.get().getId());
+        revocableToken.setTokenId(generator.generate());
+        jdbcRevocableTokenProvisioning.create(revocableToken, IdentityZoneHolder.get().getId());
+        jdbcTemplate.update("UPDATE revocable_tokens SET expires_at=?", System.currentTimeMillis() - 10000);
+        jdbcRevocableTokenProvisioning.resetLastExpiredCheck();
+        revocableToken.setTokenId(generator.generate());
+        jdbcRevocableTokenProvisioning.create(revocableToken, IdentityZoneHolder.get().getId());
+        assertEquals(3, getCountOfTokens(jdbcTemplate));
+
+        assertEquals(1, jdbcRevocableTokenProvisioning.deleteExpiredRows(1));
+        assertEquals(1, jdbcRevocableTokenProvisioning.deleteExpiredRows(10));
+        assertEquals(1, getCountOfTokens(jdbcTemplate));
+    }
+
     @Test
     void deleteByIdentityZone() {
         IdentityZone zone = MultitenancyFixture.identityZone("test-zone", "test-zone");
@@ -295,11 +315,111 @@ class JdbcRevocableTokenProvisioningTest {
                 () -> jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), IdentityZoneHolder.get().getId()));
     }
 
+    @Test
+    void cachedAccessTokenIsServedFromMemory() {
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ofHours(1));
+        String zoneId = IdentityZoneHolder.get().getId();
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        jdbcTemplate.update("DELETE FROM revocable_tokens");
+
+        assertTokensAreEqual(revocableToken, jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId));
+        assertEquals(1, jdbcRevocableTokenProvisioning.getCacheStats().hitCount());
+    }
+
+    @Test
+    void refreshTokensAreNotCached() {
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ofHours(1));
+        String zoneId = IdentityZoneHolder.get().getId();
+        revocableToken.setResponseType(REFRESH_TOKEN);
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        assertEquals(0, jdbcRevocableTokenProvisioning.getCacheSize());
+    }
+
+    @Test
+    void deleteInvalidatesCachedToken() {
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ofHours(1));
+        String zoneId = IdentityZoneHolder.get().getId();
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        jdbcRevocableTokenProvisioning.delete(revocableToken.getTokenId(), 0, zoneId);
+
+        assertThrows(EmptyResultDataAccessException.class,
+                () -> jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId));
+    }
+
+    @Test
+    void updateInvalidatesCachedToken() {
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ofHours(1));
+        String zoneId = IdentityZoneHolder.get().getId();
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        revocableToken.setScope("openid,uaa.user");
+        jdbcRevocableTokenProvisioning.update(revocableToken.getTokenId(), revocableToken, zoneId);
+
+        assertEquals("openid,uaa.user", jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId).getScope());
+    }
+
+    @Test
+    void deleteByUserInvalidatesCachedTokens() {
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ofHours(1));
+        String zoneId = IdentityZoneHolder.get().getId();
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        jdbcRevocableTokenProvisioning.deleteByUser(TEST_USER_ID, zoneId);
+
+        assertThrows(EmptyResultDataAccessException.class,
+                () -> jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId));
+    }
+
+    @Test
+    void deleteOnOtherNodeInvalidatesCachedToken() {
+        JdbcRevocableTokenProvisioning otherNode = new JdbcRevocableTokenProvisioning(jdbcTemplate, limitSqlAdapter, new TimeServiceImpl());
+        enableCache(otherNode, Duration.ofHours(1));
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ZERO);
+        String zoneId = IdentityZoneHolder.get().getId();
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+
+        otherNode.delete(revocableToken.getTokenId(), 0, zoneId);
+
+        assertThrows(EmptyResultDataAccessException.class,
+                () -> jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId));
+    }
+
+    @Test
+    void deleteOnOtherNodeKeepsOtherCachedTokens() {
+        JdbcRevocableTokenProvisioning otherNode = new JdbcRevocableTokenProvisioning(jdbcTemplate, limitSqlAdapter, new TimeServiceImpl());
+        enableCache(otherNode, Duration.ofHours(1));
+        enableCache(jdbcRevocableTokenProvisioning, Duration.ZERO);
+        String zoneId = IdentityZoneHolder.get().getId();
+        RevocableToken otherToken = createRevocableToken("other-token-id", TEST_USER_ID, TEST_CLIENT_ID, random);
+        jdbcRevocableTokenProvisioning.create(revocableToken, zoneId);
+        jdbcRevocableTokenProvisioning.create(otherToken, zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId);
+        jdbcRevocableTokenProvisioning.retrieve(otherToken.getTokenId(), zoneId);
+
+        otherNode.delete(revocableToken.getTokenId(), 0, zoneId);
+
+        assertThrows(EmptyResultDataAccessException.class,
+                () -> jdbcRevocableTokenProvisioning.retrieve(revocableToken.getTokenId(), zoneId));
+        long hits = jdbcRevocableTokenProvisioning.getCacheStats().hitCount();
+        assertTokensAreEqual(otherToken, jdbcRevocableTokenProvisioning.retrieve(otherToken.getTokenId(), zoneId));
+        assertEquals(hits + 1, jdbcRevocableTokenProvisioning.getCacheStats().hitCount());
+        assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT count(*) FROM revocable_tokens_epoch", Integer.class));
+    }
+
     @Test
     void deleteByOrigin() {
         //no op - doesn't affect tokens
     }
 
+    private static void enableCache(JdbcRevocableTokenProvisioning provisioning, Duration epochCheckInterval) {
+        provisioning.setCacheExpiration(Duration.ofMinutes(1));
+        provisioning.setEpochCheckInterval(epochCheckInterval);
+    }
+
     private static String buildRandomTokenValue(Random random) {
         final int size = 100 + random.nextInt(100);
         final char c = (char) (65 + random.nextInt(26));
@@ -9,6 +9,7 @@ import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
 import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,6 +23,8 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -142,6 +145,40 @@ class KeyInfoServiceTests {
         assertEquals(keyInfoService.getActiveKey().verifierKey(), "testLegacyKey");
     }
 
+    @Test
+    void testParsedKeysAreReusedWhileTokenPolicyIsUnchanged() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+
+        KeyInfo key = keyInfoService.getKey(keyId);
+        assertSame(key, keyInfoService.getKey(keyId));
+        assertSame(key, keyInfoService.getActiveKey());
+    }
+
+    @Test
+    void testParsedKeysAreReplacedWhenTokenPolicyChanges() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, "testkey"));
+
+        KeyInfo updated = keyInfoService.getKey(keyId);
+        assertNotSame(key, updated);
+        assertEquals("testkey", updated.verifierKey());
+    }
+
+    @Test
+    void testParsedKeysAreEvictedOnZoneModification() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        keyInfoService.onApplicationEvent(IdentityZoneModifiedEvent.identityZoneModified(IdentityZone.getUaa()));
+
+        assertNotSame(key, keyInfoService.getKey(keyId));
+    }
+
     private void configureDefaultZoneKeys(Map<String,String> keys) {
         IdentityZoneHolder.clear();
         IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
@@ -276,6 +276,41 @@ public class LdapIdentityProviderDefinitionTest {
         assertNull(def.getGroupRoleAttribute());
     }
 
+    @Test
+    public void test_Search_and_Bind_Pool_Config() throws Exception {
+        String config = "ldap:\n" +
+            "  profile:\n" +
+            "    file: ldap/ldap-search-and-bind.xml\n" +
+            "  base:\n" +
+            "    url: 'ldap://localhost:10389/'\n" +
+            "    userDn: 'cn=admin,ou=Users,dc=test,dc=com'\n" +
+            "    password: 'password'\n" +
+            "    searchBase: ''\n" +
+            "    searchFilter: 'cn={0}'\n" +
+            "  pool:\n" +
+            "    enabled: true\n" +
+            "    maxSize: 4\n" +
+            "    maxWait: 1000\n" +
+            "    idleTimeout: 60000\n" +
+            "    validationFilter: 'objectclass=top'";
+        LdapIdentityProviderDefinition def = LdapUtils.fromConfig(getLdapConfig(config));
+
+        assertTrue(def.isConnectionPoolEnabled());
+        assertEquals(Integer.valueOf(4), def.getConnectionPoolMaxSize());
+        assertEquals(Long.valueOf(1000), def.getConnectionPoolMaxWait());
+        assertEquals(Long.valueOf(60000), def.getConnectionPoolIdleTimeout());
+        assertEquals("objectclass=top", def.getConnectionPoolValidationFilter());
+
+        ConfigurableEnvironment environment = LdapUtils.getLdapConfigurationEnvironment(def);
+        assertEquals("true", environment.getProperty("ldap.pool.enabled"));
+        assertEquals("4", environment.getProperty("ldap.pool.maxSize"));
+        assertEquals("objectclass=top", environment.getProperty("ldap.pool.validationFilter"));
+
+        LdapIdentityProviderDefinition withoutPool = LdapUtils.fromConfig(getLdapConfig(config.substring(0, config.indexOf("  pool:"))));
+        assertFalse(withoutPool.isConnectionPoolEnabled());
+        assertNotEquals(def, withoutPool);
+    }
+
     @Test
     public void test_Search_and_Bind_With_Groups_Config() throws Exception {
         String config = "ldap:\n" +
@@ -294,6 +329,7 @@ public class LdapIdentityProviderDefinitionTest {
             "    searchSubtree: true\n" +
             "    groupSearchFilter: member={0}\n" +
             "    maxSearchDepth: 30\n" +
+            "    cacheExpirySeconds: 60\n" +
             "    autoAdd: true";
         LdapIdentityProviderDefinition def = LdapUtils.fromConfig(getLdapConfig(config));
 
@@ -315,6 +351,7 @@ public class LdapIdentityProviderDefinitionTest {
         assertEquals("ldap/ldap-groups-map-to-scopes.xml", def.getLdapGroupFile());
         assertTrue(def.isGroupSearchSubTree());
         assertEquals(30, def.getMaxGroupSearchDepth());
+        assertEquals(Integer.valueOf(60), def.getGroupCacheExpirySeconds());
         assertTrue(def.isAutoAddGroups());
         assertNull(def.getGroupRoleAttribute());
 
@@ -0,0 +1,52 @@
+package org.cloudfoundry.identity.uaa.provider.ldap;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.support.BaseLdapPathContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+
+import javax.naming.directory.DirContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PooledSearchContextSourceTest {
+
+    private final BaseLdapPathContextSource contextSource = mock(BaseLdapPathContextSource.class);
+
+    @Test
+    void withoutPoolAllContextsComeFromTheContextSource() throws Exception {
+        DirContext readOnly = mock(DirContext.class);
+        DirContext user = mock(DirContext.class);
+        when(contextSource.getReadOnlyContext()).thenReturn(readOnly);
+        when(contextSource.getContext("cn=user", "password")).thenReturn(user);
+        when(contextSource.getBaseLdapPathAsString()).thenReturn("dc=test,dc=com");
+
+        PooledSearchContextSource pooledSearchContextSource = new PooledSearchContextSource(contextSource);
+
+        assertFalse(pooledSearchContextSource.isPooled());
+        assertSame(readOnly, pooledSearchContextSource.getReadOnlyContext());
+        assertSame(user, pooledSearchContextSource.getContext("cn=user", "password"));
+        assertEquals("dc=test,dc=com", pooledSearchContextSource.getBaseLdapPathAsString());
+        pooledSearchContextSource.destroy();
+    }
+
+    @Test
+    void userBindsDoNotUseThePool() throws Exception {
+        DirContext user = mock(DirContext.class);
+        when(contextSource.getContext("cn=user", "password")).thenReturn(user);
+
+        PooledSearchContextSource pooledSearchContextSource = new PooledSearchContextSource(contextSource, new PoolConfig(), "objectclass=*");
+
+        assertTrue(pooledSearchContextSource.isPooled());
+        assertSame(user, pooledSearchContextSource.getContext("cn=user", "password"));
+        verify(contextSource, never()).getReadOnlyContext();
+        assertEquals(0, pooledSearchContextSource.getNumActive());
+        pooledSearchContextSource.destroy();
+    }
+}
@@ -0,0 +1,97 @@
+package org.cloudfoundry.identity.uaa.provider.ldap.extension;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class NestedLdapAuthoritiesPopulatorTest {
+
+    private List<String> searches;
+    private Map<String, List<String>> memberOf;
+    private NestedLdapAuthoritiesPopulator populator;
+
+    @BeforeEach
+    void setUp() {
+        searches = new ArrayList<>();
+        memberOf = new HashMap<>();
+        memberOf.put("uid=user1", Collections.singletonList("cn=developers"));
+        memberOf.put("uid=user2", Collections.singletonList("cn=developers"));
+        memberOf.put("cn=developers", Collections.singletonList("cn=engineering"));
+        memberOf.put("cn=engineering", Collections.emptyList());
+
+        populator = new NestedLdapAuthoritiesPopulator(mock(ContextSource.class), "ou=groups") {
+            @Override
+            protected Set<Map<String, String[]>> searchForGroups(String dn, String name) {
+                searches.add(dn);
+                Set<Map<String, String[]>> groups = new HashSet<>();
+                for (String group : memberOf.get(dn)) {
+                    Map<String, String[]> record = new HashMap<>();
+                    record.put(SpringSecurityLdapTemplate.DN_KEY, new String[] {group});
+                    record.put("cn", new String[] {group.substring(3)});
+                    groups.add(record);
+                }
+                return groups;
+            }
+        };
+        populator.setGroupRoleAttribute("cn");
+        populator.setAttributeNames(new HashSet<>(Collections.singleton("cn")));
+        populator.setRolePrefix("");
+        populator.setConvertToUpperCase(false);
+    }
+
+    @Test
+    void everyLoginSearchesEachLevelWithoutCache() {
+        assertEquals(Arrays.asList("developers", "engineering"), roles(populator.getGroupMembershipRoles("uid=user1", "user1")));
+        assertEquals(Arrays.asList("developers", "engineering"), roles(populator.getGroupMembershipRoles("uid=user1", "user1")));
+
+        assertEquals(6, searches.size());
+    }
+
+    @Test
+    void resolvedGroupsAreCachedPerUser() {
+        populator.setCacheExpirySeconds(60);
+
+        assertEquals(Arrays.asList("developers", "engineering"), roles(populator.getGroupMembershipRoles("uid=user1", "user1")));
+        assertEquals(Arrays.asList("uid=user1", "cn=developers", "cn=engineering"), searches);
+
+        assertEquals(Arrays.asList("developers", "engineering"), roles(populator.getGroupMembershipRoles("uid=user1", "user1")));
+        assertEquals(3, searches.size());
+    }
+
+    @Test
+    void parentGroupsAreSharedBetweenUsers() {
+        populator.setCacheExpirySeconds(60);
+        populator.getGroupMembershipRoles("uid=user1", "user1");
+
+        assertEquals(Arrays.asList("developers", "engineering"), roles(populator.getGroupMembershipRoles("uid=user2", "user2")));
+        assertEquals(Arrays.asList("uid=user1", "cn=developers", "cn=engineering", "uid=user2"), searches);
+    }
+
+    @Test
+    void clearingTheCacheSearchesAgain() {
+        populator.setCacheExpirySeconds(60);
+        populator.getGroupMembershipRoles("uid=user1", "user1");
+        populator.clearCache();
+        populator.getGroupMembershipRoles("uid=user1", "user1");
+
+        assertEquals(6, searches.size());
+    }
+
+    private static List<String> roles(Set<GrantedAuthority> authorities) {
+        return authorities.stream().map(GrantedAuthority::getAuthority).sorted().collect(Collectors.toList());
+    }
+}
@@ -1,10 +1,12 @@
 package org.cloudfoundry.identity.uaa.provider.oauth;
 
+import org.cloudfoundry.identity.uaa.cache.UrlContentCache;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoService;
 import org.cloudfoundry.identity.uaa.oauth.TokenEndpointBuilder;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
@@ -13,11 +15,15 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.jwt.crypto.sign.RsaSigner;
 import org.springframework.security.jwt.crypto.sign.Signer;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 
@@ -26,7 +32,13 @@ import static org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey.KID;
 import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.*;
 import static org.cloudfoundry.identity.uaa.util.UaaMapUtils.entry;
 import static org.cloudfoundry.identity.uaa.util.UaaMapUtils.map;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class XOAuthAuthenticationManagerTest {
@@ -202,4 +214,49 @@ public class XOAuthAuthenticationManagerTest {
         authManager.getExternalAuthenticationDetails(oidcAuthentication);
         // no exception expected
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getExternalAuthenticationDetails_whenCachedTokenKeysDoNotContainKeyId_fetchesTokenKeysAgain() throws Exception {
+        String tokenKeyUrl = "http://issuer.com/token_keys";
+        oidcConfig.setTokenKey(null);
+        oidcConfig.setTokenKeyUrl(new URL(tokenKeyUrl));
+        UrlContentCache contentCache = mock(UrlContentCache.class);
+        when(contentCache.getUrlContent(eq(tokenKeyUrl), any(), eq(HttpMethod.GET), any(HttpEntity.class))).thenReturn(
+            tokenKeys("rotated-key", changedOidcProviderTokenSigningKey),
+            tokenKeys("oidc-provider-key", oidcProviderTokenSigningKey)
+        );
+        when(contentCache.invalidate(eq(tokenKeyUrl), eq(HttpMethod.GET), any(HttpEntity.class))).thenReturn(true);
+        authManager.setContentCache(contentCache);
+
+        Map<String, Object> header = map(
+                entry(ALG, "HS256"),
+                entry(KID, "oidc-provider-key")
+        );
+        Signer signer = new RsaSigner(oidcProviderTokenSigningKey);
+        Map<String, Object> claims = map(
+                entry(EMAIL, "someuser@google.com"),
+                entry(ISS, oidcConfig.getIssuer()),
+                entry(AUD, "uaa-relying-party"),
+                entry(EXP, ((int) (System.currentTimeMillis()/1000L)) + 60),
+                entry(SUB, "abc-def-asdf")
+        );
+        IdentityZoneHolder.get().getConfig().getTokenPolicy().setKeys(Collections.singletonMap("uaa-key", uaaIdentityZoneTokenSigningKey));
+        String idTokenJwt = UaaTokenUtils.constructToken(header, claims, signer);
+
+        XOAuthCodeToken oidcAuthentication = new XOAuthCodeToken(null, origin, "http://google.com", idTokenJwt, "accesstoken", "signedrequest");
+        authManager.getExternalAuthenticationDetails(oidcAuthentication);
+
+        verify(contentCache, times(1)).invalidate(eq(tokenKeyUrl), eq(HttpMethod.GET), any(HttpEntity.class));
+        verify(contentCache, never()).invalidate(anyString());
+        verify(contentCache, times(2)).getUrlContent(eq(tokenKeyUrl), any(), eq(HttpMethod.GET), any(HttpEntity.class));
+    }
+
+    private static byte[] tokenKeys(String keyId, String signingKey) {
+        Map<String, Object> key = map(
+                entry(KID, keyId),
+                entry("kty", "RSA"),
+                entry("value", signingKey)
+        );
+        return JsonUtils.writeValueAsString(Collections.singletonMap("keys", Collections.singletonList(key))).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -187,10 +187,25 @@ public class XOAuthProviderConfiguratorTests {
         IdentityProvider<OIDCIdentityProviderDefinition> activeXOAuthProvider = configurator.retrieveByIssuer(issuer, IdentityZone.getUaaZoneId());
 
         assertEquals(issuer, activeXOAuthProvider.getConfig().getIssuer());
-        verify(configurator, times(2)).overlay(eq(config));
+        verify(configurator, times(2)).overlay(any(OIDCIdentityProviderDefinition.class));
         verify(configurator, times(1)).retrieveAll(eq(true), anyString());
     }
 
+    @Test
+    public void overlay_does_not_modify_definition() throws Exception {
+        doAnswer(invocation -> {
+            OIDCIdentityProviderDefinition definition = invocation.getArgument(0);
+            definition.setIssuer("https://accounts.google.com");
+            return null;
+        }).when(oidcMetadataFetcher)
+                .fetchMetadataAndUpdateDefinition(any(OIDCIdentityProviderDefinition.class));
+
+        OIDCIdentityProviderDefinition overlaid = configurator.overlay(config);
+
+        assertEquals("https://accounts.google.com", overlaid.getIssuer());
+        assertNull(config.getIssuer());
+    }
+
     @Test
     public void retrieveByOrigin() {
         when(provisioning.retrieveByOrigin(eq(OIDC10),anyString())).thenReturn(oidcProvider);
@@ -0,0 +1,134 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.xml.ConfigurationException;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NonSnarlMetadataManagerTest {
+
+    private SamlIdentityProviderConfigurator configurator;
+    private NonSnarlMetadataManager manager;
+    private SamlIdentityProviderDefinition definition;
+    private ExtendedMetadataDelegate idpDelegate;
+
+    @BeforeAll
+    static void bootstrap() throws ConfigurationException {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        IdentityZoneHolder.clear();
+        configurator = mock(SamlIdentityProviderConfigurator.class);
+        definition = new SamlIdentityProviderDefinition()
+            .setMetaDataLocation(SamlIdentityProviderConfiguratorTests.xml)
+            .setIdpEntityAlias("simplesamlphp-url")
+            .setZoneId(IdentityZone.getUaaZoneId());
+        idpDelegate = mock(ExtendedMetadataDelegate.class);
+        when(configurator.getIdentityProviderDefinitions()).thenAnswer(invocation -> Collections.singletonList(definition));
+        when(configurator.getExtendedMetadataDelegate(any())).thenReturn(idpDelegate);
+
+        ExtendedMetadataDelegate localServiceProvider = mock(ExtendedMetadataDelegate.class);
+        manager = new NonSnarlMetadataManager(configurator) {
+            @Override
+            public ExtendedMetadataDelegate getLocalServiceProvider() {
+                return localServiceProvider;
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.destroy();
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    void initializedProvidersAreReused() throws Exception {
+        List<ExtendedMetadataDelegate> first = manager.getAvailableProviders();
+        List<ExtendedMetadataDelegate> second = manager.getAvailableProviders();
+
+        assertEquals(2, second.size());
+        assertSame(first.get(1), second.get(1));
+        assertSame(idpDelegate, second.get(1));
+        verify(configurator, times(1)).getExtendedMetadataDelegate(any());
+        verify(idpDelegate, times(1)).initialize();
+    }
+
+    @Test
+    void changedDefinitionIsReinitialized() throws Exception {
+        manager.getAvailableProviders();
+
+        definition = new SamlIdentityProviderDefinition()
+            .setMetaDataLocation(SamlIdentityProviderConfiguratorTests.xml)
+            .setIdpEntityAlias("simplesamlphp-url")
+            .setZoneId(IdentityZone.getUaaZoneId())
+            .setLinkText("changed");
+        manager.getAvailableProviders();
+
+        verify(configurator, times(2)).getExtendedMetadataDelegate(any());
+    }
+
+    @Test
+    void zoneModifiedEventEvictsProviders() throws Exception {
+        manager.getAvailableProviders();
+
+        manager.onApplicationEvent(IdentityZoneModifiedEvent.identityZoneModified(IdentityZone.getUaa()));
+        manager.getAvailableProviders();
+
+        verify(configurator, times(2)).getExtendedMetadataDelegate(any());
+    }
+
+    @Test
+    void providersAreRefreshedWithLatestZone() throws Exception {
+        List<String> zoneNames = new CopyOnWriteArrayList<>();
+        when(configurator.getExtendedMetadataDelegate(any())).thenAnswer(invocation -> {
+            zoneNames.add(IdentityZoneHolder.get().getName());
+            return idpDelegate;
+        });
+        manager.setProviderRefreshIntervalSeconds(1);
+        manager.getAvailableProviders();
+
+        //the zone was changed on another server
+        IdentityZone changed = IdentityZone.getUaa();
+        changed.setName("changed");
+        IdentityZoneHolder.set(changed);
+        Thread.sleep(1100);
+        manager.getAvailableProviders();
+        IdentityZoneHolder.clear();
+
+        verify(configurator, timeout(5000).times(2)).getExtendedMetadataDelegate(any());
+        assertEquals("changed", zoneNames.get(1));
+    }
+
+    @Test
+    void clearProviderCacheEvictsProviders() throws Exception {
+        manager.getAvailableProviders();
+
+        manager.clearProviderCache();
+        manager.getAvailableProviders();
+
+        verify(configurator, times(2)).getExtendedMetadataDelegate(any());
+    }
+}
@@ -0,0 +1,124 @@
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@WithDatabaseContext
+class ExpiredRowReaperTests {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private TimeService timeService;
+    private long now;
+    private ExpiredRowDeleter tokens;
+    private ExpiredRowDeleter codes;
+    private ExpiredRowReaper reaper;
+
+    @BeforeEach
+    void setUp() {
+        now = 1_000_000L;
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenAnswer(invocation -> now);
+        tokens = mock(ExpiredRowDeleter.class);
+        when(tokens.getExpiredRowsTable()).thenReturn("revocable_tokens");
+        codes = mock(ExpiredRowDeleter.class);
+        when(codes.getExpiredRowsTable()).thenReturn("expiring_code_store");
+        reaper = new ExpiredRowReaper(jdbcTemplate, timeService, Arrays.asList(tokens, codes));
+        reaper.setMaxRows(10);
+        reaper.setEnabled(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reaper.destroy();
+        jdbcTemplate.update("DELETE FROM expired_row_reaper_lease");
+    }
+
+    @Test
+    void rowsAreDeletedInChunks() {
+        when(tokens.deleteExpiredRows(10)).thenReturn(10, 10, 3);
+        when(codes.deleteExpiredRows(10)).thenReturn(0);
+
+        reaper.reap();
+
+        verify(tokens, times(3)).deleteExpiredRows(10);
+        verify(codes, times(1)).deleteExpiredRows(10);
+        assertEquals(23, reaper.getRowsDeleted());
+        assertEquals(23L, (long) reaper.getRowsDeletedByTable().get("revocable_tokens"));
+        assertEquals(0L, (long) reaper.getRowsDeletedByTable().get("expiring_code_store"));
+        assertEquals(1, reaper.getRuns());
+    }
+
+    @Test
+    void tableStopsAtTimeBudget() {
+        reaper.setMaxTimePerTable(Duration.ofSeconds(1));
+        when(tokens.deleteExpiredRows(10)).thenAnswer(invocation -> {
+            now += 600;
+            return 10;
+        });
+
+        reaper.reap();
+
+        verify(tokens, times(2)).deleteExpiredRows(10);
+        verify(codes, times(1)).deleteExpiredRows(10);
+        assertEquals(1200L, (long) reaper.getLastRunMillisByTable().get("revocable_tokens"));
+    }
+
+    @Test
+    void failureDoesNotStopOtherTables() {
+        when(tokens.deleteExpiredRows(anyInt())).thenThrow(new DeadlockLoserDataAccessException("deadlock", null));
+        when(codes.deleteExpiredRows(10)).thenReturn(5);
+
+        reaper.reap();
+
+        assertEquals(5, reaper.getRowsDeleted());
+        assertEquals(1, reaper.getFailures());
+    }
+
+    @Test
+    void onlyOneNodeHoldsTheLease() {
+        ExpiredRowReaper otherNode = new ExpiredRowReaper(jdbcTemplate, timeService, Collections.emptyList());
+        reaper.setInterval(Duration.ofSeconds(30));
+        otherNode.setInterval(Duration.ofSeconds(30));
+
+        assertTrue(reaper.acquireLease());
+        assertFalse(otherNode.acquireLease());
+        now += 10_000;
+        assertTrue(reaper.acquireLease());
+        assertFalse(otherNode.acquireLease());
+
+        now += 31_000;
+        assertTrue(otherNode.acquireLease());
+        assertFalse(reaper.acquireLease());
+    }
+
+    @Test
+    void enabledReaperTakesOverInlineDeletes() {
+        reaper.setEnabled(true);
+        reaper.setInterval(Duration.ofHours(1));
+        reaper.afterPropertiesSet();
+
+        verify(tokens).setDeleteExpiredRowsInline(false);
+        verify(codes).setDeleteExpiredRowsInline(false);
+    }
+}
@@ -20,12 +20,14 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import org.cloudfoundry.identity.uaa.resources.TotalResults;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 public class JdbcPagingListTests extends JdbcTestBase {
 
@@ -157,4 +159,68 @@ public class JdbcPagingListTests extends JdbcTestBase {
         assertEquals(3, count); // count is less than original size estimate
     }
 
+    @Test
+    public void testPageWithoutTotalReportsOneMoreRow() throws Exception {
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), limitSqlAdapter,
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 1, 2, TotalResults.NONE);
+        assertEquals(4, list.size());
+        assertEquals("bar", list.get(1).get("name"));
+        assertEquals("zab", list.get(3).get("name"));
+        assertEquals("foo", list.get(0).get("name"));
+    }
+
+    @Test
+    public void testLastPageWithoutTotalHasExactSize() throws Exception {
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), limitSqlAdapter,
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 3, 10, TotalResults.ESTIMATED);
+        assertEquals(5, list.size());
+        assertEquals("rab", list.get(4).get("name"));
+    }
+
+    @Test
+    public void testEstimatedTotalIsNeverLessThanRowsRead() throws Exception {
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), estimating(1),
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 0, 2, TotalResults.ESTIMATED);
+        assertEquals(3, list.size());
+    }
+
+    @Test
+    public void testPagePastLastRowIsNotCountedAsRows() throws Exception {
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), limitSqlAdapter,
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 999, 10, TotalResults.NONE);
+        assertEquals(0, list.size());
+
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), estimating(5),
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 999, 10, TotalResults.ESTIMATED);
+        assertEquals(5, list.size());
+
+        list = new JdbcPagingList<Map<String, Object>>(new NamedParameterJdbcTemplate(jdbcTemplate), estimating(5000),
+                        "SELECT * from foo where id>=:id order by id", Collections.<String, Object> singletonMap("id", 0),
+                        new ColumnMapRowMapper(), 3, 999, 10, TotalResults.ESTIMATED);
+        assertEquals(999, list.size());
+    }
+
+    private LimitSqlAdapter estimating(long estimate) {
+        return new LimitSqlAdapter() {
+            @Override
+            public String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows) {
+                return limitSqlAdapter.getDeleteExpiredQuery(tablename, primaryKeyColumn, expiresColumn, maxRows);
+            }
+
+            @Override
+            public String getLimitSql(String sql, int index, int size) {
+                return limitSqlAdapter.getLimitSql(sql, index, size);
+            }
+
+            @Override
+            public long getEstimatedRowCount(NamedParameterJdbcTemplate jdbcTemplate, String sql, Map<String, ?> args) {
+                return estimate;
+            }
+        };
+    }
 }
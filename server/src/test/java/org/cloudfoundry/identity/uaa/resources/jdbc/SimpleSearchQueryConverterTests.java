@@ -9,6 +9,7 @@ import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.util.MultiValueMap;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -97,4 +98,48 @@ class SimpleSearchQueryConverterTests {
 
         assertThat(message, is("[" + operator + "] operator is not supported."));
     }
-}
\ No newline at end of file
+
+    @Test
+    void sameFilterShapeIsBoundWithNewValues() {
+        SearchQueryConverter.ProcessedFilter first = converter.convert("username eq \"joe\" and origin eq \"uaa\"", "username", true);
+        SearchQueryConverter.ProcessedFilter second = converter.convert("username eq \"marissa\" and origin eq \"ldap\"", "username", true);
+
+        assertEquals(first.getSql(), second.getSql());
+        assertEquals(first.getParamPrefix(), second.getParamPrefix());
+        String prefix = second.getParamPrefix();
+        assertEquals("(LOWER(username) = LOWER(:" + prefix + "0) AND LOWER(origin) = LOWER(:" + prefix + "1)) ORDER BY username ASC", second.getSql());
+        assertEquals("marissa", second.getParams().get(prefix + "0"));
+        assertEquals("ldap", second.getParams().get(prefix + "1"));
+        assertEquals("joe", first.getParams().get(prefix + "0"));
+    }
+
+    @Test
+    void cachedFiltersKeepWildcardsConstantsAndRedaction() {
+        converter.convert("username co \"jo\" and active eq true and password eq \"secret\"", null, false);
+        SearchQueryConverter.ProcessedFilter filter = converter.convert("username co \"ma\" and active eq true and password eq \"other\"", null, false);
+
+        String prefix = filter.getParamPrefix();
+        assertEquals("%ma%", filter.getParams().get(prefix + "0"));
+        assertEquals(Boolean.TRUE, filter.getParams().get(prefix + "1"));
+        assertEquals("", filter.getParams().get(prefix + "2"));
+    }
+
+    @Test
+    void datesAndStringsHaveDifferentShapes() {
+        SearchQueryConverter.ProcessedFilter date = converter.convert("meta.created gt \"1970-01-01T00:00:00.000Z\"", null, false);
+        SearchQueryConverter.ProcessedFilter string = converter.convert("meta.created gt \"yesterday\"", null, false);
+
+        assertThat(date.getSql(), startsWith("created > :"));
+        assertThat(string.getSql(), startsWith("LOWER(created) > LOWER(:"));
+        assertThat(date.getParams().get(date.getParamPrefix() + "0"), instanceOf(Date.class));
+    }
+
+    @Test
+    void cachedFiltersFollowSortOrder() {
+        SearchQueryConverter.ProcessedFilter ascending = converter.convert("username eq \"joe\"", "username", true);
+        SearchQueryConverter.ProcessedFilter descending = converter.convert("username eq \"joe\"", "username", false);
+
+        assertThat(ascending.getSql(), endsWith("ASC"));
+        assertThat(descending.getSql(), endsWith("DESC"));
+    }
+}
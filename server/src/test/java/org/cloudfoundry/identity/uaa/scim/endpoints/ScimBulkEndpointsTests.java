@@ -0,0 +1,220 @@
+package org.cloudfoundry.identity.uaa.scim.endpoints;
+
+import org.cloudfoundry.identity.uaa.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.scim.ScimBulkRequest;
+import org.cloudfoundry.identity.uaa.scim.ScimBulkResponse;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimException;
+import org.cloudfoundry.identity.uaa.scim.validate.PasswordValidator;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ScimBulkEndpointsTests {
+
+    private ScimBulkEndpoints endpoints;
+    private ScimUserProvisioning userProvisioning;
+    private ScimGroupProvisioning groupProvisioning;
+    private MockHttpServletRequest request;
+
+    @BeforeEach
+    void setUp() {
+        IdentityZoneHolder.clear();
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        IdentityProviderProvisioning identityProviderProvisioning = mock(IdentityProviderProvisioning.class);
+        when(identityProviderProvisioning.retrieveActive(anyString())).thenReturn(Collections.emptyList());
+        ScimUserEndpoints scimUserEndpoints = new ScimUserEndpoints();
+        scimUserEndpoints.setIdentityProviderProvisioning(identityProviderProvisioning);
+        scimUserEndpoints.setPasswordValidator(mock(PasswordValidator.class));
+
+        userProvisioning = mock(ScimUserProvisioning.class);
+        when(userProvisioning.createUsers(anyList(), anyString())).thenAnswer(invocation -> {
+            List<ScimUser> users = invocation.getArgument(0);
+            users.forEach(user -> user.setId("id-" + user.getUserName()));
+            return users;
+        });
+        groupProvisioning = mock(ScimGroupProvisioning.class);
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.encode(anyString())).thenAnswer(invocation -> "encoded-" + invocation.getArgument(0));
+
+        endpoints = new ScimBulkEndpoints();
+        endpoints.setScimUserEndpoints(scimUserEndpoints);
+        endpoints.setScimUserProvisioning(userProvisioning);
+        endpoints.setScimGroupProvisioning(groupProvisioning);
+        endpoints.setApprovalStore(mock(ApprovalStore.class));
+        endpoints.setPasswordEncoder(passwordEncoder);
+        endpoints.setPasswordEncoderThreads(2);
+        endpoints.setChunkSize(2);
+        endpoints.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        endpoints.destroy();
+        RequestContextHolder.resetRequestAttributes();
+        SecurityContextHolder.clearContext();
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    void usersAreCreatedInChunksWithEncodedPasswords() {
+        ScimBulkResponse response = endpoints.bulk(request(createUser("u1"), createUser("u2"), createUser("u3")), request);
+
+        assertEquals(Arrays.asList("201", "201", "201"), statuses(response));
+        assertEquals("b-u1", response.getOperations().get(0).getBulkId());
+        assertTrue(response.getOperations().get(0).getLocation().endsWith("/Users/id-u1"));
+        ArgumentCaptor<List<ScimUser>> chunks = ArgumentCaptor.forClass(List.class);
+        verify(userProvisioning, times(2)).createUsers(chunks.capture(), eq(IdentityZoneHolder.get().getId()));
+        assertEquals(2, chunks.getAllValues().get(0).size());
+        assertEquals("encoded-password", chunks.getAllValues().get(1).get(0).getPassword());
+    }
+
+    @Test
+    void invalidOperationsFailAlone() {
+        ScimBulkRequest.Operation unsupported = new ScimBulkRequest.Operation("DELETE", null, "/Users/some-id", null);
+        ScimBulkRequest.Operation invalid = createUser("u2");
+        invalid.getData().remove("emails");
+
+        ScimBulkResponse response = endpoints.bulk(request(createUser("u1"), unsupported, invalid), request);
+
+        assertEquals(Arrays.asList("201", "400", "400"), statuses(response));
+        assertTrue(response.getOperations().get(1).getResponse() instanceof Map);
+    }
+
+    @Test
+    void userNamesInUseAreReportedAsConflicts() {
+        when(userProvisioning.createUsers(anyList(), anyString())).thenAnswer(invocation -> {
+            List<ScimUser> users = invocation.getArgument(0);
+            users.get(0).setId("id-0");
+            return Arrays.asList(users.get(0), null);
+        });
+
+        ScimBulkResponse response = endpoints.bulk(request(createUser("u1"), createUser("u2")), request);
+
+        assertEquals(Arrays.asList("201", "409"), statuses(response));
+    }
+
+    @Test
+    void processingStopsAfterFailOnErrors() {
+        ScimBulkRequest bulkRequest = request(
+            new ScimBulkRequest.Operation("PUT", "b1", "/Users/id", null),
+            new ScimBulkRequest.Operation("PUT", "b2", "/Users/id", null),
+            createUser("u1")
+        );
+        bulkRequest.setFailOnErrors(2);
+
+        ScimBulkResponse response = endpoints.bulk(bulkRequest, request);
+
+        assertEquals(Arrays.asList("400", "400"), statuses(response));
+        verify(userProvisioning, never()).createUsers(anyList(), anyString());
+    }
+
+    @Test
+    void groupsAreResolvedByName() {
+        authenticate("scim.write");
+        ScimGroup group = new ScimGroup("group-id", "bulk.group", IdentityZoneHolder.get().getId());
+        when(groupProvisioning.query(anyString(), anyString())).thenReturn(Collections.singletonList(group));
+        ScimBulkRequest.Operation withGroup = createUser("u1");
+        withGroup.getData().put("groups", Collections.singletonList(Collections.singletonMap("display", "bulk.group")));
+        ScimBulkRequest.Operation withUnknownGroup = createUser("u2");
+        withUnknownGroup.getData().put("groups", Collections.singletonList(Collections.singletonMap("display", "unknown")));
+
+        ScimBulkResponse response = endpoints.bulk(request(withGroup, withUnknownGroup), request);
+
+        assertEquals(Arrays.asList("201", "400"), statuses(response));
+        ArgumentCaptor<List<ScimUser>> chunk = ArgumentCaptor.forClass(List.class);
+        verify(userProvisioning).createUsers(chunk.capture(), anyString());
+        assertEquals(1, chunk.getValue().size());
+        assertEquals(Collections.singleton(new ScimUser.Group("group-id", "bulk.group")), chunk.getValue().get(0).getGroups());
+    }
+
+    @Test
+    void groupsRequireScopeToAddMembers() {
+        authenticate("scim.create");
+        ScimGroup group = new ScimGroup("admin-id", "uaa.admin", IdentityZoneHolder.get().getId());
+        when(groupProvisioning.query(anyString(), anyString())).thenReturn(Collections.singletonList(group));
+        ScimBulkRequest.Operation withGroup = createUser("u1");
+        withGroup.getData().put("groups", Collections.singletonList(Collections.singletonMap("display", "uaa.admin")));
+
+        ScimBulkResponse response = endpoints.bulk(request(withGroup, createUser("u2")), request);
+
+        assertEquals(Arrays.asList("403", "201"), statuses(response));
+        ArgumentCaptor<List<ScimUser>> chunk = ArgumentCaptor.forClass(List.class);
+        verify(userProvisioning).createUsers(chunk.capture(), anyString());
+        assertEquals(Collections.singletonList("u2"), chunk.getValue().stream().map(ScimUser::getUserName).collect(Collectors.toList()));
+        verify(groupProvisioning, never()).query(anyString(), anyString());
+    }
+
+    @Test
+    void tooManyOperationsAreRejected() {
+        endpoints.setMaxOperations(1);
+        ScimException e = assertThrows(ScimException.class, () -> endpoints.bulk(request(createUser("u1"), createUser("u2")), request));
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus());
+    }
+
+    @Test
+    void emptyRequestHasEmptyResponse() {
+        ScimBulkResponse response = endpoints.bulk(new ScimBulkRequest(), request);
+        assertTrue(response.getOperations().isEmpty());
+    }
+
+    private static void authenticate(String... scopes) {
+        OAuth2Request oAuth2Request = new OAuth2Request(Collections.emptyMap(), "bulk-client", Collections.emptyList(), true,
+            new HashSet<>(Arrays.asList(scopes)), Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        SecurityContextHolder.getContext().setAuthentication(new OAuth2Authentication(oAuth2Request, null));
+    }
+
+    private static ScimBulkRequest request(ScimBulkRequest.Operation... operations) {
+        ScimBulkRequest request = new ScimBulkRequest();
+        request.setOperations(Arrays.asList(operations));
+        return request;
+    }
+
+    private static ScimBulkRequest.Operation createUser(String userName) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("userName", userName);
+        data.put("password", "password");
+        data.put("emails", Collections.singletonList(Collections.singletonMap("value", userName + "@example.com")));
+        return new ScimBulkRequest.Operation("POST", "b-" + userName, "/Users", data);
+    }
+
+    private static List<String> statuses(ScimBulkResponse response) {
+        return response.getOperations().stream().map(ScimBulkResponse.Operation::getStatus).collect(Collectors.toList());
+    }
+}
@@ -22,6 +22,7 @@ import org.cloudfoundry.identity.uaa.scim.validate.PasswordValidator;
 import org.cloudfoundry.identity.uaa.security.IsSelfCheck;
 import org.cloudfoundry.identity.uaa.security.PollutionPreventionExtension;
 import org.cloudfoundry.identity.uaa.util.FakePasswordEncoder;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.web.ConvertingExceptionView;
 import org.cloudfoundry.identity.uaa.web.ExceptionReportHttpMessageConverter;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
@@ -60,6 +61,8 @@ import static org.junit.Assert.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -589,8 +592,48 @@ class ScimUserEndpointsTests {
         ScimUserEndpoints spy = spy(endpoints);
         SearchResults<?> results = spy.findUsers("id,groups,approvals", "id pr", null, "ascending", 1, 100);
         assertEquals(2, results.getTotalResults());
-        verify(spy, times(2)).syncGroups(any(ScimUser.class));
-        verify(spy, times(2)).syncApprovals(any(ScimUser.class));
+        verify(spy, times(1)).syncGroups(anyList());
+        verify(spy, times(1)).syncApprovals(anyList());
+        verify(spy, never()).syncGroups(any(ScimUser.class));
+        verify(spy, never()).syncApprovals(any(ScimUser.class));
+    }
+
+    @Test
+    void testExportWritesOneUserPerLine() throws Exception {
+        endpoints.setUserMaxCount(1);
+        ScimUserEndpoints spy = spy(endpoints);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        spy.exportUsers("id,userName", "id pr", response);
+
+        assertEquals("application/x-ndjson", response.getContentType().split(";")[0]);
+        String[] lines = response.getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        Set<Object> userNames = new HashSet<>();
+        for (String line : lines) {
+            userNames.add(JsonUtils.readValue(line, Map.class).get("userName"));
+        }
+        assertEquals(new HashSet<>(asList("jdsa", "olds")), userNames);
+        //groups and approvals were not requested
+        verify(spy, never()).syncGroups(anyList());
+        verify(spy, never()).syncApprovals(anyList());
+    }
+
+    @Test
+    void testExportSyncsGroupsPerPage() throws Exception {
+        endpoints.setUserMaxCount(1);
+        ScimUserEndpoints spy = spy(endpoints);
+
+        spy.exportUsers(null, "id pr", new MockHttpServletResponse());
+
+        verify(spy, times(2)).syncGroups(anyList());
+        verify(spy, times(2)).syncApprovals(anyList());
+    }
+
+    @Test
+    void testExportWithInvalidFilterExpression() {
+        ScimException thrown = assertThrows(ScimException.class, () -> endpoints.exportUsers("id", "userName qq 'd'", new MockHttpServletResponse()));
+        assertTrue(thrown.getMessage().contains("Invalid filter"));
     }
 
     @Test
@@ -615,6 +658,24 @@ class ScimUserEndpointsTests {
         assertEquals(0, results.getResources().size());
     }
 
+    @Test
+    void testFindPageOfIdsWithoutTotal() {
+        dao.setPageSize(1);
+        SearchResults<?> results = endpoints.findUsers("id", "id pr", null, "ascending", 1, 1, "none");
+        assertEquals(2, results.getTotalResults());
+        assertEquals(1, results.getResources().size());
+
+        results = endpoints.findUsers("id", "id pr", null, "ascending", 2, 1, "none");
+        assertEquals(2, results.getTotalResults());
+        assertEquals(1, results.getResources().size());
+    }
+
+    @Test
+    void testFindWithInvalidTotalResults() {
+        ScimException thrown = assertThrows(ScimException.class, () -> endpoints.findUsers("id", "id pr", null, "ascending", 1, 1, "approximate"));
+        assertEquals(HttpStatus.BAD_REQUEST, thrown.getStatus());
+    }
+
     @Test
     void testFindAllNames() {
         SearchResults<?> results = endpoints.findUsers("userName", "id pr", null, "ascending", 1, 100);
@@ -685,7 +746,8 @@ class ScimUserEndpointsTests {
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(2)).getGroupsWithMembers(anyCollection(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, never()).getGroupsWithMember(anyString(), anyBoolean(), anyString());
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -696,7 +758,8 @@ class ScimUserEndpointsTests {
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("groups", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(2)).getGroupsWithMembers(anyCollection(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, never()).getGroupsWithMember(anyString(), anyBoolean(), anyString());
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -718,7 +781,8 @@ class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, times(1)).getApprovalsForUsers(anyCollection(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, never()).getApprovalsForUser(anyString(), anyString());
 
         endpoints.setApprovalStore(am);
     }
@@ -729,7 +793,8 @@ class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("approvals", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, times(1)).getApprovalsForUsers(anyCollection(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, never()).getApprovalsForUser(anyString(), anyString());
 
         endpoints.setApprovalStore(am);
     }
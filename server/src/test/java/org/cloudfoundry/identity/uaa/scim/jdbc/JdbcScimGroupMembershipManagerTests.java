@@ -16,6 +16,7 @@ import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.scim.exception.InvalidScimResourceException;
@@ -41,6 +42,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -66,6 +68,7 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 public class JdbcScimGroupMembershipManagerTests extends JdbcTestBase {
 
@@ -270,6 +273,53 @@ public class JdbcScimGroupMembershipManagerTests extends JdbcTestBase {
         assertEquals(3, groups.size());
     }
 
+    @Test
+    public void canGetGroupsForSeveralMembers() {
+        addMembers();
+
+        Map<String, Set<ScimGroup>> direct = dao.getGroupsWithMembers(asList("m2", "m3", "m4"), false, IdentityZoneHolder.get().getId());
+        assertEquals(dao.getGroupsWithMember("m2", false, IdentityZoneHolder.get().getId()), direct.get("m2"));
+        assertEquals(dao.getGroupsWithMember("m3", false, IdentityZoneHolder.get().getId()), direct.get("m3"));
+        assertEquals(dao.getGroupsWithMember("m4", false, IdentityZoneHolder.get().getId()), direct.get("m4"));
+
+        Map<String, Set<ScimGroup>> transitive = dao.getGroupsWithMembers(asList("m2", "m3", "m4", "g2"), true, IdentityZoneHolder.get().getId());
+        assertEquals(dao.getGroupsWithMember("m2", true, IdentityZoneHolder.get().getId()), transitive.get("m2"));
+        assertEquals(dao.getGroupsWithMember("m3", true, IdentityZoneHolder.get().getId()), transitive.get("m3"));
+        assertEquals(dao.getGroupsWithMember("m4", true, IdentityZoneHolder.get().getId()), transitive.get("m4"));
+        assertEquals(dao.getGroupsWithMember("g2", true, IdentityZoneHolder.get().getId()), transitive.get("g2"));
+        assertEquals(3, transitive.get("m3").size());
+        assertEquals(1, transitive.get("g2").size());
+    }
+
+    @Test
+    public void canGetGroupsForSeveralMembersEvenWhenCycleExistsInGroupHierarchy() {
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g1", "g2", "GROUP", "READER");
+        addMember("g2", "g3", "GROUP", "READER");
+        addMember("g3", "g1", "GROUP", "READER");
+
+        Map<String, Set<ScimGroup>> groups = dao.getGroupsWithMembers(asList("m3", "m1"), true, IdentityZoneHolder.get().getId());
+        assertEquals(4, groups.get("m3").size());
+        assertEquals(1, groups.get("m1").size());
+    }
+
+    @Test
+    public void recursiveQueryResolvesSameGroupsAsLevelByLevel() {
+        addMembers();
+        addMember("g3", "g1", "GROUP", "READER");
+        addMember("g1", "g3", "GROUP", "READER");
+        List<String> memberIds = asList("m1", "m2", "m3", "m4", "g2");
+
+        Map<String, Set<ScimGroup>> expected = dao.getGroupsWithMembers(memberIds, true, IdentityZoneHolder.get().getId());
+
+        LimitSqlAdapter adapter = mock(LimitSqlAdapter.class);
+        when(adapter.supportsRecursiveQueries()).thenReturn(true);
+        dao.setLimitSqlAdapter(adapter);
+
+        assertEquals(expected, dao.getGroupsWithMembers(memberIds, true, IdentityZoneHolder.get().getId()));
+        assertEquals(expected.get("m3"), dao.getGroupsWithMember("m3", true, IdentityZoneHolder.get().getId()));
+    }
+
     private void addMembers(String origin) {
         addMember("g1", "m3", "USER", origin);
         addMember("g1", "g2", "GROUP",origin);
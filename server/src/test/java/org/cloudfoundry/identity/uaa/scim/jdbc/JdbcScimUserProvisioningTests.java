@@ -38,8 +38,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
@@ -53,6 +57,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.LOGIN_SERVER;
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.UAA;
@@ -106,6 +111,7 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
 
         fakePasswordEncoder = new FakePasswordEncoder();
         db = new JdbcScimUserProvisioning(jdbcTemplate, pagingListFactory, fakePasswordEncoder);
+        db.setTransactionManager(new DataSourceTransactionManager(dataSource));
 
         zoneDb = new JdbcIdentityZoneProvisioning(jdbcTemplate);
         providerDb = new JdbcIdentityProviderProvisioning(jdbcTemplate);
@@ -918,6 +924,121 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
         }
     }
 
+    @Test
+    public void createUsersInsertsUsersWithMemberships() {
+        db.setBatchSize(2);
+        String groupId = generator.generate();
+        List<ScimUser> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ScimUser user = new ScimUser(null, "bulk" + i + "-" + generator.generate() + "@example.com", "Bulk", "User");
+            user.addEmail(user.getUserName());
+            user.setPassword("encoded");
+            user.setGroups(Collections.singletonList(new ScimUser.Group(groupId, "bulk.group")));
+            users.add(user);
+        }
+        try {
+            List<ScimUser> created = db.createUsers(users, "uaa");
+
+            assertEquals(3, created.size());
+            for (ScimUser user : created) {
+                assertNotNull(user.getId());
+                assertNull(user.getPassword());
+                assertEquals(UAA, user.getOrigin());
+                ScimUser stored = db.retrieve(user.getId(), "uaa");
+                assertEquals(user.getUserName(), stored.getUserName());
+                assertEquals("encoded", jdbcTemplate.queryForObject("select password from users where id = ?", String.class, user.getId()));
+            }
+            assertEquals(3, (int) jdbcTemplate.queryForObject("select count(*) from group_membership where group_id = ? and identity_zone_id = 'uaa'", Integer.class, groupId));
+        } finally {
+            jdbcTemplate.update("delete from group_membership where group_id = ?", groupId);
+            jdbcTemplate.update("delete from users where username like 'bulk%@example.com'");
+        }
+    }
+
+    @Test
+    public void createUsersSkipsUserNamesInUse() {
+        List<ScimUser> users = new ArrayList<>();
+        for (String userName : Arrays.asList("bulk-new-" + generator.generate() + "@example.com", "joe")) {
+            ScimUser user = new ScimUser(null, userName, "Bulk", "User");
+            user.addEmail(userName.contains("@") ? userName : userName + "@example.com");
+            user.setPassword("encoded");
+            users.add(user);
+        }
+        try {
+            List<ScimUser> created = db.createUsers(users, "uaa");
+
+            assertEquals(2, created.size());
+            assertNotNull(created.get(0));
+            assertNotNull(db.retrieve(created.get(0).getId(), "uaa"));
+            assertNull(created.get(1));
+            assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from users where username = 'joe'", Integer.class));
+        } finally {
+            jdbcTemplate.update("delete from users where username like 'bulk-new-%@example.com'");
+        }
+    }
+
+    @Test
+    public void exportUsersContinuesAfterLastRowOfEachPage() {
+        String zoneId = "export-zone-" + generator.generate();
+        Timestamp created = new Timestamp(1_500_000_000_000L);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String id = "export-" + i + "-" + generator.generate();
+            addUser(id, id, "password", id + "@example.com", "Export", "User", "", defaultIdentityProviderId, zoneId);
+            //pairs of users share a creation time, so pages have to continue on the id
+            jdbcTemplate.update("update users set created = ? where id = ?", new Timestamp(created.getTime() + (i / 2) * 1000L), id);
+            ids.add(id);
+        }
+        try {
+            List<List<String>> pages = new ArrayList<>();
+            db.exportUsers("id pr", 2, users -> pages.add(users.stream().map(ScimUser::getId).collect(Collectors.toList())), zoneId);
+
+            assertEquals(Arrays.asList(ids.subList(0, 2), ids.subList(2, 4), ids.subList(4, 5)), pages);
+        } finally {
+            jdbcTemplate.update("delete from users where identity_zone_id = ?", zoneId);
+        }
+    }
+
+    @Test
+    public void exportUsersAppliesFilter() {
+        List<ScimUser> exported = new ArrayList<>();
+        db.exportUsers("username eq \"joe\"", 10, exported::addAll, IdentityZoneHolder.get().getId());
+        assertEquals(1, exported.size());
+        assertEquals(JOE_ID, exported.get(0).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void exportUsersRejectsInvalidFilter() {
+        db.exportUsers("username eq", 10, users -> fail(), IdentityZoneHolder.get().getId());
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void exportUsersPropagatesErrorsAfterFirstPage() {
+        NamedParameterJdbcTemplate failingTemplate = new NamedParameterJdbcTemplate(jdbcTemplate) {
+            private int queries = 0;
+
+            @Override
+            public void query(String sql, Map<String, ?> paramMap, RowCallbackHandler rch) {
+                if (queries++ > 0) {
+                    throw new QueryTimeoutException("timeout");
+                }
+                super.query(sql, paramMap, rch);
+            }
+        };
+        JdbcScimUserProvisioning provisioning = new JdbcScimUserProvisioning(jdbcTemplate, pagingListFactory, fakePasswordEncoder) {
+            @Override
+            protected NamedParameterJdbcTemplate getNamedParameterJdbcTemplate() {
+                return failingTemplate;
+            }
+        };
+        List<ScimUser> exported = new ArrayList<>();
+        try {
+            provisioning.exportUsers("id pr", 1, exported::addAll, IdentityZoneHolder.get().getId());
+        } finally {
+            assertEquals(1, exported.size());
+        }
+    }
+
     @Test
     public void canRetrieveUsersWithPhoneNumberFilter() {
         assertEquals(1, db.query("phoneNumbers.value sw \"+1-222\"", IdentityZoneHolder.get().getId()).size());
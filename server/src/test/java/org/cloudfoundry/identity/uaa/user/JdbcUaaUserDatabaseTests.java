@@ -13,6 +13,10 @@
 package org.cloudfoundry.identity.uaa.user;
 
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
 import org.cloudfoundry.identity.uaa.test.TestUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
@@ -32,6 +36,7 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 import org.springframework.util.LinkedMultiValueMap;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -48,6 +53,7 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -330,6 +336,42 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         evaluateNestedJoe();
     }
 
+    @Test
+    public void getUserWithNestedAuthoritiesWorksWithRecursiveQuery() {
+        LimitSqlAdapter adapter = mock(LimitSqlAdapter.class);
+        when(adapter.supportsRecursiveQueries()).thenReturn(true);
+        db.setLimitSqlAdapter(adapter);
+
+        getUserWithNestedAuthoritiesWorks();
+    }
+
+    @Test
+    public void getUserWithNestedAuthoritiesDoesNotCrossZones() {
+        String directId = new RandomValueStringGenerator().generate();
+        String foreignId = new RandomValueStringGenerator().generate();
+        String beyondId = new RandomValueStringGenerator().generate();
+        jdbcTemplate.update(ADD_GROUP_SQL, directId, "direct", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_GROUP_SQL, foreignId, "foreign", otherIdentityZone.getId());
+        jdbcTemplate.update(ADD_GROUP_SQL, beyondId, "beyond", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_MEMBER_SQL, directId, JOE_ID, "USER", "MEMBER");
+        jdbcTemplate.update(ADD_MEMBER_SQL, foreignId, directId, "GROUP", "MEMBER");
+        jdbcTemplate.update(ADD_MEMBER_SQL, beyondId, foreignId, "GROUP", "MEMBER");
+
+        UaaUser joe = db.retrieveUserByName("joe", OriginKeys.UAA);
+        assertTrue(joe.getAuthorities().contains(new SimpleGrantedAuthority("direct")));
+        assertFalse(joe.getAuthorities().contains(new SimpleGrantedAuthority("foreign")));
+        assertFalse(joe.getAuthorities().contains(new SimpleGrantedAuthority("beyond")));
+    }
+
+    @Test
+    public void getUserWithNestedAuthoritiesDoesNotCrossZonesWithRecursiveQuery() {
+        LimitSqlAdapter adapter = mock(LimitSqlAdapter.class);
+        when(adapter.supportsRecursiveQueries()).thenReturn(true);
+        db.setLimitSqlAdapter(adapter);
+
+        getUserWithNestedAuthoritiesDoesNotCrossZones();
+    }
+
     protected void evaluateNestedJoe() {
         UaaUser joe;
         joe = db.retrieveUserByName("joe", OriginKeys.UAA);
@@ -391,4 +433,75 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
     public void null_if_userWithEmail_in_differentZone(){
         assertNull(db.retrieveUserByEmail("alice@test.org", OriginKeys.UAA));
     }
+
+    @Test
+    public void cachedUserIsServedUntilExpiry() {
+        long[] now = {1000L};
+        enableCache(now);
+        UaaUser joe = db.retrieveUserById(JOE_ID);
+        renameJoe();
+
+        UaaUser cached = db.retrieveUserById(JOE_ID);
+        assertEquals("Joe", cached.getGivenName());
+        assertNotSame(joe, cached);
+        assertEquals(1, db.getCacheStats().hitCount());
+
+        now[0] += Duration.ofSeconds(10).toMillis();
+        assertEquals("Joseph", db.retrieveUserById(JOE_ID).getGivenName());
+    }
+
+    @Test
+    public void cachedUsersAreZoneScoped() {
+        enableCache(new long[] {1000L});
+        db.retrieveUserById(JOE_ID);
+        IdentityZoneHolder.set(otherIdentityZone);
+        try {
+            db.retrieveUserById(JOE_ID);
+            fail("Joe must not be found in another zone");
+        } catch (UsernameNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void logonDropsCachedUser() {
+        enableCache(new long[] {1000L});
+        db.retrieveUserById(JOE_ID);
+
+        db.updateLastLogonTime(JOE_ID);
+
+        assertEquals(1000L, (long) db.retrieveUserById(JOE_ID).getLastLogonTime());
+    }
+
+    @Test
+    public void userModifiedEventDropsCachedUser() {
+        enableCache(new long[] {1000L});
+        db.retrieveUserById(JOE_ID);
+        renameJoe();
+
+        db.onApplicationEvent(UserModifiedEvent.emailChanged(new ScimUser(JOE_ID, "Joe", "Joseph", "Joe"), IdentityZoneHolder.get().getId()));
+
+        assertEquals("Joseph", db.retrieveUserById(JOE_ID).getGivenName());
+    }
+
+    @Test
+    public void groupModifiedEventDropsCachedUsersOfZone() {
+        enableCache(new long[] {1000L});
+        db.retrieveUserById(JOE_ID);
+        db.retrieveUserById(MABEL_ID);
+        addAuthority("new.group", JOE_ID);
+
+        db.onApplicationEvent(GroupModifiedEvent.groupModified("group-id", "new.group", new String[] {JOE_ID}, IdentityZoneHolder.get().getId()));
+
+        assertEquals(0, db.getCacheSize());
+        assertTrue(db.retrieveUserById(JOE_ID).getAuthorities().contains(new SimpleGrantedAuthority("new.group")));
+    }
+
+    private void enableCache(long[] now) {
+        when(timeService.getCurrentTimeMillis()).thenAnswer(invocation -> now[0]);
+        db.setCacheExpiration(Duration.ofSeconds(10));
+    }
+
+    private void renameJoe() {
+        jdbcTemplate.update("update users set givenName=? where id=?", "Joseph", JOE_ID);
+    }
 }
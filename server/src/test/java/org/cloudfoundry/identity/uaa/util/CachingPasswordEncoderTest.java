@@ -21,8 +21,13 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -30,7 +35,9 @@ import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 public class CachingPasswordEncoderTest  {
 
@@ -146,12 +153,14 @@ public class CachingPasswordEncoderTest  {
                 assertTrue(cachingPasswordEncoder.matches(password, encoded));
             }
         }
-        assertEquals(maxkeys, cachingPasswordEncoder.getNumberOfKeys());
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(lessThanOrEqualTo((long) maxkeys)));
         String password = new RandomValueStringGenerator().generate();
         String encoded = cachingPasswordEncoder.encode(password);
         assertTrue(cachingPasswordEncoder.matches(password, encoded));
-        //overflow happened
-        assertEquals(1, cachingPasswordEncoder.getNumberOfKeys());
+        //overflow evicts old keys rather than clearing the cache
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(lessThanOrEqualTo((long) maxkeys)));
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(greaterThan(1L)));
+        assertTrue(cachingPasswordEncoder.getCacheStats().evictionCount() > 0);
 
 
         for (int j=1; j<cachingPasswordEncoder.getMaxEncodedPasswords(); j++) {
@@ -193,4 +202,38 @@ public class CachingPasswordEncoderTest  {
         assertFalse(bcryptTime > (10 * cacheTime));
         assertEquals(0, cachingPasswordEncoder.getNumberOfKeys());
     }
+
+    @Test
+    public void cacheStatisticsAreRecorded() {
+        String encoded = cachingPasswordEncoder.encode(password);
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertFalse(cachingPasswordEncoder.matches("wrong-" + password, encoded));
+
+        assertEquals(1, cachingPasswordEncoder.getCacheStats().hitCount());
+        assertEquals(2, cachingPasswordEncoder.getCacheStats().missCount());
+        assertEquals(1, cachingPasswordEncoder.getCacheSize());
+    }
+
+    @Test
+    public void concurrentMatchesDoNotInterfere() throws Exception {
+        String encoded = cachingPasswordEncoder.encode(password);
+        String otherPassword = new RandomValueStringGenerator().generate();
+        String otherEncoded = cachingPasswordEncoder.encode(otherPassword);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                boolean even = i % 2 == 0;
+                results.add(executor.submit(() -> even ?
+                    cachingPasswordEncoder.matches(password, encoded) && !cachingPasswordEncoder.matches(password, otherEncoded) :
+                    cachingPasswordEncoder.matches(otherPassword, otherEncoded)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package org.cloudfoundry.identity.uaa.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PooledPasswordEncoderTest {
+
+    private PooledPasswordEncoder encoder;
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        if (encoder != null) {
+            encoder.destroy();
+        }
+    }
+
+    @Test
+    void passwordsAreCheckedOnHashingThreads() {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(4);
+        encoder = new PooledPasswordEncoder(bcrypt, 2, 10);
+        String encoded = encoder.encode("password");
+
+        assertTrue(encoder.matches("password", encoded));
+        assertFalse(encoder.matches("wrong", encoded));
+        assertEquals(2, encoder.getHashCount());
+        assertEquals(0, encoder.getRejectedCount());
+        assertTrue(encoder.getAverageHashTime() > 0);
+    }
+
+    @Test
+    void checksAreRejectedWhenThreadsAndQueueAreFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches(any(), anyString())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return true;
+        });
+        encoder = new PooledPasswordEncoder(delegate, 1, 1);
+
+        Future<Boolean> running = callers.submit(() -> encoder.matches("password", "encoded"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Boolean> queued = callers.submit(() -> encoder.matches("password", "encoded"));
+        while (encoder.getQueueSize() == 0) {
+            Thread.sleep(10);
+        }
+
+        assertThrows(PasswordHashingRejectedException.class, () -> encoder.matches("password", "encoded"));
+        assertEquals(1, encoder.getRejectedCount());
+        assertEquals(1, encoder.getActiveCount());
+
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(2, encoder.getHashCount());
+        assertEquals(0, encoder.getQueueSize());
+    }
+
+    @Test
+    void defaultQueueIsSmallMultipleOfThreads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches(any(), anyString())).thenAnswer(invocation -> {
+            release.await();
+            return true;
+        });
+        encoder = new PooledPasswordEncoder(delegate, 1, 0);
+
+        List<Future<Boolean>> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(callers.submit(() -> encoder.matches("password", "encoded")));
+        }
+        while (encoder.getQueueSize() < 4) {
+            Thread.sleep(10);
+        }
+
+        assertThrows(PasswordHashingRejectedException.class, () -> encoder.matches("password", "encoded"));
+        release.countDown();
+        for (Future<Boolean> check : waiting) {
+            assertTrue(check.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void checksAreRejectedAfterMaxWait() {
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches(any(), anyString())).thenAnswer(invocation -> {
+            release.await();
+            return true;
+        });
+        encoder = new PooledPasswordEncoder(delegate, 1, 1);
+        encoder.setMaxWaitMillis(50);
+
+        try {
+            assertThrows(PasswordHashingRejectedException.class, () -> encoder.matches("password", "encoded"));
+            assertEquals(1, encoder.getRejectedCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void delegateExceptionsArePropagated() {
+        PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches(any(), anyString())).thenThrow(new IllegalArgumentException("bad hash"));
+        encoder = new PooledPasswordEncoder(delegate, 1, 1);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> encoder.matches("password", "encoded"));
+        assertEquals("bad hash", e.getMessage());
+    }
+
+    @Test
+    void disabledChecksRunOnCallingThread() {
+        PasswordEncoder delegate = mock(PasswordEncoder.class);
+        Thread caller = Thread.currentThread();
+        Thread[] checkedOn = new Thread[1];
+        when(delegate.matches(any(), anyString())).thenAnswer(invocation -> {
+            checkedOn[0] = Thread.currentThread();
+            return true;
+        });
+        encoder = new PooledPasswordEncoder(delegate, 1, 1);
+
+        assertTrue(encoder.matches("password", "encoded"));
+        assertNotEquals(caller, checkedOn[0]);
+
+        encoder.setEnabled(false);
+        assertTrue(encoder.matches("password", "encoded"));
+        assertEquals(caller, checkedOn[0]);
+        assertEquals(1, encoder.getHashCount());
+    }
+}
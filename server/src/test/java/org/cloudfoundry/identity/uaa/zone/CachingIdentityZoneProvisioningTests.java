@@ -0,0 +1,122 @@
+package org.cloudfoundry.identity.uaa.zone;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingIdentityZoneProvisioningTests {
+
+    private IdentityZoneProvisioning delegate;
+    private CachingIdentityZoneProvisioning provisioning;
+    private IdentityZone zone;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(IdentityZoneProvisioning.class);
+        provisioning = new CachingIdentityZoneProvisioning(delegate, Duration.ofMinutes(1), 100);
+        zone = MultitenancyFixture.identityZone("zone-id", "myzone");
+        when(delegate.retrieve("zone-id")).thenReturn(zone);
+        when(delegate.retrieveBySubdomain("myzone")).thenReturn(zone);
+    }
+
+    @Test
+    void retrieveBySubdomainIsCached() {
+        assertEquals(zone, provisioning.retrieveBySubdomain("myzone"));
+        assertEquals(zone, provisioning.retrieveBySubdomain("MyZone"));
+        verify(delegate, times(1)).retrieveBySubdomain("myzone");
+        assertEquals(1, provisioning.getCacheStats().hitCount());
+        assertEquals(1, provisioning.getCacheStats().missCount());
+    }
+
+    @Test
+    void retrieveByIdIsCached() {
+        assertEquals(zone, provisioning.retrieve("zone-id"));
+        assertEquals(zone, provisioning.retrieve("zone-id"));
+        verify(delegate, times(1)).retrieve("zone-id");
+    }
+
+    @Test
+    void callersGetACopyOfTheCachedZone() {
+        IdentityZone retrieved = provisioning.retrieve("zone-id");
+        assertNotSame(zone, retrieved);
+        retrieved.setName("changed");
+        retrieved.getConfig().setIdpDiscoveryEnabled(true);
+
+        IdentityZone again = provisioning.retrieveBySubdomain("myzone");
+        assertNotSame(retrieved, again);
+        assertEquals(zone.getName(), provisioning.retrieve("zone-id").getName());
+        assertFalse(provisioning.retrieve("zone-id").getConfig().isIdpDiscoveryEnabled());
+        assertFalse(again.getConfig().isIdpDiscoveryEnabled());
+    }
+
+    @Test
+    void unknownSubdomainIsNegativelyCached() {
+        when(delegate.retrieveBySubdomain(anyString())).thenThrow(new EmptyResultDataAccessException(1));
+        assertThrows(EmptyResultDataAccessException.class, () -> provisioning.retrieveBySubdomain("bogus"));
+        assertThrows(EmptyResultDataAccessException.class, () -> provisioning.retrieveBySubdomain("bogus"));
+        verify(delegate, times(1)).retrieveBySubdomain("bogus");
+    }
+
+    @Test
+    void createInvalidatesNegativeEntry() {
+        when(delegate.retrieveBySubdomain("newzone")).thenThrow(new EmptyResultDataAccessException(1));
+        assertThrows(EmptyResultDataAccessException.class, () -> provisioning.retrieveBySubdomain("newzone"));
+
+        IdentityZone created = MultitenancyFixture.identityZone("new-id", "newzone");
+        when(delegate.create(created)).thenReturn(created);
+        provisioning.create(created);
+
+        doReturn(created).when(delegate).retrieveBySubdomain("newzone");
+        assertEquals(created, provisioning.retrieveBySubdomain("newzone"));
+    }
+
+    @Test
+    void zoneModifiedEventInvalidatesEntries() {
+        provisioning.retrieve("zone-id");
+        provisioning.retrieveBySubdomain("myzone");
+
+        provisioning.onApplicationEvent(IdentityZoneModifiedEvent.identityZoneModified(zone));
+
+        provisioning.retrieve("zone-id");
+        provisioning.retrieveBySubdomain("myzone");
+        verify(delegate, times(2)).retrieve("zone-id");
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+    }
+
+    @Test
+    void renamedZoneIsNoLongerServedUnderOldSubdomain() {
+        provisioning.retrieveBySubdomain("myzone");
+
+        IdentityZone renamed = MultitenancyFixture.identityZone("zone-id", "renamed");
+        when(delegate.update(renamed)).thenReturn(renamed);
+        provisioning.update(renamed);
+
+        provisioning.retrieveBySubdomain("myzone");
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+    }
+
+    @Test
+    void zoneDeletedEventInvalidatesEntries() {
+        provisioning.retrieveBySubdomain("myzone");
+
+        provisioning.onApplicationEvent(new EntityDeletedEvent<>(zone, null, "uaa"));
+
+        provisioning.retrieveBySubdomain("myzone");
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+    }
+}
@@ -18,6 +18,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -26,7 +27,10 @@ import static org.cloudfoundry.identity.uaa.constants.OriginKeys.UAA;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
@@ -294,4 +298,88 @@ public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
         IdentityProvider idp1 = db.create(idp, identityZoneId1);
         db.retrieveByOrigin(idp1.getOriginKey(), identityZone2.getId());
     }
+
+    @Test
+    public void testCachedProvidersAreReloadedAfterChanges() {
+        db.setCacheEnabled(true);
+        String zoneId = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = db.create(MultitenancyFixture.identityProvider(RandomStringUtils.randomAlphabetic(6), zoneId), zoneId);
+
+        IdentityProvider first = db.retrieveByOrigin(idp.getOriginKey(), zoneId);
+        IdentityProvider second = db.retrieveByOrigin(idp.getOriginKey(), zoneId);
+        assertNotSame(first, second);
+        assertEquals(1, db.getCacheStats().hitCount());
+        assertEquals(1, db.retrieveActive(zoneId).size());
+
+        second.setName("changed");
+        db.update(second, zoneId);
+        assertEquals("changed", db.retrieveByOrigin(idp.getOriginKey(), zoneId).getName());
+
+        db.deleteByOrigin(idp.getOriginKey(), zoneId);
+        assertTrue(db.retrieveActive(zoneId).isEmpty());
+    }
+
+    @Test
+    public void testCachedProvidersNoticeChangesFromOtherServers() {
+        db.setCacheEnabled(true);
+        String zoneId = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = db.create(MultitenancyFixture.identityProvider(RandomStringUtils.randomAlphabetic(6), zoneId), zoneId);
+        assertEquals(1, db.retrieveActive(zoneId).size());
+
+        jdbcTemplate.update("update identity_provider set active=?, version=version+1 where id=?", false, idp.getId());
+        assertTrue(db.retrieveActive(zoneId).isEmpty());
+
+        db.setCacheCheckIntervalMillis(60000);
+        jdbcTemplate.update("update identity_provider set active=?, version=version+1 where id=?", true, idp.getId());
+        assertTrue(db.retrieveActive(zoneId).isEmpty());
+
+        db.clearCache();
+        assertFalse(db.retrieveActive(zoneId).isEmpty());
+    }
+
+    @Test
+    public void testCachedProviderConfigIsParsedOnce() {
+        db.setCacheEnabled(true);
+        String zoneId = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider<UaaIdentityProviderDefinition> idp = MultitenancyFixture.identityProvider(RandomStringUtils.randomAlphabetic(6), zoneId);
+        idp.setType(UAA);
+        UaaIdentityProviderDefinition definition = new UaaIdentityProviderDefinition();
+        definition.setEmailDomain(Collections.singletonList("example.com"));
+        idp.setConfig(definition);
+        idp = db.create(idp, zoneId);
+
+        IdentityProvider<UaaIdentityProviderDefinition> first = db.retrieveByOrigin(idp.getOriginKey(), zoneId);
+        IdentityProvider<UaaIdentityProviderDefinition> second = db.retrieveByOrigin(idp.getOriginKey(), zoneId);
+        assertNotSame(first, second);
+        assertSame(first.getConfig(), second.getConfig());
+        assertEquals(Collections.singletonList("example.com"), second.getConfig().getEmailDomain());
+    }
+
+    @Test
+    public void testCachedProvidersNoticeChangesWithSameVersionAndModificationTime() {
+        db.setCacheEnabled(true);
+        JdbcIdentityProviderProvisioning otherServer = new JdbcIdentityProviderProvisioning(jdbcTemplate);
+        String zoneId = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = db.create(MultitenancyFixture.identityProvider(RandomStringUtils.randomAlphabetic(6), zoneId), zoneId);
+        assertEquals(idp.getName(), db.retrieveByOrigin(idp.getOriginKey(), zoneId).getName());
+
+        //a caller with a stale version writes the same version, and MySQL keeps the modification time in seconds
+        idp.setVersion(idp.getVersion() - 1);
+        idp.setName("changed");
+        otherServer.update(idp, zoneId);
+        jdbcTemplate.update("update identity_provider set lastmodified=? where id=?", idp.getLastModified(), idp.getId());
+
+        assertEquals("changed", db.retrieveByOrigin(idp.getOriginKey(), zoneId).getName());
+    }
+
+    @Test(expected = EmptyResultDataAccessException.class)
+    public void testCachedInactiveProviderIsNotRetrievedByOrigin() {
+        db.setCacheEnabled(true);
+        String zoneId = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = MultitenancyFixture.identityProvider(RandomStringUtils.randomAlphabetic(6), zoneId);
+        idp.setActive(false);
+        idp = db.create(idp, zoneId);
+        assertEquals(idp.getId(), db.retrieveByOriginIgnoreActiveFlag(idp.getOriginKey(), zoneId).getId());
+        db.retrieveByOrigin(idp.getOriginKey(), zoneId);
+    }
 }
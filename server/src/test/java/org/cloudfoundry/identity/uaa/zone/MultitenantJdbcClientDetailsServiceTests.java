@@ -9,6 +9,7 @@ import org.cloudfoundry.identity.uaa.oauth.UaaOauth2Authentication;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.util.FakePasswordEncoder;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
@@ -24,6 +25,7 @@ import org.springframework.security.oauth2.provider.client.BaseClientDetails;
 import org.springframework.util.StringUtils;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.*;
 
 import static org.cloudfoundry.identity.uaa.oauth.client.ClientConstants.REQUIRED_USER_GROUPS;
@@ -55,6 +57,7 @@ class MultitenantJdbcClientDetailsServiceTests {
     private IdentityZoneManager mockIdentityZoneManager;
     private String currentZoneId;
     private FakePasswordEncoder fakePasswordEncoder;
+    private long now;
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -682,6 +685,116 @@ class MultitenantJdbcClientDetailsServiceTests {
         assertNull(service.getCreatedByForClientAndZone(client2, currentZoneId));
     }
 
+    @Test
+    void cachedClientIsServedFromMemory() {
+        enableCache();
+        String clientId = addClientToDb(randomValueStringGenerator.generate(), service).getClientId();
+
+        BaseClientDetails loaded = (BaseClientDetails) service.loadClientByClientId(clientId, currentZoneId);
+        loaded.setScope(Collections.singleton("modified.by.caller"));
+        ClientDetails cached = service.loadClientByClientId(clientId, currentZoneId);
+
+        assertEquals(2, service.getCacheStats().hitCount());
+        assertFalse(cached.getScope().contains("modified.by.caller"));
+        assertNotSame(loaded, cached);
+    }
+
+    @Test
+    void cachedClientAdditionalInformationIsCopied() {
+        enableCache();
+        BaseClientDetails client = new BaseClientDetails(randomValueStringGenerator.generate(), null, null, null, null);
+        client.addAdditionalInformation(ClientConstants.ALLOWED_PROVIDERS, Collections.singletonList("uaa"));
+        service.addClientDetails(client, currentZoneId);
+
+        ClientDetails loaded = service.loadClientByClientId(client.getClientId(), currentZoneId);
+        ((List<String>) loaded.getAdditionalInformation().get(ClientConstants.ALLOWED_PROVIDERS)).add("modified.by.caller");
+        ClientDetails cached = service.loadClientByClientId(client.getClientId(), currentZoneId);
+
+        assertEquals(1, service.getCacheStats().hitCount());
+        assertEquals(Collections.singletonList("uaa"), cached.getAdditionalInformation().get(ClientConstants.ALLOWED_PROVIDERS));
+    }
+
+    @Test
+    void cachedClientIsDroppedOnUpdate() {
+        enableCache();
+        BaseClientDetails client = (BaseClientDetails) addClientToDb(randomValueStringGenerator.generate(), service);
+        service.loadClientByClientId(client.getClientId(), currentZoneId);
+
+        client.setScope(Collections.singleton("new.scope"));
+        service.updateClientDetails(client, currentZoneId);
+        assertEquals(Collections.singleton("new.scope"), service.loadClientByClientId(client.getClientId(), currentZoneId).getScope());
+
+        service.updateClientSecret(client.getClientId(), "new-secret", currentZoneId);
+        assertTrue(fakePasswordEncoder.matches("new-secret", service.loadClientByClientId(client.getClientId(), currentZoneId).getClientSecret()));
+    }
+
+    @Test
+    void cachedClientsAreDroppedWithTheirZone() {
+        enableCache();
+        String clientId = addClientToDb(randomValueStringGenerator.generate(), service).getClientId();
+        service.loadClientByClientId(clientId, currentZoneId);
+
+        service.deleteByIdentityZone(currentZoneId);
+
+        assertThrows(NoSuchClientException.class, () -> service.loadClientByClientId(clientId, currentZoneId));
+        assertEquals(0, service.getCacheSize());
+    }
+
+    @Test
+    void changesOnOtherNodesAreDetectedByLastModified() {
+        enableCache();
+        String clientId = "client-" + randomValueStringGenerator.generate();
+        jdbcTemplate.update(INSERT_SQL, clientId, "secret", null, "old.scope", null, null, null, null, null, null,
+                currentZoneId, new Timestamp(now - 60_000), null);
+        service.loadClientByClientId(clientId, currentZoneId);
+
+        jdbcTemplate.update("update oauth_client_details set scope=?, lastmodified=? where client_id=? and identity_zone_id=?",
+                "new.scope", new Timestamp(now), clientId, currentZoneId);
+        assertEquals(Collections.singleton("old.scope"), service.loadClientByClientId(clientId, currentZoneId).getScope());
+
+        now += 1000;
+        assertEquals(Collections.singleton("new.scope"), service.loadClientByClientId(clientId, currentZoneId).getScope());
+    }
+
+    @Test
+    void unchangedClientIsRevalidatedWithoutReloading() {
+        enableCache();
+        String clientId = "client-" + randomValueStringGenerator.generate();
+        jdbcTemplate.update(INSERT_SQL, clientId, "secret", null, "old.scope", null, null, null, null, null, null,
+                currentZoneId, new Timestamp(now - 60_000), null);
+        service.loadClientByClientId(clientId, currentZoneId);
+
+        now += 1000;
+        service.loadClientByClientId(clientId, currentZoneId);
+        now += 1000;
+        service.loadClientByClientId(clientId, currentZoneId);
+
+        assertEquals(2, service.getCacheStats().hitCount());
+    }
+
+    @Test
+    void cachedClientExpires() {
+        enableCache();
+        service.setCacheRevalidationInterval(Duration.ofHours(1));
+        String clientId = addClientToDb(randomValueStringGenerator.generate(), service).getClientId();
+        jdbcTemplate.update("update oauth_client_details set scope=? where client_id=? and identity_zone_id=?",
+                "new.scope", clientId, currentZoneId);
+        assertFalse(service.loadClientByClientId(clientId, currentZoneId).getScope().contains("new.scope"));
+
+        now += Duration.ofMinutes(1).toMillis();
+
+        assertEquals(Collections.singleton("new.scope"), service.loadClientByClientId(clientId, currentZoneId).getScope());
+    }
+
+    private void enableCache() {
+        now = System.currentTimeMillis();
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenAnswer(invocation -> now);
+        service.setTimeService(timeService);
+        service.setCacheExpiration(Duration.ofMinutes(1));
+        service.setCacheRevalidationInterval(Duration.ofSeconds(1));
+    }
+
     private static void validateRequiredGroups(String clientId, JdbcTemplate jdbcTemplate, String... expectedGroups) {
         String requiredUserGroups = jdbcTemplate.queryForObject("select required_user_groups from oauth_client_details where client_id = ?", String.class, clientId);
         assertNotNull(requiredUserGroups);